@@ -0,0 +1,86 @@
+#!/usr/bin/env bash
+#
+# Measures startup time and resident memory of the session service in the
+# JVM startup modes it supports. Needs a running MongoDB; the jar has to be
+# built with the aot profile for the AOT modes:
+#
+#   mvn package -DskipTests -Dpackaging.type=jar -Paot
+#   MONGODB_URI=mongodb://localhost:27017/session-service scripts/measure-startup.sh
+#
+# Environment:
+#   JAR          application jar (default: target/session_service-<version>.jar)
+#   MONGODB_URI  database to connect to (default: mongodb://localhost:27017/session-service)
+#   RUNS         runs per mode, the median is reported (default: 5)
+#   PORT         port to start the service on (default: 18080)
+#   MODES        modes to measure (default: "default lazy-springdoc cds aot aot+cds")
+set -euo pipefail
+
+JAR=${JAR:-$(ls target/session_service-*[0-9].jar | head -n 1)}
+MONGODB_URI=${MONGODB_URI:-mongodb://localhost:27017/session-service}
+RUNS=${RUNS:-5}
+PORT=${PORT:-18080}
+MODES=${MODES:-"default lazy-springdoc cds aot aot+cds"}
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+# extracted layout, class data sharing archives need a fixed class path
+java -Djarmode=tools -jar "$JAR" extract --destination "$WORK/app" > /dev/null
+APP="$WORK/app/$(basename "$JAR")"
+
+flags() {
+    case "$1" in
+        default) echo "" ;;
+        lazy-springdoc) echo "-Dsession.springdoc.lazy=true" ;;
+        cds) echo "-XX:SharedArchiveFile=$WORK/plain.jsa" ;;
+        aot) echo "-Dspring.aot.enabled=true" ;;
+        aot+cds) echo "-Dspring.aot.enabled=true -XX:SharedArchiveFile=$WORK/aot.jsa" ;;
+        *) echo "unknown mode $1" >&2; exit 1 ;;
+    esac
+}
+
+train() {
+    java -XX:ArchiveClassesAtExit="$WORK/plain.jsa" -Dspring.context.exit=onRefresh \
+        -jar "$APP" > /dev/null 2>&1
+    java -XX:ArchiveClassesAtExit="$WORK/aot.jsa" -Dspring.context.exit=onRefresh -Dspring.aot.enabled=true \
+        -jar "$APP" > /dev/null 2>&1
+}
+
+# prints "<seconds until ready> <RSS in MB>" for one run
+run_once() {
+    local log="$WORK/run.log"
+    local start end pid rss
+    start=$(date +%s%N)
+    # shellcheck disable=SC2046
+    java $(flags "$1") -Dserver.port="$PORT" -Dspring.data.mongodb.uri="$MONGODB_URI" \
+        -jar "$APP" > "$log" 2>&1 &
+    pid=$!
+    until curl -sf "http://localhost:$PORT/info" > /dev/null; do
+        if ! kill -0 "$pid" 2> /dev/null; then
+            echo "service did not start, see $log" >&2
+            cat "$log" >&2
+            exit 1
+        fi
+        sleep 0.05
+    done
+    end=$(date +%s%N)
+    rss=$(awk '/VmRSS/ { print int($2 / 1024) }' "/proc/$pid/status")
+    kill "$pid"
+    wait "$pid" 2> /dev/null || true
+    echo "$(( (end - start) / 1000000 )) $rss"
+}
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+train
+printf "%-16s %12s %10s\n" "mode" "ready (ms)" "RSS (MB)"
+for mode in $MODES; do
+    : > "$WORK/results"
+    for _ in $(seq "$RUNS"); do
+        run_once "$mode" >> "$WORK/results"
+    done
+    printf "%-16s %12s %10s\n" "$mode" \
+        "$(cut -d' ' -f1 "$WORK/results" | median)" \
+        "$(cut -d' ' -f2 "$WORK/results" | median)"
+done
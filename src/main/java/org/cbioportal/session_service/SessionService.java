@@ -36,9 +36,7 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.PropertySource;
-import org.springframework.data.mongodb.core.mapping.event.ValidatingMongoEventListener;
-import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
-import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 /**
@@ -46,18 +44,9 @@ import org.springframework.context.annotation.Bean;
  */
 @SpringBootApplication
 @PropertySource(value = "classpath:system_settings_hidden_from_users.properties")
+@EnableScheduling
 public class SessionService extends SpringBootServletInitializer {
 
-    @Bean
-    public ValidatingMongoEventListener validatingMongoEventListener() {
-        return new ValidatingMongoEventListener(validator());
-    }
-
-    @Bean
-    public LocalValidatorFactoryBean validator() {
-        return new LocalValidatorFactoryBean();
-    }
-
     public static void main(String[] args) {
         SpringApplication.run(SessionService.class, args);
     }
@@ -0,0 +1,19 @@
+package org.cbioportal.session_service.cache;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+    /**
+     * Falls back to the embedded cache unless a Redis backed
+     * {@link RemoteCache} bean has been registered.
+     */
+    @Bean
+    @ConditionalOnMissingBean(RemoteCache.class)
+    public RemoteCache remoteCache() {
+        return new InProcessRemoteCache();
+    }
+}
@@ -0,0 +1,22 @@
+package org.cbioportal.session_service.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Minimal subset of the Redis command set used by the shared session cache
+ * tier (GET, SET with EX, DEL, PUBLISH, SUBSCRIBE). Deployments running
+ * several replicas provide an implementation backed by a Redis compatible
+ * server; {@link InProcessRemoteCache} is used otherwise.
+ */
+public interface RemoteCache {
+
+    String get(String key);
+
+    void set(String key, String value, long ttlSeconds);
+
+    void del(String key);
+
+    void publish(String channel, String message);
+
+    void subscribe(String channel, Consumer<String> listener);
+}
@@ -0,0 +1,292 @@
+package org.cbioportal.session_service.cache;
+
+import jakarta.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.events.SessionChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Two level cache for single sessions: a bounded near cache local to this
+ * JVM in front of a {@link RemoteCache} shared by all replicas. Updates and
+ * deletes remove the entry from both levels and publish an invalidation
+ * message so the other replicas drop their near copy.
+ *
+ * Entries are keyed by type and id only (ids are unique per type
+ * collection), callers have to check the source of a cached session.
+ * Deleting a source records the time in the remote cache, so remote
+ * entries of the source cached before are ignored by every replica.
+ *
+ * A read that started before a write may finish after it. Readers take the
+ * {@link #generation} of the session before reading it from the database
+ * and {@link #put} skips the session if it was evicted since; writers evict
+ * before and after writing. Callers get their own copy of a cached session.
+ */
+@Component
+public class SessionCache {
+
+    static final String INVALIDATION_CHANNEL = "session-service:invalidations";
+    private static final String KEY_PREFIX = "session-service:session:";
+    // time a source was deleted, remote entries cached before are ignored
+    private static final String DELETED_SOURCE_PREFIX = "session-service:deleted-source:";
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCache.class);
+    private static final int GENERATION_STRIPES = 1024;
+    // keeps the BSON types of the data, such as Int64 and dates, in the remote tier
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+        .outputMode(JsonMode.EXTENDED)
+        .build();
+
+    @Value("${session.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.cache.near.max-entries:10000}")
+    private int nearMaxEntries;
+
+    @Value("${session.cache.near.ttl-seconds:60}")
+    private long nearTtlSeconds;
+
+    @Value("${session.cache.remote.ttl-seconds:3600}")
+    private long remoteTtlSeconds;
+
+    @Autowired
+    private RemoteCache remoteCache;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private Map<String, NearEntry> nearCache;
+    // evictions per stripe of keys, keys sharing a stripe only cost a skipped put
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @PostConstruct
+    public void init() {
+        nearCache = new LinkedHashMap<String, NearEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NearEntry> eldest) {
+                return size() > nearMaxEntries;
+            }
+        };
+        if (enabled) {
+            remoteCache.subscribe(INVALIDATION_CHANNEL, this::onInvalidation);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the cached session or null if neither level holds it
+     */
+    public Session get(SessionType type, String id) {
+        if (!enabled) {
+            return null;
+        }
+        String key = key(type, id);
+        long generation = generations.get(stripe(key));
+        synchronized (nearCache) {
+            NearEntry entry = nearCache.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > System.currentTimeMillis()) {
+                    return entry.session.copy();
+                }
+                nearCache.remove(key);
+            }
+        }
+        String json = remoteCache.get(key);
+        if (json == null) {
+            return null;
+        }
+        Document document = parse(json);
+        Session session = document == null ? null : deserialize(document);
+        if (session == null) {
+            return null;
+        }
+        String deletedAt = remoteCache.get(DELETED_SOURCE_PREFIX + session.getSource());
+        if (deletedAt != null && ((Number) document.getOrDefault("cached", 0L)).longValue() <= Long.parseLong(deletedAt)) {
+            remoteCache.del(key);
+            return null;
+        }
+        putNear(key, session.copy(), generation);
+        return session;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put} for a session read from
+     * the database from now on
+     */
+    public long generation(SessionType type, String id) {
+        return generations.get(stripe(key(type, id)));
+    }
+
+    /**
+     * Caches a session read from the database, unless it was evicted after
+     * the read started.
+     * @param generation the {@link #generation} taken before the read
+     */
+    public void put(Session session, long generation) {
+        if (!enabled) {
+            return;
+        }
+        String key = key(session.getType(), session.getId());
+        if (!putNear(key, session.copy(), generation)) {
+            return;
+        }
+        remoteCache.set(key, serialize(session), remoteTtlSeconds);
+        if (generations.get(stripe(key)) != generation) {
+            // evicted while it was written to the remote level
+            remoteCache.del(key);
+        }
+    }
+
+    /**
+     * Removes the session from both levels and tells the other replicas to
+     * drop their near copy.
+     */
+    public void evict(SessionType type, String id) {
+        if (!enabled) {
+            return;
+        }
+        String key = key(type, id);
+        evictLocal(type, id);
+        remoteCache.del(key);
+        remoteCache.publish(INVALIDATION_CHANNEL, nodeId + "|" + key);
+    }
+
+    /**
+     * Removes the session from the near cache of this replica only.
+     */
+    public void evictLocal(SessionType type, String id) {
+        if (!enabled) {
+            return;
+        }
+        String key = key(type, id);
+        synchronized (nearCache) {
+            generations.incrementAndGet(stripe(key));
+            nearCache.remove(key);
+        }
+    }
+
+    /**
+     * Removes every session of the source from both levels on all replicas.
+     */
+    public void evictSource(String source) {
+        if (!enabled) {
+            return;
+        }
+        // entries older than the remote ttl are gone anyway
+        remoteCache.set(DELETED_SOURCE_PREFIX + source, Long.toString(System.currentTimeMillis()),
+            remoteTtlSeconds);
+        evictNearSource(source);
+        remoteCache.publish(INVALIDATION_CHANNEL, nodeId + "|" + DELETED_SOURCE_PREFIX + source);
+    }
+
+    /**
+     * Drops sessions written by other instances or directly in the database.
+     * Every instance sees the change stream, so no invalidation is published.
+     */
+    @EventListener
+    public void onSessionChange(SessionChange change) {
+        if (!enabled || !change.isFromChangeStream() || change.getOperation() == SessionChange.Operation.INSERT) {
+            return;
+        }
+        evictLocal(change.getType(), change.getId());
+        remoteCache.del(key(change.getType(), change.getId()));
+    }
+
+    private void onInvalidation(String message) {
+        int separator = message.indexOf('|');
+        if (separator < 0 || message.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        String key = message.substring(separator + 1);
+        if (key.startsWith(DELETED_SOURCE_PREFIX)) {
+            evictNearSource(key.substring(DELETED_SOURCE_PREFIX.length()));
+            return;
+        }
+        synchronized (nearCache) {
+            generations.incrementAndGet(stripe(key));
+            nearCache.remove(key);
+        }
+    }
+
+    private void evictNearSource(String source) {
+        synchronized (nearCache) {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                generations.incrementAndGet(i);
+            }
+            nearCache.values().removeIf(entry -> source.equals(entry.session.getSource()));
+        }
+    }
+
+    // false if the key was evicted since the generation was taken
+    private boolean putNear(String key, Session session, long generation) {
+        synchronized (nearCache) {
+            if (generations.get(stripe(key)) != generation) {
+                return false;
+            }
+            nearCache.put(key, new NearEntry(session, System.currentTimeMillis() + nearTtlSeconds * 1000));
+            return true;
+        }
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+
+    private String key(SessionType type, String id) {
+        return KEY_PREFIX + type + ":" + id;
+    }
+
+    private String serialize(Session session) {
+        return new Document("id", session.getId())
+            .append("source", session.getSource())
+            .append("type", session.getType().name())
+            .append("data", session.getData())
+            .append("cached", System.currentTimeMillis())
+            .toJson(JSON_SETTINGS);
+    }
+
+    private Document parse(String json) {
+        try {
+            return Document.parse(json);
+        } catch (RuntimeException e) {
+            LOG.warn("Ignoring unreadable remote cache entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Session deserialize(Document document) {
+        try {
+            Session session = new Session();
+            session.setId(document.getString("id"));
+            session.setSource(document.getString("source"));
+            session.setType(SessionType.valueOf(document.getString("type")));
+            session.setData(document.get("data"));
+            return session;
+        } catch (RuntimeException e) {
+            LOG.warn("Ignoring unreadable remote cache entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class NearEntry {
+        private final Session session;
+        private final long expiresAt;
+
+        private NearEntry(Session session, long expiresAt) {
+            this.session = session;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.cbioportal.session_service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.events.SessionChange;
+import org.cbioportal.session_service.events.SessionChangeStreamWatcher;
+import org.cbioportal.session_service.journal.AsyncSessionWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Answers "this session certainly does not exist" without a database round
+ * trip, using a Bloom filter of existing ids per {@link SessionType} plus a
+ * short lived cache of recent misses.
+ *
+ * The filters are built from an id-only scan of each collection. Other
+ * replicas and imports keep inserting while (and after) a scan runs, with
+ * client supplied ids of any age, so the filter and the misses are only used
+ * while the change stream is open and was open before the scan started: it
+ * adds every insert to the filter and drops it from the misses. ObjectIds
+ * created in the last trust margin and ids that are not ObjectIds still go to
+ * the database, their insert may not have reached the change stream yet.
+ */
+@Component
+public class SessionIdFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionIdFilter.class);
+
+    @Value("${session.id-filter.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.id-filter.fpp:0.01}")
+    private double fpp;
+
+    @Value("${session.id-filter.trust-margin-seconds:60}")
+    private long trustMarginSeconds;
+
+    @Value("${session.negative-cache.max-entries:10000}")
+    private int negativeCacheMaxEntries;
+
+    @Value("${session.negative-cache.ttl-seconds:30}")
+    private long negativeCacheTtlSeconds;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    @Autowired
+    private SessionChangeStreamWatcher sessionChangeStreamWatcher;
+
+    private final Map<SessionType, Filter> filters = new EnumMap<>(SessionType.class);
+    private final Map<String, Long> recentMisses = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > negativeCacheMaxEntries;
+        }
+    };
+    private Counter filterRejections;
+    private Counter negativeCacheHits;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (!sessionChangeStreamWatcher.isEnabled()) {
+            LOG.warn("session.id-filter.enabled needs session.change-stream.enabled, the id filter is not used");
+            return;
+        }
+        filterRejections = meterRegistry.counter("session.id_filter.rejections");
+        negativeCacheHits = meterRegistry.counter("session.negative_cache.hits");
+        for (SessionType type : SessionType.values()) {
+            Gauge.builder("session.id_filter.expected_fpp", this, f -> f.expectedFpp(type))
+                .tag("type", type.name())
+                .register(meterRegistry);
+            Gauge.builder("session.id_filter.memory", this, f -> f.memoryBytes(type))
+                .tag("type", type.name())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        }
+        Thread builder = new Thread(() -> {
+            // a scan started before the stream opened could miss inserts
+            while (sessionChangeStreamWatcher.watchingSince() == 0) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            rebuild();
+        }, "session-id-filter-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * Replaces the filter of every type with one built from a fresh scan, which
+     * also drops the ids of deleted sessions.
+     */
+    @Scheduled(fixedDelayString = "${session.id-filter.rebuild-interval-ms:21600000}",
+        initialDelayString = "${session.id-filter.rebuild-interval-ms:21600000}")
+    public void rebuild() {
+        if (!enabled || !sessionChangeStreamWatcher.isEnabled()) {
+            return;
+        }
+        for (SessionType type : SessionType.values()) {
+            try {
+                Filter filter = scan(type);
+                synchronized (filters) {
+                    filters.put(type, filter);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Could not build id filter for " + type + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return false only if the session is known not to exist
+     */
+    public boolean mightExist(String source, SessionType type, String id) {
+        if (!enabled || sessionChangeStreamWatcher.watchingSince() == 0) {
+            return true;
+        }
+        String missKey = missKey(source, type, id);
+        synchronized (recentMisses) {
+            Long expiresAt = recentMisses.get(missKey);
+            if (expiresAt != null) {
+                if (expiresAt > System.currentTimeMillis()) {
+                    negativeCacheHits.increment();
+                    return false;
+                }
+                recentMisses.remove(missKey);
+            }
+        }
+        Filter filter;
+        synchronized (filters) {
+            filter = filters.get(type);
+        }
+        long watchingSince = sessionChangeStreamWatcher.watchingSince();
+        if (filter == null || watchingSince == 0 || watchingSince > filter.scanStart || !ObjectId.isValid(id)
+            || new ObjectId(id).getTimestamp() >= TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())
+                - trustMarginSeconds) {
+            return true;
+        }
+        if (filter.bloomFilter.mightContain(id)) {
+            return true;
+        }
+        filterRejections.increment();
+        return false;
+    }
+
+    /**
+     * Remembers a miss, unless the change stream that would report its insert
+     * is not open.
+     */
+    public void recordMissing(String source, SessionType type, String id) {
+        if (!enabled || sessionChangeStreamWatcher.watchingSince() == 0) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(negativeCacheTtlSeconds);
+        synchronized (recentMisses) {
+            recentMisses.put(missKey(source, type, id), expiresAt);
+        }
+    }
+
+    public void recordInserted(String source, SessionType type, String id) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (recentMisses) {
+            recentMisses.remove(missKey(source, type, id));
+        }
+        Filter filter;
+        synchronized (filters) {
+            filter = filters.get(type);
+        }
+        if (filter != null) {
+            filter.bloomFilter.put(id);
+        }
+    }
+
+    /**
+     * Forgets the recent misses of the source, whose sessions may be imported
+     * again.
+     */
+    public void onDeleteSource(String source) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (recentMisses) {
+            for (SessionType type : SessionType.values()) {
+                recentMisses.keySet().removeIf(key -> key.startsWith(missKey(source, type, "")));
+            }
+        }
+    }
+
+    @EventListener
+    public void onSessionChange(SessionChange change) {
+        if (change.isFromChangeStream() && change.getOperation() == SessionChange.Operation.INSERT) {
+            recordInserted(change.getSource(), change.getType(), change.getId());
+        }
+    }
+
+    private Filter scan(SessionType type) {
+        long scanStart = System.currentTimeMillis();
+        List<String> collections = sessionCollections.collections(type);
+        long expected = 0;
+        for (String collection : collections) {
+            expected += mongoTemplate.getCollection(collection).estimatedDocumentCount();
+        }
+        // leave head room for the inserts until the next rebuild
+        BloomFilter bloomFilter = new BloomFilter(Math.max(1000, expected * 2), fpp);
+        long count = 0;
+        for (String collection : collections) {
+            try (MongoCursor<Document> cursor = mongoTemplate.getCollection(collection).find()
+                .projection(new Document("_id", 1)).batchSize(10000).iterator()) {
+                while (cursor.hasNext()) {
+                    bloomFilter.put(cursor.next().get("_id").toString());
+                    count++;
+                }
+            }
+        }
+        // ids of sessions accepted while an identical one existed
+        try (MongoCursor<Document> cursor = mongoTemplate.getCollection(AsyncSessionWriter.ALIASES)
+            .find(new Document("type", type.name())).projection(new Document("_id", 1)).batchSize(10000).iterator()) {
+            while (cursor.hasNext()) {
+                bloomFilter.put(cursor.next().get("_id").toString());
+                count++;
+            }
+        }
+        LOG.info("Built id filter for " + type + " with " + count + " ids");
+        return new Filter(bloomFilter, scanStart);
+    }
+
+    private double expectedFpp(SessionType type) {
+        synchronized (filters) {
+            Filter filter = filters.get(type);
+            return filter == null ? 0 : filter.bloomFilter.expectedFpp();
+        }
+    }
+
+    private double memoryBytes(SessionType type) {
+        synchronized (filters) {
+            Filter filter = filters.get(type);
+            return filter == null ? 0 : filter.bloomFilter.memoryBytes();
+        }
+    }
+
+    private String missKey(String source, SessionType type, String id) {
+        return type + ":" + source + ":" + id;
+    }
+
+    private static final class Filter {
+        private final BloomFilter bloomFilter;
+        private final long scanStart;
+
+        private Filter(BloomFilter bloomFilter, long scanStart) {
+            this.bloomFilter = bloomFilter;
+            this.scanStart = scanStart;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package org.cbioportal.session_service.cache;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.events.SessionChange;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the ids returned by the query endpoints, keyed by source, type,
+ * normalized filter and page. Sessions are hydrated from the
+ * {@link SessionCache}, so only the membership of a result is cached here.
+ *
+ * Every entry is tagged with the field paths its filter reads. A write only
+ * invalidates the entries it could affect: an update those whose tags
+ * intersect the changed paths, an insert those whose filter matches (or may
+ * match) the new session, a delete those containing the session and paged
+ * results that could shift.
+ */
+@Component
+public class SessionQueryCache {
+
+    @Value("${session.query-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.query-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${session.query-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // bumped on every invalidation of a source and type, see put()
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put} after running the query
+     */
+    public long generation(String source, SessionType type) {
+        return generations.computeIfAbsent(source + ":" + type, k -> new AtomicLong()).get();
+    }
+
+    public List<String> get(String source, SessionType type, Query query) {
+        if (!enabled) {
+            return null;
+        }
+        String key = key(source, type, query);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.ids;
+        }
+    }
+
+    /**
+     * Stores the result unless a write invalidated the source and type since
+     * {@code generation} was read, in which case the result may be stale.
+     */
+    public void put(String source, SessionType type, Query query, List<Session> result, long generation) {
+        if (!enabled) {
+            return;
+        }
+        Document filter = query.getQueryObject();
+        // deleting a session on an earlier page shifts the later pages
+        Entry entry = new Entry(source, type, filter, query.getSkip() > 0,
+            result.stream().map(Session::getId).collect(Collectors.toList()),
+            System.currentTimeMillis() + ttlSeconds * 1000);
+        synchronized (entries) {
+            if (generation(source, type) != generation) {
+                return;
+            }
+            entries.put(key(source, type, query), entry);
+            while (entries.size() > maxEntries) {
+                Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    public void onInsert(Session session) {
+        invalidate(session.getSource(), session.getType(),
+            entry -> Filters.matches(entry.filter, session.getData()) != Match.NO);
+    }
+
+    public void onUpdate(Session session, Object previousData) {
+        Set<String> changed = new HashSet<>();
+        Filters.changedPaths("data", previousData, session.getData(), changed);
+        invalidate(session.getSource(), session.getType(),
+            entry -> changed.stream().anyMatch(path -> entry.tags.stream().anyMatch(tag -> overlaps(path, tag))));
+    }
+
+    public void onDelete(String source, SessionType type, String id) {
+        invalidate(source, type, entry -> entry.paged || entry.ids.contains(id));
+    }
+
+    public void onDeleteSource(String source) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            for (SessionType type : SessionType.values()) {
+                generations.computeIfAbsent(source + ":" + type, k -> new AtomicLong()).incrementAndGet();
+            }
+            entries.values().removeIf(entry -> entry.source.equals(source));
+        }
+    }
+
+    /**
+     * Writes observed on the change stream carry no data, so every entry of
+     * the type (and source, when known) is dropped.
+     */
+    @EventListener
+    public void onSessionChange(SessionChange change) {
+        if (!enabled || !change.isFromChangeStream()) {
+            return;
+        }
+        synchronized (entries) {
+            generations.forEach((key, generation) -> {
+                if (key.endsWith(":" + change.getType())) {
+                    generation.incrementAndGet();
+                }
+            });
+            entries.values().removeIf(entry -> entry.type == change.getType()
+                && (change.getSource() == null || entry.source.equals(change.getSource())));
+        }
+    }
+
+    private void invalidate(String source, SessionType type, Predicate<Entry> affected) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            generations.computeIfAbsent(source + ":" + type, k -> new AtomicLong()).incrementAndGet();
+            entries.values().removeIf(entry -> entry.type == type && entry.source.equals(source)
+                && affected.test(entry));
+        }
+    }
+
+    private static boolean overlaps(String path, String tag) {
+        return path.equals(tag) || path.startsWith(tag + ".") || tag.startsWith(path + ".");
+    }
+
+    private String key(String source, SessionType type, Query query) {
+        return type + ":" + source + ":" + query.getSkip() + ":" + query.getLimit() + ":"
+            + Filters.normalize(query.getQueryObject());
+    }
+
+    private enum Match { YES, NO, UNKNOWN }
+
+    private static final class Entry {
+        private final String source;
+        private final SessionType type;
+        private final Document filter;
+        private final Set<String> tags;
+        private final boolean paged;
+        private final List<String> ids;
+        private final long expiresAt;
+
+        private Entry(String source, SessionType type, Document filter, boolean paged, List<String> ids,
+                      long expiresAt) {
+            this.source = source;
+            this.type = type;
+            this.filter = filter;
+            this.tags = new HashSet<>();
+            Filters.fieldPaths(null, filter, tags);
+            this.paged = paged;
+            this.ids = ids;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The parts of the filter language needed for tagging and for deciding
+     * whether a new session matches a cached filter.
+     */
+    private static final class Filters {
+
+        private static String normalize(Object value) {
+            if (value instanceof Document) {
+                return new TreeMap<>((Document) value).entrySet().stream()
+                    .map(e -> e.getKey() + ":" + normalize(e.getValue()))
+                    .collect(Collectors.joining(",", "{", "}"));
+            }
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).stream().map(Filters::normalize)
+                    .collect(Collectors.joining(",", "[", "]"));
+            }
+            return value == null ? "null" : value.getClass().getSimpleName() + "(" + value + ")";
+        }
+
+        private static void fieldPaths(String parent, Object filter, Set<String> paths) {
+            if (filter instanceof Document) {
+                for (Map.Entry<String, Object> entry : ((Document) filter).entrySet()) {
+                    if (entry.getKey().startsWith("$")) {
+                        // logical operators nest whole filters, the others apply to the parent
+                        fieldPaths(parent, entry.getValue(), paths);
+                    } else if (parent == null) {
+                        paths.add(entry.getKey());
+                        fieldPaths(entry.getKey(), entry.getValue(), paths);
+                    }
+                }
+            } else if (filter instanceof Collection) {
+                for (Object element : (Collection<?>) filter) {
+                    fieldPaths(parent, element, paths);
+                }
+            }
+        }
+
+        /**
+         * Evaluates top level equality, $eq, $in and $all conditions; anything
+         * else yields UNKNOWN.
+         */
+        private static Match matches(Document filter, Object data) {
+            Match result = Match.YES;
+            for (Map.Entry<String, Object> entry : filter.entrySet()) {
+                String field = entry.getKey();
+                if (field.equals("source") || field.equals("type")) {
+                    continue;
+                }
+                if (!field.startsWith("data.")) {
+                    return Match.UNKNOWN;
+                }
+                Object value = resolve(data, field.substring("data.".length()));
+                if (value == Unresolvable.INSTANCE) {
+                    return Match.UNKNOWN;
+                }
+                Match match = matchesCondition(entry.getValue(), value);
+                if (match == Match.NO) {
+                    return Match.NO;
+                }
+                if (match == Match.UNKNOWN) {
+                    result = Match.UNKNOWN;
+                }
+            }
+            return result;
+        }
+
+        private static Match matchesCondition(Object condition, Object value) {
+            if (condition instanceof Document) {
+                Document operators = (Document) condition;
+                if (operators.keySet().stream().noneMatch(k -> k.startsWith("$"))) {
+                    return Match.UNKNOWN;
+                }
+                for (Map.Entry<String, Object> operator : operators.entrySet()) {
+                    Match match;
+                    switch (operator.getKey()) {
+                        case "$eq":
+                            match = equalsOrContains(value, operator.getValue());
+                            break;
+                        case "$in":
+                            match = anyMatch((Collection<?>) operator.getValue(), value);
+                            break;
+                        case "$all":
+                            match = allMatch((Collection<?>) operator.getValue(), value);
+                            break;
+                        default:
+                            return Match.UNKNOWN;
+                    }
+                    if (match != Match.YES) {
+                        return match;
+                    }
+                }
+                return Match.YES;
+            }
+            if (condition instanceof Collection || condition instanceof Pattern) {
+                return Match.UNKNOWN;
+            }
+            return equalsOrContains(value, condition);
+        }
+
+        private static Match anyMatch(Collection<?> candidates, Object value) {
+            for (Object candidate : candidates) {
+                if (equalsOrContains(value, candidate) == Match.YES) {
+                    return Match.YES;
+                }
+            }
+            return Match.NO;
+        }
+
+        private static Match allMatch(Collection<?> candidates, Object value) {
+            for (Object candidate : candidates) {
+                if (equalsOrContains(value, candidate) == Match.NO) {
+                    return Match.NO;
+                }
+            }
+            return Match.YES;
+        }
+
+        private static Match equalsOrContains(Object value, Object expected) {
+            if (expected instanceof Document || expected instanceof Collection) {
+                return Match.UNKNOWN;
+            }
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).stream().anyMatch(v -> sameValue(v, expected)) ? Match.YES : Match.NO;
+            }
+            return sameValue(value, expected) ? Match.YES : Match.NO;
+        }
+
+        private static boolean sameValue(Object a, Object b) {
+            if (a instanceof Number && b instanceof Number) {
+                return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+            }
+            return Objects.equals(a, b);
+        }
+
+        private static Object resolve(Object data, String path) {
+            Object current = data;
+            for (String part : path.split("\\.")) {
+                if (current instanceof Map) {
+                    current = ((Map<?, ?>) current).get(part);
+                } else if (current == null) {
+                    return null;
+                } else {
+                    // arrays of documents and positional paths are not evaluated
+                    return Unresolvable.INSTANCE;
+                }
+            }
+            return current;
+        }
+
+        private static void changedPaths(String path, Object before, Object after, Set<String> changed) {
+            if (before instanceof Map && after instanceof Map) {
+                Set<Object> keys = new HashSet<>(((Map<?, ?>) before).keySet());
+                keys.addAll(((Map<?, ?>) after).keySet());
+                for (Object key : keys) {
+                    changedPaths(path + "." + key, ((Map<?, ?>) before).get(key), ((Map<?, ?>) after).get(key),
+                        changed);
+                }
+            } else if (!Objects.equals(before, after)) {
+                changed.add(path);
+            }
+        }
+    }
+
+    private enum Unresolvable { INSTANCE }
+}
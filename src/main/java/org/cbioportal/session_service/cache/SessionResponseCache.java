@@ -0,0 +1,183 @@
+package org.cbioportal.session_service.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.cbioportal.session_service.domain.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the encoded JSON of recently served sessions so hot sessions are
+ * written to the response without serializing the data tree again. Entries
+ * are keyed by source, type, id, checksum, view and encoding, so an update
+ * makes the old entry unreachable and it ages out of the LRU.
+ */
+@Component
+public class SessionResponseCache {
+
+    @Value("${session.response-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.response-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${session.response-cache.gzip:true}")
+    private boolean gzipEnabled;
+
+    @Value("${session.response-cache.gzip-min-bytes:1024}")
+    private int gzipMinBytes;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Returns the encoded session, rendering and caching it on a miss.
+     * @param acceptsGzip whether the client accepts gzip, see {@link #acceptsGzip(String)}
+     */
+    public RenderedSession render(Session session, Class<?> view, boolean acceptsGzip) {
+        if (!enabled) {
+            return new RenderedSession(serialize(session, view), false);
+        }
+        boolean gzip = gzipEnabled && acceptsGzip;
+        String key = session.getSource() + ":" + session.getType() + ":" + session.getId() + ":" + session.getChecksum() + ":"
+            + view.getSimpleName() + ":";
+        byte[] cached = get(key + (gzip ? "gzip" : "identity"));
+        if (cached != null) {
+            return new RenderedSession(cached, gzip);
+        }
+        if (gzip) {
+            // small bodies are not worth compressing, remember them uncompressed
+            cached = get(key + "identity");
+            if (cached != null && cached.length < gzipMinBytes) {
+                return new RenderedSession(cached, false);
+            }
+        }
+        byte[] json = cached != null ? cached : serialize(session, view);
+        put(key + "identity", json);
+        if (!gzip || json.length < gzipMinBytes) {
+            return new RenderedSession(json, false);
+        }
+        byte[] compressed = gzip(json);
+        put(key + "gzip", compressed);
+        return new RenderedSession(compressed, true);
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header, may be null
+     * @return whether the header accepts gzip with a non-zero q-value,
+     * directly or through *
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        Double q = gzip != null ? gzip : any;
+        return q != null && q > 0;
+    }
+
+    public void evictSource(String source) {
+        synchronized (entries) {
+            Iterator<Map.Entry<String, byte[]>> entry = entries.entrySet().iterator();
+            while (entry.hasNext()) {
+                Map.Entry<String, byte[]> next = entry.next();
+                if (next.getKey().startsWith(source + ":")) {
+                    totalBytes -= next.getValue().length;
+                    entry.remove();
+                }
+            }
+        }
+    }
+
+    private byte[] get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void put(String key, byte[] body) {
+        if (body.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(key, body);
+            if (previous != null) {
+                totalBytes -= previous.length;
+            }
+            totalBytes += body.length;
+            Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private byte[] serialize(Session session, Class<?> view) {
+        try {
+            return objectMapper.writerWithView(view).writeValueAsBytes(session);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static final class RenderedSession {
+        private final byte[] body;
+        private final boolean gzipped;
+
+        private RenderedSession(byte[] body, boolean gzipped) {
+            this.body = body;
+            this.gzipped = gzipped;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean isGzipped() {
+            return gzipped;
+        }
+    }
+}
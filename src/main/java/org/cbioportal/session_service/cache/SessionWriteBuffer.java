@@ -0,0 +1,215 @@
+package org.cbioportal.session_service.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionRepository;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.mongo.SessionSharding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind buffer for updates of chatty session types such as settings,
+ * whose loss is acceptable. Updates replace the pending version of the
+ * session (last write wins) and are written through the repository in bulk
+ * every flush interval, or earlier once flush-size sessions are pending.
+ * Single session reads on this instance see pending updates immediately,
+ * list and query endpoints and other instances only after the flush.
+ *
+ * The query cache is invalidated again once an update is flushed, since a
+ * query running before the flush caches the membership MongoDB still has.
+ *
+ * Updates still pending when an instance dies are lost, at most one flush
+ * interval or max-pending sessions. Pending updates are drained on a graceful
+ * shutdown. An update duplicating the data of another session is written
+ * directly, so the client gets the error; one MongoDB rejects at the flush
+ * anyway is dropped and counted as session.write_behind.dropped.
+ */
+@Component
+public class SessionWriteBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionWriteBuffer.class);
+
+    @Value("${session.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.write-behind.types:settings}")
+    private String types;
+
+    @Value("${session.write-behind.flush-size:1000}")
+    private int flushSize;
+
+    // beyond this updates are written directly, bounding memory and loss
+    @Value("${session.write-behind.max-pending:10000}")
+    private int maxPending;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private SessionSharding sessionSharding;
+
+    @Autowired
+    private SessionQueryCache sessionQueryCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private static final class Pending {
+        private final Session session;
+        // the data MongoDB holds, from before the first buffered update
+        private final Object storedData;
+
+        private Pending(Session session, Object storedData) {
+            this.session = session;
+            this.storedData = storedData;
+        }
+    }
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Set<SessionType> bufferedTypes;
+
+    @PostConstruct
+    public void init() {
+        bufferedTypes = Arrays.stream(types.split(","))
+            .map(String::trim)
+            .filter(type -> !type.isEmpty())
+            .map(SessionType::valueOf)
+            .collect(Collectors.toSet());
+        if (enabled) {
+            Gauge.builder("session.write_behind.pending", pending, Map::size).register(meterRegistry);
+        }
+    }
+
+    public boolean isBuffered(SessionType type) {
+        return enabled && bufferedTypes.contains(type);
+    }
+
+    /**
+     * Buffers an update of an existing session. The session must not be
+     * modified afterwards.
+     * @param previousData the data of the session before the update
+     * @return false if the buffer is full or the update duplicates another
+     * session and the caller has to write the session itself
+     */
+    public boolean offer(Session session, Object previousData) {
+        if (!isBuffered(session.getType())) {
+            return false;
+        }
+        if (sessionSharding.isChecksumUnique(session.getType())) {
+            Session duplicate = sessionRepository.findOneBySourceAndTypeAndChecksum(session.getSource(),
+                session.getType(), session.getChecksum());
+            if (duplicate != null && !duplicate.getId().equals(session.getId())) {
+                return false;
+            }
+        }
+        String key = key(session.getType(), session.getId());
+        if (pending.size() >= maxPending && !pending.containsKey(key)) {
+            meterRegistry.counter("session.write_behind.overflow").increment();
+            return false;
+        }
+        pending.compute(key, (k, previous) ->
+            new Pending(session, previous != null ? previous.storedData : previousData));
+        if (pending.size() >= flushSize && flushing.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                try {
+                    flush();
+                } finally {
+                    flushing.set(false);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * @return the pending version of the session, null if there is none
+     */
+    public Session get(SessionType type, String id) {
+        Pending entry = enabled ? pending.get(key(type, id)) : null;
+        return entry == null ? null : entry.session;
+    }
+
+    /**
+     * Drops the pending update of a session that is being deleted.
+     */
+    public void discard(SessionType type, String id) {
+        if (enabled) {
+            pending.remove(key(type, id));
+        }
+    }
+
+    public void discardSource(String source) {
+        if (enabled) {
+            pending.values().removeIf(entry -> source.equals(entry.session.getSource()));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${session.write-behind.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        if (!enabled || pending.isEmpty()) {
+            return;
+        }
+        write(new ArrayList<>(pending.values()));
+    }
+
+    @PreDestroy
+    public void drain() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private void write(List<Pending> entries) {
+        List<Session> sessions = entries.stream().map(entry -> entry.session).collect(Collectors.toList());
+        List<Session> rejected;
+        try {
+            rejected = sessionRepository.replaceSessions(sessions);
+        } catch (RuntimeException e) {
+            // keep everything pending and try again on the next flush
+            LOG.warn("Could not flush " + sessions.size() + " buffered sessions: " + e.getMessage());
+            return;
+        }
+        for (Session session : rejected) {
+            LOG.warn("Dropping buffered update of " + session.getType() + " session " + session.getId()
+                + " rejected by MongoDB");
+        }
+        Set<Session> dropped = Set.copyOf(rejected);
+        for (Pending entry : entries) {
+            Session session = entry.session;
+            // updates made while flushing stay pending
+            pending.remove(key(session.getType(), session.getId()), entry);
+            if (!dropped.contains(session)) {
+                sessionQueryCache.onUpdate(session, entry.storedData);
+            }
+        }
+        meterRegistry.counter("session.write_behind.dropped").increment(rejected.size());
+        meterRegistry.counter("session.write_behind.flushed").increment(sessions.size() - rejected.size());
+    }
+
+    private String key(SessionType type, String id) {
+        return type + ":" + id;
+    }
+}
@@ -37,6 +37,7 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonView;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
+import java.util.Map;
 
 import org.bson.Document;
 import org.springframework.data.annotation.Id;
@@ -58,6 +59,7 @@ public class Session {
     private String source;
     @NotNull
     private SessionType type;
+    private Map<String, Object> summary;
 
 
     @JsonView(Session.Views.IdOnly.class)
@@ -90,7 +92,7 @@ public class Session {
         this.type = type;
     }
 
-    @JsonView(Session.Views.Full.class)
+    @JsonView({Session.Views.Full.class, Session.Views.Summary.class})
     public SessionType getType() {
         return type;
     }
@@ -99,16 +101,43 @@ public class Session {
         this.source = source;
     }
 
-    @JsonView(Session.Views.Full.class)
+    @JsonView({Session.Views.Full.class, Session.Views.Summary.class})
     public String getSource() {
         return source;
     }
 
+    public void setSummary(Map<String, Object> summary) {
+        this.summary = summary;
+    }
+
+    @JsonView(Session.Views.Summary.class)
+    public Map<String, Object> getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return a copy of the session sharing its data, which writes replace
+     * rather than modify
+     */
+    public Session copy() {
+        Session copy = new Session();
+        copy.id = id;
+        copy.checksum = checksum;
+        copy.data = data;
+        copy.source = source;
+        copy.type = type;
+        copy.summary = summary;
+        return copy;
+    }
+
     public static final class Views {
         // show only id
         public interface IdOnly {}
 
         // show all data
         public interface Full extends IdOnly {}
+
+        // show the summary instead of the data
+        public interface Summary extends IdOnly {}
     }
 }
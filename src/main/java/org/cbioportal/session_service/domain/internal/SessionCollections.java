@@ -0,0 +1,158 @@
+package org.cbioportal.session_service.domain.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Names of the collections sessions are stored in. By default all sessions of
+ * a type share the collection named after the type. With
+ * session.partitioning.enabled, each source gets collections of its own,
+ * &lt;type&gt;__&lt;partition&gt;, where the partition is the source unless
+ * session.partitioning.group.&lt;source&gt; puts it into a shared group.
+ *
+ * Sessions stored before partitioning was enabled stay in the shared
+ * collections until they are migrated; with session.partitioning.fallback
+ * they are read from there in the meantime.
+ */
+@Component
+public class SessionCollections {
+
+    static final String SEPARATOR = "__";
+
+    private static final Pattern PLAIN_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    @Value("${session.partitioning.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.partitioning.fallback:false}")
+    private boolean fallback;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public boolean isPartitioned() {
+        return enabled;
+    }
+
+    /**
+     * @return whether reads also look into the shared collections
+     */
+    public boolean isFallback() {
+        return enabled && fallback;
+    }
+
+    public String collection(SessionType type, String source) {
+        return enabled ? type.name() + SEPARATOR + partition(source) : type.name();
+    }
+
+    public String collection(Session session) {
+        return collection(session.getType(), session.getSource());
+    }
+
+    public String sharedCollection(SessionType type) {
+        return type.name();
+    }
+
+    /**
+     * @return the partition of the source, which is part of collection names
+     */
+    public String partition(String source) {
+        String group = environment.getProperty("session.partitioning.group." + source);
+        String partition = group == null || group.isBlank() ? source : group.trim();
+        // other names could clash with each other or be invalid in collection names
+        return PLAIN_NAME.matcher(partition).matches() && !partition.contains(SEPARATOR) ? partition
+            : "h" + DigestUtils.md5DigestAsHex(partition.getBytes());
+    }
+
+    /**
+     * @return whether the partition of the source holds no other source
+     */
+    public boolean isExclusive(String source) {
+        String partition = partition(source);
+        // a group may be named like a source, or a source like another source's hash
+        for (Map.Entry<String, String> group : groups().entrySet()) {
+            if (!group.getKey().equals(source) && !group.getValue().isBlank()
+                && partition(group.getKey()).equals(partition)) {
+                return false;
+            }
+        }
+        String group = environment.getProperty("session.partitioning.group." + source);
+        return group == null || group.isBlank();
+    }
+
+    private Map<String, String> groups() {
+        return Binder.get(environment).bind("session.partitioning.group", Bindable.mapOf(String.class, String.class))
+            .orElse(Collections.emptyMap());
+    }
+
+    /**
+     * @return the existing collections holding sessions of the type, the shared
+     * one first
+     */
+    public List<String> collections(SessionType type) {
+        Set<String> names = mongoTemplate.getCollectionNames();
+        List<String> collections = new ArrayList<>();
+        if (names.contains(type.name())) {
+            collections.add(type.name());
+        }
+        String prefix = type.name() + SEPARATOR;
+        names.stream().filter(name -> name.startsWith(prefix)).sorted().forEach(collections::add);
+        return collections;
+    }
+
+    /**
+     * @return the collections of all types that hold sessions of the source
+     */
+    public List<String> collections(String source) {
+        if (!enabled) {
+            return Collections.emptyList();
+        }
+        Set<String> names = mongoTemplate.getCollectionNames();
+        return Stream.of(SessionType.values())
+            .map(type -> collection(type, source))
+            .filter(names::contains)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the session type stored in the collection, null if it does not
+     * hold sessions
+     */
+    public SessionType typeOf(String collection) {
+        int separator = collection.indexOf(SEPARATOR);
+        String type = separator < 0 ? collection : collection.substring(0, separator);
+        for (SessionType sessionType : SessionType.values()) {
+            if (sessionType.name().equals(type)) {
+                return sessionType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a regular expression matching the names of all session collections
+     */
+    public String namePattern() {
+        return "^(" + Stream.of(SessionType.values()).map(Enum::name).collect(Collectors.joining("|")) + ")("
+            + SEPARATOR + ".+)?$";
+    }
+}
@@ -0,0 +1,152 @@
+package org.cbioportal.session_service.domain.internal;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import jakarta.annotation.PostConstruct;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.cbioportal.session_service.domain.SessionType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoAction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.WriteConcernResolver;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write concern, read preference and read concern per session type and
+ * operation, looked up from the most specific of
+ * <pre>
+ * session.write-concern.&lt;type&gt;.&lt;insert|update|delete&gt;
+ * session.write-concern.&lt;type&gt;
+ * session.write-concern.default
+ * </pre>
+ * and the same for session.read-preference and session.read-concern with
+ * the operations get (single sessions, also read before an update) and find
+ * (lists, queries and counts). Unset values keep the client defaults. The
+ * read before an update always goes to the primary, whatever is configured
+ * for get, so the update starts from the latest version.
+ *
+ * Write concerns are a comma separated w value (a number or majority),
+ * optionally followed by j and wtimeout=&lt;ms&gt;, e.g. {@code majority,j}.
+ */
+@Component
+public class SessionConsistency implements WriteConcernResolver {
+
+    public enum ReadOperation { GET, FIND }
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    // resolved per collection and operation, the configuration does not change at runtime
+    private final Map<String, Optional<WriteConcern>> writeConcerns = new ConcurrentHashMap<>();
+    private final Map<String, Optional<ReadPreference>> readPreferences = new ConcurrentHashMap<>();
+    private final Map<String, Optional<ReadConcern>> readConcerns = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        mongoTemplate.setWriteConcernResolver(this);
+    }
+
+    @Override
+    public WriteConcern resolve(MongoAction action) {
+        SessionType type = sessionCollections.typeOf(action.getCollectionName());
+        if (type == null) {
+            return action.getDefaultWriteConcern();
+        }
+        String operation;
+        switch (action.getMongoActionOperation()) {
+            case INSERT:
+            case INSERT_LIST:
+                operation = "insert";
+                break;
+            case REMOVE:
+                operation = "delete";
+                break;
+            default:
+                // save is used for upserts of new sessions as well
+                operation = "update";
+        }
+        return writeConcern(type, operation, action.getDefaultWriteConcern());
+    }
+
+    /**
+     * @param operation insert, update or delete
+     * @return the configured write concern, or the default if none is
+     */
+    public WriteConcern writeConcern(SessionType type, String operation, WriteConcern defaultWriteConcern) {
+        return writeConcerns.computeIfAbsent(type + "." + operation,
+                key -> Optional.ofNullable(property("session.write-concern", type, operation))
+                    .map(SessionConsistency::parseWriteConcern))
+            .orElse(defaultWriteConcern);
+    }
+
+    /**
+     * Applies the configured read preference and read concern to a query.
+     */
+    public Query apply(Query query, SessionType type, ReadOperation operation) {
+        String name = operation.name().toLowerCase();
+        readPreference(type, operation).ifPresent(query::withReadPreference);
+        readConcerns.computeIfAbsent(type + "." + name,
+                key -> Optional.ofNullable(property("session.read-concern", type, name))
+                    .map(level -> new ReadConcern(ReadConcernLevel.fromString(level))))
+            .ifPresent(query::withReadConcern);
+        return query;
+    }
+
+    /**
+     * @return whether the reads of the operation go to the primary, so a
+     * session they miss does not exist
+     */
+    public boolean readsPrimary(SessionType type, ReadOperation operation) {
+        return ReadPreference.primary().equals(
+            readPreference(type, operation).orElseGet(() -> mongoTemplate.getDb().getReadPreference()));
+    }
+
+    private Optional<ReadPreference> readPreference(SessionType type, ReadOperation operation) {
+        String name = operation.name().toLowerCase();
+        return readPreferences.computeIfAbsent(type + "." + name,
+            key -> Optional.ofNullable(property("session.read-preference", type, name)).map(ReadPreference::valueOf));
+    }
+
+    static WriteConcern parseWriteConcern(String value) {
+        WriteConcern writeConcern = null;
+        for (String part : value.split(",")) {
+            String token = part.trim();
+            if (writeConcern == null) {
+                writeConcern = token.equals("majority") ? WriteConcern.MAJORITY
+                    : new WriteConcern(Integer.parseInt(token));
+            } else if (token.equals("j")) {
+                writeConcern = writeConcern.withJournal(true);
+            } else if (token.startsWith("wtimeout=")) {
+                writeConcern = writeConcern.withWTimeout(Long.parseLong(token.substring("wtimeout=".length())),
+                    TimeUnit.MILLISECONDS);
+            } else {
+                throw new IllegalArgumentException("invalid write concern: " + value);
+            }
+        }
+        return writeConcern;
+    }
+
+    private String property(String prefix, SessionType type, String operation) {
+        String value = environment.getProperty(prefix + "." + type.name() + "." + operation);
+        if (value == null) {
+            value = environment.getProperty(prefix + "." + type.name());
+        }
+        if (value == null) {
+            value = environment.getProperty(prefix + ".default");
+        }
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
@@ -32,10 +32,13 @@
 
 package org.cbioportal.session_service.domain.internal;
 
+import com.mongodb.ReadPreference;
 import org.cbioportal.session_service.domain.Session;
 import org.cbioportal.session_service.domain.SessionType;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.mongodb.core.query.Query;
 
 /**
  * @author Manda Wilson 
@@ -66,16 +69,78 @@ public interface SessionRepositoryCustom {
      */
     Session insertSession(Session session);
 
+    /**
+     * Inserts new sessions in bulk, creating the collections they go to as
+     * {@link #insertSession(Session)} does.
+     *
+     * @return the sessions that were not inserted because a session with the
+     * same id or checksum already exists
+     */
+    List<Session> insertSessions(List<Session> sessions);
+
+    /**
+     * Replaces existing sessions in bulk with the configured update write
+     * concern; sessions that no longer exist are not created again. With the
+     * fallback, sessions not migrated yet are replaced in the shared
+     * collection.
+     *
+     * @return the sessions that were rejected, e.g. because another session
+     * of the source has the same checksum
+     */
+    List<Session> replaceSessions(List<Session> sessions);
+
     Session findOneBySourceAndTypeAndData(String source, SessionType type, Object data);
 
     Session findOneBySourceAndTypeAndChecksum(String source, SessionType type, String checksum);
 
+    /**
+     * Looks the session up with the given read preference instead of the
+     * configured one.
+     */
+    Session findOneBySourceAndTypeAndChecksum(String source, SessionType type, String checksum,
+                                              ReadPreference readPreference);
+
     Session findOneBySourceAndTypeAndId(String source, SessionType type, String id);
 
+    /**
+     * Looks the session up with the given read preference instead of the
+     * configured one.
+     */
+    Session findOneBySourceAndTypeAndId(String source, SessionType type, String id,
+                                        ReadPreference readPreference);
+
     List<Session> findBySourceAndType(String source, SessionType type);
 
+    List<Session> findBySourceAndTypeAndIds(String source, SessionType type, Collection<String> ids);
+
     long deleteBySourceAndTypeAndId(String source, SessionType type, String id);
 
-    List<Session> findBySourceAndTypeAndQuery(String source, SessionType type, String query);
+    /**
+     * Finds the sessions of the given source and type matching a query built
+     * from a client supplied filter; the source criteria is added to it.
+     */
+    List<Session> findBySourceAndTypeAndQuery(String source, SessionType type, Query query);
+
+    /**
+     * Counts the sessions of the given source and type matching the query
+     * without loading them; an empty query counts all of them.
+     */
+    long countBySourceAndTypeAndQuery(String source, SessionType type, Query query);
+
+    /**
+     * Moves the sessions of the type from the shared collection into the
+     * collections of their sources; reads need the fallback to the shared
+     * collection until it is done. Sessions whose data duplicates another
+     * session already in their partition are left in the shared collection.
+     *
+     * @return the number of sessions moved
+     */
+    long migrateToPartitions(SessionType type);
+
+    /**
+     * Deletes all sessions of a source, dropping its collections if it has
+     * them to itself.
+     */
+    void dropSource(String source);
 
 }
@@ -32,18 +32,53 @@
 
 package org.cbioportal.session_service.domain.internal;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+import jakarta.annotation.PostConstruct;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
 import org.cbioportal.session_service.domain.Session;
 import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionConsistency.ReadOperation;
+import org.cbioportal.session_service.mongo.SessionSharding;
+import org.cbioportal.session_service.tracing.SessionTracing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReplaceOptions;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 
 import org.springframework.data.mongodb.core.index.CompoundIndexDefinition;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.data.mongodb.core.query.Criteria;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is necessary because we are saving objects from one domain
@@ -53,64 +88,430 @@ import java.util.List;
  */
 public class SessionRepositoryImpl implements SessionRepositoryCustom {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SessionRepositoryImpl.class);
+
     @Autowired
     private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionConsistency consistency;
+
+    @Autowired
+    private SessionSharding sharding;
+
+    @Autowired
+    private SessionCollections collections;
+
+    @Autowired
+    private SessionTracing tracing;
+
+    @Value("${session.partitioning.migration-batch-size:1000}")
+    private int migrationBatchSize;
+
+    // collections known to exist with their indexes, checked once per collection
+    private final Set<String> prepared = ConcurrentHashMap.newKeySet();
+
+    private QueryMapper queryMapper;
+
+    @PostConstruct
+    public void init() {
+        queryMapper = new QueryMapper(this.mongoTemplate.getConverter());
+    }
     
     @Override
     public void upsertSession(Session session) {
-        ensureIndexes(session);
-        this.mongoTemplate.save(session, session.getType().toString());
+        String collection = ensureIndexes(session);
+        tracing.observe("repository save", session.getType(), () -> {
+            if (!sharding.isEnabled()) {
+                this.mongoTemplate.save(session, collection);
+            } else {
+                if (session.getId() == null) {
+                    checkChecksum(session);
+                    String id = sharding.newId();
+                    session.setId(id != null ? id : new ObjectId().toHexString());
+                }
+                // save matches on _id alone, an upsert on a sharded collection has to include the shard key
+                this.mongoTemplate.replace(
+                    new Query(Criteria.where("id").is(session.getId()).and("source").is(session.getSource())),
+                    session, ReplaceOptions.replaceOptions().upsert(), collection);
+            }
+        });
+        if (collections.isFallback()) {
+            // an update of a session that is not migrated yet moves it
+            this.mongoTemplate.remove(idQuery(session.getSource(), session.getType(), session.getId()),
+                collections.sharedCollection(session.getType()));
+        }
+    }
+
+    private String ensureIndexes(Session session) {
+        return ensureIndexes(session.getType(), collections.collection(session));
+    }
+
+    private String ensureIndexes(SessionType type, String collection) {
+        if (prepared.contains(collection)) {
+            return collection;
+        }
+        tracing.observe("repository ensure indexes", type, () -> {
+            if (!this.mongoTemplate.collectionExists(collection)) {
+                this.mongoTemplate.createCollection(collection);
+                Document indexKeys = new Document();
+                indexKeys.append("source", 1);
+                indexKeys.append("type", 1);
+                indexKeys.append("checksum", 1);
+                CompoundIndexDefinition index = new CompoundIndexDefinition(indexKeys);
+                this.mongoTemplate.indexOps(collection).createIndex(
+                        sharding.isChecksumUnique(type) ? index.unique() : index);
+                sharding.onCollectionCreated(collection, type);
+            }
+        });
+        prepared.add(collection);
+        return collection;
     }
 
-    private void ensureIndexes(Session session) {
-        if (!this.mongoTemplate.collectionExists(session.getType().toString())) {
-            this.mongoTemplate.createCollection(session.getType().toString());
-            Document indexKeys = new Document();
-            indexKeys.append("source", 1);
-            indexKeys.append("type", 1);
-            indexKeys.append("checksum", 1);
-            this.mongoTemplate.indexOps(session.getType().toString()).createIndex(
-                    new CompoundIndexDefinition(indexKeys).unique());
+    // duplicates the unique checksum index where the shard key rules it out
+    private void checkChecksum(Session session) {
+        if (!sharding.isChecksumUnique(session.getType()) && findOneBySourceAndTypeAndChecksum(
+            session.getSource(), session.getType(), session.getChecksum()) != null) {
+            throw new DuplicateKeyException("session with checksum " + session.getChecksum() + " already exists");
         }
     }
 
     @Override
     public Session insertSession(Session session) {
-        ensureIndexes(session);
-        return this.mongoTemplate.insert(session, session.getType().toString());
+        String collection = ensureIndexes(session);
+        checkChecksum(session);
+        if (session.getId() == null) {
+            session.setId(sharding.newId());
+        } else if (collections.isFallback() && this.mongoTemplate.exists(
+            idQuery(session.getSource(), session.getType(), session.getId()),
+            collections.sharedCollection(session.getType()))) {
+            throw new DuplicateKeyException("session " + session.getId() + " already exists");
+        }
+        return tracing.observe("repository insert", session.getType(),
+            () -> this.mongoTemplate.insert(session, collection));
+    }
+
+    @Override
+    public List<Session> insertSessions(List<Session> sessions) {
+        List<Session> rejected = new ArrayList<>();
+        Map<String, List<Session>> batches = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            if (!sharding.isChecksumUnique(session.getType()) && findOneBySourceAndTypeAndChecksum(
+                session.getSource(), session.getType(), session.getChecksum()) != null) {
+                rejected.add(session);
+            } else {
+                batches.computeIfAbsent(ensureIndexes(session), collection -> new ArrayList<>()).add(session);
+            }
+        }
+        for (Map.Entry<String, List<Session>> batch : batches.entrySet()) {
+            try {
+                this.mongoTemplate.bulkOps(BulkMode.UNORDERED, Session.class, batch.getKey())
+                    .insert(batch.getValue()).execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                        throw e;
+                    }
+                    rejected.add(batch.getValue().get(error.getIndex()));
+                }
+            }
+        }
+        return rejected;
+    }
+
+    @Override
+    public List<Session> replaceSessions(List<Session> sessions) {
+        List<Session> rejected = new ArrayList<>();
+        Map<String, List<Session>> batches = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            batches.computeIfAbsent(collections.collection(session), collection -> new ArrayList<>()).add(session);
+        }
+        for (List<Session> batch : batches.values()) {
+            SessionType type = batch.get(0).getType();
+            String partition = collections.collection(batch.get(0));
+            List<Session> partitioned = batch;
+            List<Session> shared = List.of();
+            if (collections.isFallback() && !partition.equals(collections.sharedCollection(type))) {
+                // sessions not migrated yet are replaced where they are
+                Query ids = new Query(Criteria.where("id").in(batch.stream().map(Session::getId).toList()));
+                ids.fields().include("id");
+                Set<String> migrated = new HashSet<>();
+                this.mongoTemplate.find(ids, Session.class, partition).forEach(session -> migrated.add(session.getId()));
+                partitioned = batch.stream().filter(session -> migrated.contains(session.getId())).toList();
+                shared = batch.stream().filter(session -> !migrated.contains(session.getId())).toList();
+            }
+            rejected.addAll(replace(type, partition, partitioned));
+            rejected.addAll(replace(type, collections.sharedCollection(type), shared));
+        }
+        return rejected;
+    }
+
+    private List<Session> replace(SessionType type, String collection, List<Session> sessions) {
+        if (sessions.isEmpty()) {
+            return List.of();
+        }
+        MongoCollection<Document> target = this.mongoTemplate.getCollection(collection);
+        target = target.withWriteConcern(consistency.writeConcern(type, "update", target.getWriteConcern()));
+        List<WriteModel<Document>> replacements = new ArrayList<>();
+        for (Session session : sessions) {
+            Document document = new Document();
+            this.mongoTemplate.getConverter().write(session, document);
+            // the source is part of some shard keys
+            replacements.add(new ReplaceOneModel<>(Filters.and(Filters.eq("_id", document.get("_id")),
+                Filters.eq("source", session.getSource())), document));
+        }
+        List<Session> rejected = new ArrayList<>();
+        try {
+            target.bulkWrite(replacements, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null) {
+                // replacing again is harmless
+                throw e;
+            }
+            for (BulkWriteError error : e.getWriteErrors()) {
+                rejected.add(sessions.get(error.getIndex()));
+            }
+        }
+        return rejected;
     }
 
     public Session findOneBySourceAndTypeAndData(String source, SessionType type, Object data) {
         Query query = new Query(Criteria.where("source").is(source).and("type").is(type).and("data").is(data));
-        return this.mongoTemplate.findOne(query, Session.class, type.toString());
+        return findOne(source, type, consistency.apply(query, type, ReadOperation.GET));
     }
 
     public Session findOneBySourceAndTypeAndChecksum(String source, SessionType type, String checksum) {
         Query query = new Query(Criteria.where("source").is(source).and("type").is(type).and("checksum").is(checksum));
-        return this.mongoTemplate.findOne(query, Session.class, type.toString());
+        return findOne(source, type, consistency.apply(query, type, ReadOperation.GET));
+    }
+
+    public Session findOneBySourceAndTypeAndChecksum(String source, SessionType type, String checksum,
+                                                     ReadPreference readPreference) {
+        Query query = new Query(Criteria.where("source").is(source).and("type").is(type).and("checksum").is(checksum));
+        return findOne(source, type, consistency.apply(query, type, ReadOperation.GET)
+            .withReadPreference(readPreference));
     }
 
     public Session findOneBySourceAndTypeAndId(String source, SessionType type, String id) {
-        return this.mongoTemplate.findOne(
-            new Query(Criteria.where("source").is(source).and("type").is(type).and("id").is(id)), 
-            Session.class, type.toString());
+        return findOne(source, type, consistency.apply(idQuery(source, type, id), type, ReadOperation.GET));
+    }
+
+    public Session findOneBySourceAndTypeAndId(String source, SessionType type, String id,
+                                               ReadPreference readPreference) {
+        return findOne(source, type, consistency.apply(idQuery(source, type, id), type, ReadOperation.GET)
+            .withReadPreference(readPreference));
     }
 
     public List<Session> findBySourceAndType(String source, SessionType type) {
-        return this.mongoTemplate.find(
-            new Query(Criteria.where("source").is(source).and("type").is(type)), 
-            Session.class, type.toString());
+        return find(source, type,
+            consistency.apply(new Query(Criteria.where("source").is(source).and("type").is(type)),
+                type, ReadOperation.FIND));
+    }
+
+    public List<Session> findBySourceAndTypeAndIds(String source, SessionType type, Collection<String> ids) {
+        return find(source, type,
+            consistency.apply(new Query(Criteria.where("source").is(source).and("type").is(type).and("id").in(ids)),
+                type, ReadOperation.FIND));
     }
 
     public long deleteBySourceAndTypeAndId(String source, SessionType type, String id) {
-        return this.mongoTemplate.remove(
-            new Query(Criteria.where("source").is(source).and("type").is(type).and("id").is(id)),
-            Session.class, type.toString()).getDeletedCount();
+        long deleted = this.mongoTemplate.remove(idQuery(source, type, id), Session.class,
+            collections.collection(type, source)).getDeletedCount();
+        if (deleted == 0 && collections.isFallback()) {
+            deleted = this.mongoTemplate.remove(idQuery(source, type, id), Session.class,
+                collections.sharedCollection(type)).getDeletedCount();
+        }
+        return deleted;
+    }
+
+    public List<Session> findBySourceAndTypeAndQuery(String source, SessionType type, Query query) {
+        // the caller's query is left untouched, it is used as a cache key
+        return find(source, type, consistency.apply(
+            Query.of(query).addCriteria(Criteria.where("source").is(source)), type, ReadOperation.FIND));
+    }
+
+    public long countBySourceAndTypeAndQuery(String source, SessionType type, Query query) {
+        // source alone is a prefix of the (source, type, checksum) index, the count is covered by it
+        Query count = consistency.apply(Query.of(query).addCriteria(Criteria.where("source").is(source)), type,
+            ReadOperation.FIND);
+        if (collections.isFallback()) {
+            // sessions being migrated right now are in both collections and counted once
+            List<Document> pipeline = union(type, count);
+            pipeline.add(new Document("$count", "count"));
+            Document result = aggregate(source, type, count, pipeline).first();
+            return result == null ? 0 : ((Number) result.get("count")).longValue();
+        }
+        return this.mongoTemplate.count(count, collections.collection(type, source));
+    }
+
+    public long migrateToPartitions(SessionType type) {
+        if (!collections.isPartitioned()) {
+            throw new IllegalStateException("partitioning is not enabled");
+        }
+        MongoCollection<RawBsonDocument> shared = this.mongoTemplate.getCollection(collections.sharedCollection(type))
+            .withDocumentClass(RawBsonDocument.class);
+        // sessions whose checksum is taken by another session in their partition stay where they are
+        List<BsonValue> conflicts = new ArrayList<>();
+        long moved = 0;
+        while (true) {
+            Map<String, List<RawBsonDocument>> batches = new HashMap<>();
+            boolean empty = true;
+            for (RawBsonDocument session : shared.find(conflicts.isEmpty() ? new Document()
+                : Filters.nin("_id", conflicts)).limit(migrationBatchSize)) {
+                String collection = ensureIndexes(type, collections.collection(type,
+                    session.getString("source").getValue()));
+                batches.computeIfAbsent(collection, name -> new ArrayList<>()).add(session);
+                empty = false;
+            }
+            if (empty) {
+                if (!conflicts.isEmpty()) {
+                    LOG.warn(conflicts.size() + " " + type + " sessions were not moved, their partitions hold "
+                        + "other sessions with the same data: " + conflicts);
+                }
+                return moved;
+            }
+            List<BsonValue> copied = new ArrayList<>();
+            for (Map.Entry<String, List<RawBsonDocument>> batch : batches.entrySet()) {
+                MongoCollection<RawBsonDocument> partition = this.mongoTemplate.getCollection(batch.getKey())
+                    .withDocumentClass(RawBsonDocument.class);
+                List<WriteModel<RawBsonDocument>> inserts = new ArrayList<>();
+                List<BsonValue> ids = new ArrayList<>();
+                for (RawBsonDocument session : batch.getValue()) {
+                    inserts.add(new InsertOneModel<>(session));
+                    ids.add(session.get("_id"));
+                }
+                try {
+                    partition.bulkWrite(inserts, new BulkWriteOptions().ordered(false));
+                } catch (MongoBulkWriteException e) {
+                    for (BulkWriteError error : e.getWriteErrors()) {
+                        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                            throw e;
+                        }
+                    }
+                }
+                // a duplicate _id was copied before an interrupted migration, a duplicate checksum was not
+                Set<BsonValue> present = new HashSet<>();
+                partition.find(Filters.in("_id", ids)).projection(new Document("_id", 1))
+                    .forEach(session -> present.add(session.get("_id")));
+                for (BsonValue id : ids) {
+                    if (present.contains(id)) {
+                        copied.add(id);
+                    } else {
+                        conflicts.add(id);
+                    }
+                }
+            }
+            // only removed once copied, in between reads with fallback find either copy
+            if (!copied.isEmpty()) {
+                shared.deleteMany(Filters.in("_id", copied));
+            }
+            moved += copied.size();
+        }
+    }
+
+    public void dropSource(String source) {
+        if (!collections.isPartitioned()) {
+            throw new IllegalStateException("partitioning is not enabled");
+        }
+        Set<String> existing = new HashSet<>(collections.collections(source));
+        for (SessionType type : SessionType.values()) {
+            String collection = collections.collection(type, source);
+            if (existing.contains(collection)) {
+                if (collections.isExclusive(source)) {
+                    this.mongoTemplate.dropCollection(collection);
+                    prepared.remove(collection);
+                } else {
+                    this.mongoTemplate.remove(new Query(Criteria.where("source").is(source)), collection);
+                }
+            }
+            if (collections.isFallback()) {
+                this.mongoTemplate.remove(new Query(Criteria.where("source").is(source)),
+                    collections.sharedCollection(type));
+            }
+        }
     }
 
-    public List<Session> findBySourceAndTypeAndQuery(String source, SessionType type, String query) {
-        BasicQuery basicQuery = new BasicQuery(query);
-        basicQuery.addCriteria(Criteria.where("source").is(source));
-        return this.mongoTemplate.find(basicQuery, Session.class, type.toString());
+    private Query idQuery(String source, SessionType type, String id) {
+        return new Query(Criteria.where("source").is(source).and("type").is(type).and("id").is(id));
+    }
+
+    private Session findOne(String source, SessionType type, Query query) {
+        Session session = this.mongoTemplate.findOne(query, Session.class, collections.collection(type, source));
+        if (session == null && collections.isFallback()) {
+            session = this.mongoTemplate.findOne(query, Session.class, collections.sharedCollection(type));
+        }
+        return session;
+    }
+
+    private List<Session> find(String source, SessionType type, Query query) {
+        if (!collections.isFallback()) {
+            return this.mongoTemplate.find(query, Session.class, collections.collection(type, source));
+        }
+        if (query.getSortObject().isEmpty() && query.getSkip() == 0 && !query.isLimited()) {
+            List<Session> sessions = this.mongoTemplate.find(query, Session.class,
+                collections.collection(type, source));
+            // sessions being migrated right now are in both collections
+            Set<String> ids = new HashSet<>();
+            sessions.forEach(session -> ids.add(session.getId()));
+            for (Session session : this.mongoTemplate.find(query, Session.class, collections.sharedCollection(type))) {
+                if (ids.add(session.getId())) {
+                    sessions.add(session);
+                }
+            }
+            return sessions;
+        }
+        // a page has to be cut from the merged, sorted sessions of both collections
+        MongoPersistentEntity<?> entity = this.mongoTemplate.getConverter().getMappingContext()
+            .getRequiredPersistentEntity(Session.class);
+        List<Document> pipeline = union(type, query);
+        if (!query.getSortObject().isEmpty()) {
+            pipeline.add(new Document("$sort", queryMapper.getMappedSort(query.getSortObject(), entity)));
+        }
+        if (query.getSkip() > 0) {
+            pipeline.add(new Document("$skip", query.getSkip()));
+        }
+        if (query.isLimited()) {
+            pipeline.add(new Document("$limit", query.getLimit()));
+        }
+        if (!query.getFieldsObject().isEmpty()) {
+            pipeline.add(new Document("$project", queryMapper.getMappedFields(query.getFieldsObject(), entity)));
+        }
+        List<Session> sessions = new ArrayList<>();
+        for (Document session : aggregate(source, type, query, pipeline)) {
+            sessions.add(this.mongoTemplate.getConverter().read(Session.class, session));
+        }
+        return sessions;
+    }
+
+    /**
+     * Matches the query in the partition and the shared collection, keeping
+     * the partition's copy of sessions found in both. Run on the partition.
+     */
+    private List<Document> union(SessionType type, Query query) {
+        Document match = new Document("$match", queryMapper.getMappedObject(query.getQueryObject(),
+            this.mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(Session.class)));
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(match);
+        pipeline.add(new Document("$unionWith", new Document("coll", collections.sharedCollection(type))
+            .append("pipeline", List.of(match))));
+        pipeline.add(new Document("$group", new Document("_id", "$_id").append("session",
+            new Document("$first", "$$ROOT"))));
+        pipeline.add(new Document("$replaceRoot", new Document("newRoot", "$session")));
+        return pipeline;
+    }
+
+    private AggregateIterable<Document> aggregate(String source, SessionType type, Query query,
+                                                  List<Document> pipeline) {
+        MongoCollection<Document> collection = this.mongoTemplate.getCollection(
+            ensureIndexes(type, collections.collection(type, source)));
+        if (query.hasReadPreference()) {
+            collection = collection.withReadPreference(query.getReadPreference());
+        }
+        if (query.hasReadConcern()) {
+            collection = collection.withReadConcern(query.getReadConcern());
+        }
+        AggregateIterable<Document> result = collection.aggregate(pipeline).allowDiskUse(true);
+        Long maxTime = query.getMeta().getMaxTimeMsec();
+        return maxTime == null ? result : result.maxTime(maxTime, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,147 @@
+package org.cbioportal.session_service.domain.internal;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Derives the compact summary of a session used by list views, e.g. its
+ * name, description, creation date and number of studies. The fields are
+ * configured per type as comma separated paths, {@code size(path)} stores the
+ * length of an array as {@code <name>Count}.
+ *
+ * When enabled the summary is stored with the session on every write, so
+ * list views can project it without reading the data.
+ */
+@Component
+public class SessionSummarizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSummarizer.class);
+
+    @Value("${session.summary.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.summary.fields:data.name,data.description,data.created,size(data.studies)}")
+    private String defaultFields;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Map<String, Object> summarize(SessionType type, Object data) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        String fields = environment.getProperty("session.summary.fields." + type.name(), defaultFields);
+        for (String field : fields.split(",")) {
+            String path = field.trim();
+            boolean size = path.startsWith("size(") && path.endsWith(")");
+            if (size) {
+                path = path.substring("size(".length(), path.length() - 1);
+            }
+            Object value = resolve(data, path);
+            String name = path.substring(path.lastIndexOf('.') + 1);
+            if (size && value instanceof Collection) {
+                summary.put(name + "Count", ((Collection<?>) value).size());
+            } else if (!size && value != null) {
+                summary.put(name, value);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @return the session as shown by list views: id, source, type and summary
+     */
+    public Session toSummary(Session session) {
+        Session summary = new Session();
+        summary.setId(session.getId());
+        summary.setSource(session.getSource());
+        summary.setType(session.getType());
+        summary.setSummary(session.getSummary() != null || session.getData() == null ? session.getSummary()
+            : summarize(session.getType(), session.getData()));
+        return summary;
+    }
+
+    /**
+     * Restricts a query to the fields {@link #toSummary} needs, the data is
+     * only read when summaries are not stored.
+     */
+    public Query project(Query query) {
+        if (enabled) {
+            query.fields().include("source", "type", "summary");
+        }
+        return query;
+    }
+
+    /**
+     * Stores the summary of sessions written before summaries were enabled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread backfill = new Thread(this::backfill, "session-summary-backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+    }
+
+    private void backfill() {
+        long updated = 0;
+        try {
+            for (SessionType type : SessionType.values()) {
+                for (String collection : sessionCollections.collections(type)) {
+                    for (Document session : mongoTemplate.getCollection(collection)
+                        .find(Filters.exists("summary", false))
+                        .projection(new Document("data", 1))) {
+                        mongoTemplate.getCollection(collection).updateOne(Filters.eq("_id", session.get("_id")),
+                            Updates.set("summary", new Document(summarize(type, session.get("data")))));
+                        updated++;
+                    }
+                }
+            }
+            if (updated > 0) {
+                LOG.info("Stored the summary of " + updated + " sessions");
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not store session summaries: " + e.getMessage());
+        }
+    }
+
+    private static Object resolve(Object data, String path) {
+        if (!path.startsWith("data.")) {
+            return null;
+        }
+        Object current = data;
+        for (String part : path.substring("data.".length()).split("\\.")) {
+            if (!(current instanceof Map)) {
+                return null;
+            }
+            current = ((Map<?, ?>) current).get(part);
+        }
+        return current;
+    }
+}
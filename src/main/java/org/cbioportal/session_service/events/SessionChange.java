@@ -0,0 +1,48 @@
+package org.cbioportal.session_service.events;
+
+import org.cbioportal.session_service.domain.SessionType;
+
+/**
+ * Application event describing a write to a session, either made through
+ * this instance or observed on the MongoDB change stream.
+ */
+public class SessionChange {
+
+    public enum Operation { INSERT, UPDATE, DELETE }
+
+    private final SessionType type;
+    private final String id;
+    // not known for deletes observed on the change stream
+    private final String source;
+    private final Operation operation;
+    private final boolean fromChangeStream;
+
+    public SessionChange(SessionType type, String id, String source, Operation operation,
+                         boolean fromChangeStream) {
+        this.type = type;
+        this.id = id;
+        this.source = source;
+        this.operation = operation;
+        this.fromChangeStream = fromChangeStream;
+    }
+
+    public SessionType getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public boolean isFromChangeStream() {
+        return fromChangeStream;
+    }
+}
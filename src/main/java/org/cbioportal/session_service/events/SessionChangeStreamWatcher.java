@@ -0,0 +1,226 @@
+package org.cbioportal.session_service.events;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.events.SessionChange.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tails the MongoDB change stream of the session collections and republishes
+ * every insert, update and delete as a {@link SessionChange}, so local caches
+ * also see writes made by other instances or directly in the database.
+ *
+ * The resume token is stored in the session_service_state collection so a
+ * restarted instance continues where it stopped. Change streams need a
+ * replica set or sharded cluster.
+ */
+@Component
+public class SessionChangeStreamWatcher {
+
+    static final String STATE_COLLECTION = "session_service_state";
+    private static final String RESUME_TOKEN_ID = "change-stream-resume-token";
+    // ChangeStreamHistoryLost, the stored token is older than the oplog
+    private static final int HISTORY_LOST = 286;
+    private static final Logger LOG = LoggerFactory.getLogger(SessionChangeStreamWatcher.class);
+
+    @Value("${session.change-stream.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.change-stream.token-save-interval-ms:1000}")
+    private long tokenSaveIntervalMs;
+
+    @Value("${session.change-stream.retry-interval-ms:5000}")
+    private long retryIntervalMs;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    private volatile boolean running;
+    // since when every change is seen, 0 while the stream is not open
+    private volatile long watchingSince;
+    private long coveredSince;
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the time in milliseconds since when the stream saw every
+     * change without a gap, 0 if it is not open right now
+     */
+    public long watchingSince() {
+        return watchingSince;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        Thread watcher = new Thread(this::watch, "session-change-stream");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> current = cursor;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void watch() {
+        while (running) {
+            try {
+                BsonDocument resumeToken = loadResumeToken();
+                ChangeStreamIterable<Document> stream = mongoTemplate.getDb()
+                    .watch(List.of(Aggregates.match(Filters.regex("ns.coll", sessionCollections.namePattern()))));
+                if (resumeToken != null) {
+                    stream = stream.resumeAfter(resumeToken);
+                }
+                long opening = System.currentTimeMillis();
+                try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> opened = stream.cursor()) {
+                    cursor = opened;
+                    if (resumeToken == null || coveredSince == 0) {
+                        // changes before this one may have been missed
+                        coveredSince = opening;
+                    }
+                    watchingSince = coveredSince;
+                    consume(opened);
+                } finally {
+                    watchingSince = 0;
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == HISTORY_LOST) {
+                    LOG.warn("Change stream history lost, restarting from the current position");
+                    saveResumeToken(null);
+                } else {
+                    retryLater(e);
+                }
+            } catch (RuntimeException e) {
+                retryLater(e);
+            }
+        }
+    }
+
+    private void consume(MongoChangeStreamCursor<ChangeStreamDocument<Document>> opened) {
+        long lastSave = System.currentTimeMillis();
+        BsonDocument unsavedToken = null;
+        while (running) {
+            ChangeStreamDocument<Document> event = opened.tryNext();
+            if (event != null) {
+                publish(event);
+            }
+            BsonDocument token = opened.getResumeToken();
+            if (token != null) {
+                unsavedToken = token;
+            }
+            if (unsavedToken != null && System.currentTimeMillis() - lastSave >= tokenSaveIntervalMs) {
+                saveResumeToken(unsavedToken);
+                unsavedToken = null;
+                lastSave = System.currentTimeMillis();
+            }
+        }
+        if (unsavedToken != null) {
+            saveResumeToken(unsavedToken);
+        }
+    }
+
+    private void publish(ChangeStreamDocument<Document> event) {
+        Operation operation;
+        switch (event.getOperationType()) {
+            case INSERT:
+                operation = Operation.INSERT;
+                break;
+            case UPDATE:
+            case REPLACE:
+                operation = Operation.UPDATE;
+                break;
+            case DELETE:
+                operation = Operation.DELETE;
+                break;
+            default:
+                return;
+        }
+        SessionType type = sessionCollections.typeOf(event.getNamespace().getCollectionName());
+        String id = idToString(event.getDocumentKey().get("_id"));
+        String source = event.getFullDocument() != null ? event.getFullDocument().getString("source") : null;
+        eventPublisher.publishEvent(new SessionChange(type, id, source, operation, true));
+    }
+
+    private String idToString(BsonValue id) {
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        if (id.isString()) {
+            return id.asString().getValue();
+        }
+        return id.toString();
+    }
+
+    private BsonDocument loadResumeToken() {
+        Document state = stateCollection().find(Filters.eq("_id", RESUME_TOKEN_ID)).first();
+        if (state == null || state.get("token") == null) {
+            return null;
+        }
+        return state.get("token", Document.class).toBsonDocument();
+    }
+
+    private void saveResumeToken(BsonDocument token) {
+        try {
+            stateCollection().replaceOne(Filters.eq("_id", RESUME_TOKEN_ID),
+                new Document("_id", RESUME_TOKEN_ID).append("token", token),
+                new ReplaceOptions().upsert(true));
+        } catch (RuntimeException e) {
+            LOG.warn("Could not save change stream resume token: " + e.getMessage());
+        }
+    }
+
+    private MongoCollection<Document> stateCollection() {
+        return mongoTemplate.getCollection(STATE_COLLECTION);
+    }
+
+    private void retryLater(RuntimeException e) {
+        if (!running) {
+            return;
+        }
+        LOG.warn("Change stream interrupted, retrying in " + retryIntervalMs + "ms: " + e.getMessage());
+        try {
+            Thread.sleep(retryIntervalMs);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
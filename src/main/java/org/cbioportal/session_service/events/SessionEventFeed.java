@@ -0,0 +1,167 @@
+package org.cbioportal.session_service.events;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.SessionType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-sent event subscriptions to changes of single sessions, so clients
+ * can watch a session instead of polling it.
+ *
+ * When the change stream is enabled it is the only source of events (it
+ * includes the writes of this instance), otherwise the writes made through
+ * this instance are forwarded.
+ *
+ * Events are queued per subscriber and sent by a small pool of sender
+ * threads, one event of a subscriber at a time, so a slow client does not
+ * hold up the change stream or the writing request. A subscriber whose queue
+ * is full is disconnected and counted in session.events.dropped.
+ */
+@Component
+public class SessionEventFeed {
+
+    @Value("${session.events.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${session.events.sender-threads:4}")
+    private int senderThreads;
+
+    @Value("${session.events.max-queued:100}")
+    private int maxQueued;
+
+    @Autowired
+    private SessionChangeStreamWatcher changeStreamWatcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Set<Subscriber>> subscriptions = new ConcurrentHashMap<>();
+    private ExecutorService senders;
+
+    @PostConstruct
+    public void init() {
+        senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "session-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        senders.shutdownNow();
+    }
+
+    public SseEmitter subscribe(SessionType type, String id) {
+        String key = key(type, id);
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter, maxQueued);
+        subscriptions.compute(key, (k, subscribers) -> {
+            Set<Subscriber> updated = subscribers != null ? subscribers : new CopyOnWriteArraySet<>();
+            updated.add(subscriber);
+            return updated;
+        });
+        Runnable remove = () -> unsubscribe(key, subscriber);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+
+    @EventListener
+    public void onSessionChange(SessionChange change) {
+        if (change.isFromChangeStream() != changeStreamWatcher.isEnabled()) {
+            return;
+        }
+        String key = key(change.getType(), change.getId());
+        Set<Subscriber> subscribers = subscriptions.get(key);
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.queue.offer(change)) {
+                // too far behind, the client reconnects and reads the session again
+                meterRegistry.counter("session.events.dropped").increment();
+                unsubscribe(key, subscriber);
+                subscriber.emitter.completeWithError(new IllegalStateException("too many unsent events"));
+                continue;
+            }
+            schedule(subscriber);
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        SessionChange change;
+        while ((change = subscriber.queue.poll()) != null) {
+            send(subscriber.emitter, change);
+        }
+        subscriber.scheduled.set(false);
+        // an event queued after the last poll but before the flag was cleared
+        if (!subscriber.queue.isEmpty()) {
+            schedule(subscriber);
+        }
+    }
+
+    private void send(SseEmitter emitter, SessionChange change) {
+        String payload = new Document("id", change.getId())
+            .append("type", change.getType().name())
+            .append("operation", change.getOperation().name().toLowerCase())
+            .toJson();
+        try {
+            emitter.send(SseEmitter.event()
+                .name(change.getOperation().name().toLowerCase())
+                .data(payload, MediaType.APPLICATION_JSON));
+            if (change.getOperation() == SessionChange.Operation.DELETE) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    private void unsubscribe(String key, Subscriber subscriber) {
+        subscriptions.computeIfPresent(key, (k, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private String key(SessionType type, String id) {
+        return type + ":" + id;
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final Queue<SessionChange> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter, int capacity) {
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
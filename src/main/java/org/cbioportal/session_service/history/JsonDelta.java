@@ -0,0 +1,161 @@
+package org.cbioportal.session_service.history;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.bson.Document;
+
+/**
+ * Deltas between two versions of session data as a list of JSON Patch
+ * (RFC 6902) add, remove and replace operations, so the size of a delta
+ * follows the size of the change rather than the size of the session.
+ *
+ * Arrays are compared element by element; elements inserted in the middle of
+ * an array show up as replacements of the following elements.
+ */
+public final class JsonDelta {
+
+    private JsonDelta() {
+    }
+
+    public static List<Document> diff(Object before, Object after) {
+        List<Document> operations = new ArrayList<>();
+        diff("", before, after, operations);
+        return operations;
+    }
+
+    /**
+     * @return the patched value, which is {@code value} itself modified in
+     * place unless the whole value was replaced
+     */
+    public static Object apply(Object value, List<Document> operations) {
+        Object root = value;
+        for (Document operation : operations) {
+            root = apply(root, operation.getString("op"), operation.getString("path"), operation.get("value"));
+        }
+        return root;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void diff(String path, Object before, Object after, List<Document> operations) {
+        if (before instanceof Map && after instanceof Map) {
+            Map<String, Object> beforeMap = (Map<String, Object>) before;
+            Map<String, Object> afterMap = (Map<String, Object>) after;
+            for (String key : beforeMap.keySet()) {
+                if (!afterMap.containsKey(key)) {
+                    operations.add(operation("remove", path + "/" + escape(key), null));
+                }
+            }
+            for (Map.Entry<String, Object> entry : afterMap.entrySet()) {
+                String child = path + "/" + escape(entry.getKey());
+                if (!beforeMap.containsKey(entry.getKey())) {
+                    operations.add(operation("add", child, entry.getValue()));
+                } else {
+                    diff(child, beforeMap.get(entry.getKey()), entry.getValue(), operations);
+                }
+            }
+        } else if (before instanceof List && after instanceof List) {
+            List<Object> beforeList = (List<Object>) before;
+            List<Object> afterList = (List<Object>) after;
+            int common = Math.min(beforeList.size(), afterList.size());
+            for (int i = 0; i < common; i++) {
+                diff(path + "/" + i, beforeList.get(i), afterList.get(i), operations);
+            }
+            for (int i = common; i < afterList.size(); i++) {
+                operations.add(operation("add", path + "/" + i, afterList.get(i)));
+            }
+            // from the end, so every index is still valid when it is applied
+            for (int i = beforeList.size() - 1; i >= common; i--) {
+                operations.add(operation("remove", path + "/" + i, null));
+            }
+        } else if (!Objects.equals(before, after)) {
+            operations.add(operation("replace", path, after));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object apply(Object root, String op, String path, Object value) {
+        if (path.isEmpty()) {
+            if (op.equals("remove")) {
+                throw new IllegalArgumentException("cannot remove the whole document");
+            }
+            return copy(value);
+        }
+        String[] tokens = path.substring(1).split("/", -1);
+        Object parent = root;
+        for (int i = 0; i < tokens.length - 1; i++) {
+            parent = child(parent, unescape(tokens[i]), path);
+        }
+        String last = unescape(tokens[tokens.length - 1]);
+        if (parent instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) parent;
+            if (op.equals("remove")) {
+                map.remove(last);
+            } else {
+                map.put(last, copy(value));
+            }
+        } else if (parent instanceof List) {
+            List<Object> list = (List<Object>) parent;
+            int index = Integer.parseInt(last);
+            switch (op) {
+                case "add":
+                    list.add(index, copy(value));
+                    break;
+                case "remove":
+                    list.remove(index);
+                    break;
+                default:
+                    list.set(index, copy(value));
+            }
+        } else {
+            throw new IllegalArgumentException("no container at " + path);
+        }
+        return root;
+    }
+
+    private static Object child(Object parent, String token, String path) {
+        if (parent instanceof Map) {
+            return ((Map<?, ?>) parent).get(token);
+        }
+        if (parent instanceof List) {
+            return ((List<?>) parent).get(Integer.parseInt(token));
+        }
+        throw new IllegalArgumentException("no container at " + path);
+    }
+
+    // operations are applied to the reconstructed data, which must not share
+    // containers with the stored deltas
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = value instanceof Document ? new Document() : new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> copy.put(k.toString(), copy(v)));
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static Document operation(String op, String path, Object value) {
+        Document operation = new Document("op", op).append("path", path);
+        if (!op.equals("remove")) {
+            operation.append("value", value);
+        }
+        return operation;
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static String unescape(String token) {
+        return token.replace("~1", "/").replace("~0", "~");
+    }
+}
@@ -0,0 +1,215 @@
+package org.cbioportal.session_service.history;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.service.exception.SessionNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the last versions of sessions of the configured types in the
+ * &lt;type&gt;_versions collections. Versions are stored as deltas against the
+ * previous version, with a full snapshot every few versions so rebuilding a
+ * version applies a bounded number of deltas.
+ *
+ * The history of a session starts with a snapshot of the data it had before
+ * its first update after versioning was enabled.
+ */
+@Component
+public class SessionHistory {
+
+    @Value("${session.history.enabled:false}")
+    private boolean enabled;
+
+    // types to keep a history for, empty for all
+    @Value("${session.history.types:}")
+    private String types;
+
+    @Value("${session.history.max-versions:50}")
+    private int maxVersions;
+
+    @Value("${session.history.snapshot-interval:10}")
+    private int snapshotInterval;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Set<SessionType> indexed = ConcurrentHashMap.newKeySet();
+
+    public boolean isEnabled(SessionType type) {
+        if (!enabled) {
+            return false;
+        }
+        Set<String> versioned = Arrays.stream(types.split(","))
+            .map(String::trim)
+            .filter(t -> !t.isEmpty())
+            .collect(Collectors.toSet());
+        return versioned.isEmpty() || versioned.contains(type.name());
+    }
+
+    /**
+     * Records an update of a session.
+     * @param previousData the data the session had before the update
+     */
+    public void record(Session session, Object previousData) {
+        if (!isEnabled(session.getType())) {
+            return;
+        }
+        MongoCollection<Document> versions = collection(session.getType());
+        int version = latestVersion(versions, session.getId()) + 1;
+        try {
+            if (version == 1) {
+                insert(versions, session, version, previousData, null);
+                version++;
+            }
+            if (version % snapshotInterval == 0) {
+                insert(versions, session, version, session.getData(), null);
+            } else {
+                insert(versions, session, version, null, JsonDelta.diff(previousData, session.getData()));
+            }
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            // a concurrent update took the version, the delta may be against the
+            // wrong base so the data is stored in full
+            version = latestVersion(versions, session.getId()) + 1;
+            insert(versions, session, version, session.getData(), null);
+        }
+        prune(versions, session, version);
+    }
+
+    public List<SessionVersion> getVersions(String source, SessionType type, String id) {
+        List<SessionVersion> result = new ArrayList<>();
+        for (Document version : collection(type).find(sessionFilter(source, id))
+            .sort(Sorts.ascending("version"))
+            .projection(Projections.include("version", "created", "deltaSize"))) {
+            Integer changes = version.getInteger("deltaSize");
+            result.add(new SessionVersion(version.getInteger("version"), version.getDate("created"),
+                changes == null, changes == null ? 0 : changes));
+        }
+        if (result.isEmpty()) {
+            throw new SessionNotFoundException(id);
+        }
+        return result;
+    }
+
+    /**
+     * @return the data of the session at the given version
+     */
+    public Object getVersion(String source, SessionType type, String id, int version) {
+        MongoCollection<Document> versions = collection(type);
+        Document snapshot = versions.find(Filters.and(sessionFilter(source, id),
+                Filters.lte("version", version), Filters.exists("snapshot")))
+            .sort(Sorts.descending("version"))
+            .first();
+        if (snapshot == null || versions.countDocuments(
+            Filters.and(sessionFilter(source, id), Filters.eq("version", version))) == 0) {
+            throw new SessionNotFoundException(id + " version " + version);
+        }
+        Object data = snapshot.get("snapshot");
+        for (Document delta : versions.find(Filters.and(sessionFilter(source, id),
+                Filters.gt("version", snapshot.getInteger("version")), Filters.lte("version", version)))
+            .sort(Sorts.ascending("version"))) {
+            data = JsonDelta.apply(data, delta.getList("delta", Document.class));
+        }
+        return data;
+    }
+
+    /**
+     * @return the changes that turn version {@code from} into version {@code to}
+     */
+    public List<Document> diff(String source, SessionType type, String id, int from, int to) {
+        return JsonDelta.diff(getVersion(source, type, id, from), getVersion(source, type, id, to));
+    }
+
+    public void delete(SessionType type, String id) {
+        if (isEnabled(type)) {
+            collection(type).deleteMany(Filters.eq("sessionId", id));
+        }
+    }
+
+    public void deleteSource(String source) {
+        if (!enabled) {
+            return;
+        }
+        for (SessionType type : SessionType.values()) {
+            if (isEnabled(type)) {
+                collection(type).deleteMany(Filters.eq("source", source));
+            }
+        }
+    }
+
+    private void insert(MongoCollection<Document> versions, Session session, int version, Object snapshot,
+                        List<Document> delta) {
+        Document document = new Document("_id", session.getId() + ":" + version)
+            .append("sessionId", session.getId())
+            .append("source", session.getSource())
+            .append("version", version)
+            .append("created", new Date());
+        if (snapshot != null) {
+            document.append("snapshot", snapshot);
+        } else {
+            document.append("delta", delta).append("deltaSize", delta.size());
+        }
+        versions.insertOne(document);
+    }
+
+    /**
+     * Drops the versions beyond the configured number, turning the oldest
+     * remaining version into a snapshot if it is a delta.
+     */
+    private void prune(MongoCollection<Document> versions, Session session, int latestVersion) {
+        int oldestKept = latestVersion - maxVersions + 1;
+        if (maxVersions <= 0 || oldestKept <= 1) {
+            return;
+        }
+        Bson oldest = Filters.and(Filters.eq("sessionId", session.getId()), Filters.eq("version", oldestKept));
+        Document oldestVersion = versions.find(oldest).projection(Projections.include("deltaSize")).first();
+        if (oldestVersion != null && oldestVersion.get("deltaSize") != null) {
+            Object data = getVersion(session.getSource(), session.getType(), session.getId(), oldestKept);
+            versions.updateOne(oldest, Updates.combine(Updates.set("snapshot", data),
+                Updates.unset("delta"), Updates.unset("deltaSize")));
+        }
+        versions.deleteMany(Filters.and(Filters.eq("sessionId", session.getId()), Filters.lt("version", oldestKept)));
+    }
+
+    private int latestVersion(MongoCollection<Document> versions, String id) {
+        Document latest = versions.find(Filters.eq("sessionId", id))
+            .sort(Sorts.descending("version"))
+            .projection(Projections.include("version"))
+            .first();
+        return latest == null ? 0 : latest.getInteger("version");
+    }
+
+    private Bson sessionFilter(String source, String id) {
+        return Filters.and(Filters.eq("sessionId", id), Filters.eq("source", source));
+    }
+
+    private MongoCollection<Document> collection(SessionType type) {
+        MongoCollection<Document> versions = mongoTemplate.getCollection(type.name() + "_versions");
+        if (indexed.add(type)) {
+            versions.createIndex(Indexes.compoundIndex(Indexes.ascending("sessionId"), Indexes.descending("version")));
+        }
+        return versions;
+    }
+}
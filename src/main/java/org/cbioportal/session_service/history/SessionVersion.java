@@ -0,0 +1,42 @@
+package org.cbioportal.session_service.history;
+
+import java.util.Date;
+
+/**
+ * One entry of the version history of a session.
+ */
+public class SessionVersion {
+    private final int version;
+    private final Date created;
+    private final boolean snapshot;
+    private final int changes;
+
+    public SessionVersion(int version, Date created, boolean snapshot, int changes) {
+        this.version = version;
+        this.created = created;
+        this.snapshot = snapshot;
+        this.changes = changes;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    /**
+     * @return whether the version is stored in full rather than as a delta
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the number of changes to the previous version, 0 for snapshots
+     */
+    public int getChanges() {
+        return changes;
+    }
+}
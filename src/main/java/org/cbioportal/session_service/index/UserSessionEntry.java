@@ -0,0 +1,40 @@
+package org.cbioportal.session_service.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import java.util.Map;
+import org.cbioportal.session_service.domain.SessionType;
+
+/**
+ * A session a user has access to, as stored in the user index.
+ */
+@JsonInclude(Include.NON_NULL)
+public class UserSessionEntry {
+    private final String id;
+    private final String source;
+    private final SessionType type;
+    private final Map<String, Object> summary;
+
+    public UserSessionEntry(String id, String source, SessionType type, Map<String, Object> summary) {
+        this.id = id;
+        this.source = source;
+        this.type = type;
+        this.summary = summary;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public SessionType getType() {
+        return type;
+    }
+
+    public Map<String, Object> getSummary() {
+        return summary;
+    }
+}
@@ -0,0 +1,284 @@
+package org.cbioportal.session_service.index;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.domain.internal.SessionSummarizer;
+import org.cbioportal.session_service.events.SessionChange;
+import org.cbioportal.session_service.events.SessionChangeStreamWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the session_user_index collection, one small document per user
+ * and session holding the summary of the session, so the sessions of
+ * a user are read with an index point read instead of a filter over the
+ * whole type collection.
+ *
+ * Without the change stream the index is written after every write made
+ * through this service. With the change stream it follows the stream instead,
+ * which also covers writes made elsewhere. A failed index write is logged
+ * and counted in session.user_index.failed but does not fail the session
+ * write, which is already stored; the entries of that session stay stale
+ * until its next write or the next build.
+ */
+@Component
+public class UserSessionIndex {
+
+    static final String COLLECTION = "session_user_index";
+    private static final Logger LOG = LoggerFactory.getLogger(UserSessionIndex.class);
+
+    @Value("${session.user-index.enabled:false}")
+    private boolean enabled;
+
+    // paths inside the session naming the users with access to it
+    @Value("${session.user-index.user-fields:data.users,data.owner}")
+    private String userFields;
+
+    @Value("${session.user-index.build-on-startup:true}")
+    private boolean buildOnStartup;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    @Autowired
+    private SessionChangeStreamWatcher changeStreamWatcher;
+
+    @Autowired
+    private SessionSummarizer sessionSummarizer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the indexes of the collection and, when it is empty, fills it
+     * from the session collections in the background.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        MongoCollection<Document> collection = collection();
+        collection.createIndex(Indexes.ascending("user", "source", "type"));
+        collection.createIndex(Indexes.ascending("type", "sessionId", "user"), new IndexOptions().unique(true));
+        if (buildOnStartup && collection.estimatedDocumentCount() == 0) {
+            Thread builder = new Thread(this::build, "session-user-index-builder");
+            builder.setDaemon(true);
+            builder.start();
+        }
+    }
+
+    /**
+     * @return the sessions of the given source and type the user has access to
+     */
+    public List<UserSessionEntry> find(String source, SessionType type, String user) {
+        List<UserSessionEntry> entries = new ArrayList<>();
+        for (Document entry : collection()
+            .find(Filters.and(Filters.eq("user", user), Filters.eq("source", source), Filters.eq("type", type.name())))
+            .projection(Projections.include("sessionId", "summary"))) {
+            entries.add(new UserSessionEntry(entry.getString("sessionId"), source, type,
+                entry.get("summary", Document.class)));
+        }
+        return entries;
+    }
+
+    /**
+     * Called after a session was inserted or updated through this service.
+     */
+    public void onWrite(Session session) {
+        if (enabled && !changeStreamWatcher.isEnabled()) {
+            try {
+                index(session);
+            } catch (RuntimeException e) {
+                failed(session.getType(), session.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Called after a session was deleted through this service.
+     */
+    public void onDeleteSource(String source) {
+        if (enabled) {
+            collection().deleteMany(Filters.eq("source", source));
+        }
+    }
+
+    public void onDelete(SessionType type, String id) {
+        if (enabled && !changeStreamWatcher.isEnabled()) {
+            try {
+                collection().deleteMany(sessionFilter(type, id));
+            } catch (RuntimeException e) {
+                failed(type, id, e);
+            }
+        }
+    }
+
+    @EventListener
+    public void onSessionChange(SessionChange change) {
+        if (!enabled || !change.isFromChangeStream()) {
+            return;
+        }
+        if (change.getSource() == null && change.getOperation() != SessionChange.Operation.DELETE
+            && sessionCollections.isPartitioned()) {
+            // the collection of the session is not known, replaces carry the source
+            return;
+        }
+        Session session = change.getOperation() == SessionChange.Operation.DELETE ? null
+            : mongoTemplate.findById(change.getId(), Session.class, change.getSource() == null
+                ? sessionCollections.sharedCollection(change.getType())
+                : sessionCollections.collection(change.getType(), change.getSource()));
+        try {
+            if (session == null) {
+                collection().deleteMany(sessionFilter(change.getType(), change.getId()));
+            } else {
+                index(session);
+            }
+        } catch (RuntimeException e) {
+            failed(change.getType(), change.getId(), e);
+        }
+    }
+
+    private void failed(SessionType type, String id, RuntimeException e) {
+        meterRegistry.counter("session.user_index.failed").increment();
+        LOG.warn("Could not update the user index of " + type + " session " + id + ": " + e.getMessage());
+    }
+
+    private void index(Session session) {
+        Set<String> users = users(session.getData());
+        MongoCollection<Document> collection = collection();
+        Bson sessionFilter = sessionFilter(session.getType(), session.getId());
+        // users that lost access first, then one upsert per remaining user
+        collection.deleteMany(Filters.and(sessionFilter, Filters.nin("user", users)));
+        if (users.isEmpty()) {
+            return;
+        }
+        Document summary = new Document(summary(session));
+        for (String user : users) {
+            collection.replaceOne(Filters.and(sessionFilter, Filters.eq("user", user)),
+                new Document("user", user)
+                    .append("source", session.getSource())
+                    .append("type", session.getType().name())
+                    .append("sessionId", session.getId())
+                    .append("summary", summary),
+                new ReplaceOptions().upsert(true));
+        }
+    }
+
+    /**
+     * @return the filter the index replaces, for when it is disabled
+     */
+    public Query userQuery(String user) {
+        return new Query(new Criteria().orOperator(Arrays.stream(userFields.split(","))
+            .map(field -> Criteria.where(field.trim()).is(user))
+            .collect(Collectors.toList())));
+    }
+
+    public UserSessionEntry toEntry(Session session) {
+        return new UserSessionEntry(session.getId(), session.getSource(), session.getType(), summary(session));
+    }
+
+    private void build() {
+        long started = System.currentTimeMillis();
+        long indexed = 0;
+        Query query = new Query(new Criteria().orOperator(Arrays.stream(userFields.split(","))
+            .map(field -> Criteria.where(field.trim()).exists(true))
+            .collect(Collectors.toList())));
+        try {
+            for (SessionType type : SessionType.values()) {
+                for (String collection : sessionCollections.collections(type)) {
+                    try (Stream<Session> sessions = mongoTemplate.stream(query, Session.class, collection)) {
+                        Iterator<Session> iterator = sessions.iterator();
+                        while (iterator.hasNext()) {
+                            index(iterator.next());
+                            indexed++;
+                        }
+                    }
+                }
+            }
+            LOG.info("Built the user index from " + indexed + " sessions in "
+                + (System.currentTimeMillis() - started) + "ms");
+        } catch (RuntimeException e) {
+            LOG.warn("Could not build the user index: " + e.getMessage());
+        }
+    }
+
+    private Set<String> users(Object data) {
+        Set<String> users = new LinkedHashSet<>();
+        for (String field : userFields.split(",")) {
+            Object value = resolve(data, field.trim());
+            if (value instanceof Collection) {
+                for (Object user : (Collection<?>) value) {
+                    if (user instanceof String) {
+                        users.add((String) user);
+                    }
+                }
+            } else if (value instanceof String) {
+                users.add((String) value);
+            }
+        }
+        return users;
+    }
+
+    private Map<String, Object> summary(Session session) {
+        return session.getSummary() != null ? session.getSummary()
+            : sessionSummarizer.summarize(session.getType(), session.getData());
+    }
+
+    private static Object resolve(Object data, String path) {
+        if (!path.startsWith("data.")) {
+            return null;
+        }
+        Object current = data;
+        for (String part : path.substring("data.".length()).split("\\.")) {
+            if (!(current instanceof Map)) {
+                return null;
+            }
+            current = ((Map<?, ?>) current).get(part);
+        }
+        return current;
+    }
+
+    private static Bson sessionFilter(SessionType type, String id) {
+        return Filters.and(Filters.eq("type", type.name()), Filters.eq("sessionId", id));
+    }
+
+    private MongoCollection<Document> collection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+}
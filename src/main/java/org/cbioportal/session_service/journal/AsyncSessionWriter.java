@@ -0,0 +1,498 @@
+package org.cbioportal.session_service.journal;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.cbioportal.session_service.cache.SessionIdFilter;
+import org.cbioportal.session_service.cache.SessionQueryCache;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionRepository;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.events.SessionChange;
+import org.cbioportal.session_service.events.SessionChange.Operation;
+import org.cbioportal.session_service.index.UserSessionIndex;
+import org.cbioportal.session_service.mongo.SessionSharding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Acknowledges new sessions once they are in the local {@link WriteJournal}
+ * instead of once MongoDB stored them, so creating sessions keeps working
+ * through elections and short outages of the primary.
+ *
+ * Sessions get their id when they are accepted and are written to MongoDB in
+ * bulk by a background drainer; until then reads of the single session are
+ * answered from memory. Accepting a session does not read MongoDB: if it
+ * turns out to hold a session with the same checksum when the session is
+ * drained, the accepted id is recorded as an alias of the existing session
+ * in session_aliases, and reads, updates and deletes by id as well as id
+ * conditions of queries are resolved to the existing session. Sessions still
+ * in the journal when the service stops are written after the next start.
+ *
+ * Pending sessions are only known to the instance that accepted them, so a
+ * read by id that reaches another instance before the drain fails; clients
+ * need sticky routing to read their own new sessions right away.
+ */
+@Component
+public class AsyncSessionWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSessionWriter.class);
+
+    public static final String ALIASES = "session_aliases";
+
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    @Value("${session.async-write.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.async-write.types:virtual_study,group,comparison_session}")
+    private String types;
+
+    @Value("${session.async-write.directory:session-journal}")
+    private String directory;
+
+    @Value("${session.async-write.segment-size:67108864}")
+    private int segmentSize;
+
+    // 0 acknowledges each session once it is on disk, otherwise the journal is
+    // forced this often and sessions are acknowledged right away
+    @Value("${session.async-write.sync-interval-ms:0}")
+    private long syncIntervalMs;
+
+    @Value("${session.async-write.batch-size:1000}")
+    private int batchSize;
+
+    // beyond this sessions are written directly, bounding memory
+    @Value("${session.async-write.max-pending:100000}")
+    private int maxPending;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private SessionSharding sessionSharding;
+
+    @Autowired
+    private SessionIdFilter sessionIdFilter;
+
+    @Autowired
+    private SessionQueryCache sessionQueryCache;
+
+    @Autowired
+    private UserSessionIndex userSessionIndex;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private static final class Pending {
+        private final Session session;
+        private final long segment;
+        private final int offset;
+        private final long position;
+        // held while the session is written, by the drainer or by settle
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Pending(Session session, long segment, int offset, long position) {
+            this.session = session;
+            this.segment = segment;
+            this.offset = offset;
+            this.position = position;
+        }
+    }
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    // pending sessions by source, type and checksum, to detect duplicates among them
+    private final Map<String, Pending> pendingChecksums = new ConcurrentHashMap<>();
+    private final Object appendLock = new Object();
+    private final Object drainLock = new Object();
+    private Set<SessionType> asyncTypes;
+    private WriteJournal journal;
+    private ScheduledExecutorService syncer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        asyncTypes = Arrays.stream(types.split(","))
+            .map(String::trim)
+            .filter(type -> !type.isEmpty())
+            .map(SessionType::valueOf)
+            .collect(Collectors.toSet());
+        if (!enabled) {
+            return;
+        }
+        journal = new WriteJournal(Path.of(directory), segmentSize);
+        List<WriteJournal.Record> records = journal.open();
+        for (WriteJournal.Record record : records) {
+            Session session = decode(record.getBytes());
+            Pending entry = new Pending(session, record.getSegment(), record.getOffset(), 0);
+            pending.put(key(session.getType(), session.getId()), entry);
+            pendingChecksums.put(checksumKey(session), entry);
+        }
+        if (!records.isEmpty()) {
+            LOG.info("Recovered " + pending.size() + " sessions from the journal in " + directory);
+        }
+        Gauge.builder("session.async_write.pending", pending, Map::size).register(meterRegistry);
+        Gauge.builder("session.async_write.syncs", journal, WriteJournal::syncs).register(meterRegistry);
+        if (syncIntervalMs > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(() -> journal.sync(journal.appended()), syncIntervalMs, syncIntervalMs,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isAsync(SessionType type) {
+        return enabled && asyncTypes.contains(type);
+    }
+
+    /**
+     * Accepts a new session, giving it an id. The session must not be
+     * modified afterwards.
+     * @return the accepted session, a pending session with the same checksum,
+     * or null if the caller has to write the session itself
+     */
+    public Session offer(Session session) {
+        if (!isAsync(session.getType()) || pending.size() >= maxPending) {
+            meterRegistry.counter("session.async_write.direct").increment();
+            return null;
+        }
+        String id = sessionSharding.newId();
+        session.setId(id != null ? id : new ObjectId().toHexString());
+        byte[] bytes = encode(session);
+        if (bytes.length > journal.maxRecordSize()) {
+            session.setId(null);
+            return null;
+        }
+        Pending accepted;
+        synchronized (appendLock) {
+            accepted = pendingChecksums.get(checksumKey(session));
+            if (accepted == null) {
+                try {
+                    long position = journal.append(bytes);
+                    accepted = new Pending(session, journal.currentSegment(), journal.lastOffset(), position);
+                } catch (IOException e) {
+                    LOG.warn("Could not journal " + session.getType() + " session, writing it directly: "
+                        + e.getMessage());
+                    session.setId(null);
+                    return null;
+                }
+                pending.put(key(session.getType(), session.getId()), accepted);
+                pendingChecksums.put(checksumKey(session), accepted);
+                meterRegistry.counter("session.async_write.accepted").increment();
+            }
+        }
+        if (syncIntervalMs <= 0) {
+            // concurrent callers share one force of the journal
+            journal.sync(accepted.position);
+        }
+        return accepted.session;
+    }
+
+    /**
+     * @return the pending session, null if there is none
+     */
+    public Session get(SessionType type, String id) {
+        Pending entry = enabled ? pending.get(key(type, id)) : null;
+        return entry == null ? null : entry.session;
+    }
+
+    /**
+     * Writes the session now if it is pending, before it is updated or deleted.
+     * Only waits for the drainer if it is writing this session.
+     */
+    public void settle(SessionType type, String id) {
+        Pending entry = enabled ? pending.get(key(type, id)) : null;
+        if (entry == null) {
+            return;
+        }
+        entry.lock.lock();
+        try {
+            if (isPending(entry)) {
+                apply(List.of(entry));
+            }
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the id of the session an accepted id turned out to duplicate,
+     * null if it is not an alias
+     */
+    public String resolveAlias(String source, SessionType type, String id) {
+        if (!isAsync(type)) {
+            return null;
+        }
+        Document alias = mongoTemplate.getCollection(ALIASES).find(Filters.and(Filters.eq("_id", id),
+            Filters.eq("source", source), Filters.eq("type", type.name()))).first();
+        return alias == null ? null : alias.getString("target");
+    }
+
+    /**
+     * @return the id of the session the id is an alias of, or the id itself
+     */
+    public String canonicalId(String source, SessionType type, String id) {
+        String target = resolveAlias(source, type, id);
+        return target != null ? target : id;
+    }
+
+    /**
+     * Writes the pending sessions among the ids a query selects by and adds
+     * the sessions they are aliases of, so queries by id (such as fetching
+     * sessions by a list of ids) find them. Only top level conditions on the
+     * id that are a single value or $in are resolved.
+     * @return the query, or a copy selecting the aliased sessions as well
+     */
+    public Query resolveAliases(String source, SessionType type, Query query) {
+        if (!isAsync(type)) {
+            return query;
+        }
+        Document filter = query.getQueryObject();
+        String field = filter.containsKey("_id") ? "_id" : filter.containsKey("id") ? "id" : null;
+        if (field == null) {
+            return query;
+        }
+        Object condition = filter.get(field);
+        List<Object> ids = new ArrayList<>();
+        if (condition instanceof String) {
+            ids.add(condition);
+        } else if (condition instanceof Document && ((Document) condition).size() == 1
+            && ((Document) condition).get("$in") instanceof Collection) {
+            ids.addAll((Collection<?>) ((Document) condition).get("$in"));
+        } else {
+            return query;
+        }
+        for (Object id : ids) {
+            if (id instanceof String) {
+                settle(type, (String) id);
+            }
+        }
+        Set<Object> targets = new LinkedHashSet<>();
+        mongoTemplate.getCollection(ALIASES).find(Filters.and(Filters.in("_id", ids), Filters.eq("source", source),
+                Filters.eq("type", type.name())))
+            .forEach(alias -> targets.add(alias.getString("target")));
+        if (targets.isEmpty()) {
+            return query;
+        }
+        targets.addAll(ids);
+        Document resolved = new Document(filter);
+        resolved.put(field, new Document("$in", new ArrayList<>(targets)));
+        BasicQuery copy = new BasicQuery(resolved, query.getFieldsObject());
+        copy.setSortObject(query.getSortObject());
+        copy.skip(query.getSkip());
+        copy.limit(query.getLimit());
+        copy.setMeta(query.getMeta());
+        return copy;
+    }
+
+    /**
+     * Drops the pending sessions of the source and its aliases.
+     */
+    public void deleteSource(String source) {
+        if (!enabled) {
+            return;
+        }
+        for (Pending entry : pending.values()) {
+            if (source.equals(entry.session.getSource())) {
+                entry.lock.lock();
+                try {
+                    forget(entry);
+                } finally {
+                    entry.lock.unlock();
+                }
+            }
+        }
+        mongoTemplate.getCollection(ALIASES).deleteMany(Filters.eq("source", source));
+    }
+
+    @Scheduled(fixedDelayString = "${session.async-write.drain-interval-ms:200}")
+    public void drain() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (drainLock) {
+            List<Pending> batch = new ArrayList<>(batchSize);
+            for (Pending entry : pending.values()) {
+                // sessions being settled are written by settle
+                if (!entry.lock.tryLock()) {
+                    continue;
+                }
+                if (!isPending(entry)) {
+                    entry.lock.unlock();
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() == batchSize) {
+                    if (!applyAndUnlock(batch)) {
+                        return;
+                    }
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                applyAndUnlock(batch);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (enabled) {
+            if (syncer != null) {
+                syncer.shutdown();
+            }
+            drain();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.warn("Could not delete the drained journal segment: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean applyAndUnlock(List<Pending> batch) {
+        try {
+            return apply(batch);
+        } finally {
+            batch.forEach(entry -> entry.lock.unlock());
+        }
+    }
+
+    /**
+     * @return false if MongoDB could not be reached and the sessions stay pending
+     */
+    private boolean apply(List<Pending> batch) {
+        List<Session> sessions = batch.stream().map(entry -> entry.session).collect(Collectors.toList());
+        Set<Session> rejected;
+        try {
+            rejected = Set.copyOf(sessionRepository.insertSessions(sessions));
+        } catch (RuntimeException e) {
+            LOG.warn("Could not write " + sessions.size() + " journaled sessions, retrying: " + e.getMessage());
+            return false;
+        }
+        for (Pending entry : batch) {
+            Session session = entry.session;
+            if (rejected.contains(session) && !resolveDuplicate(session)) {
+                // existed when it was rejected and was deleted since, such as a
+                // session drained before a restart, inserting it would bring it back
+                meterRegistry.counter("session.async_write.deleted").increment();
+                forget(entry);
+                continue;
+            }
+            sessionIdFilter.recordInserted(session.getSource(), session.getType(), session.getId());
+            forget(entry);
+            if (!rejected.contains(session)) {
+                sessionQueryCache.onInsert(session);
+                userSessionIndex.onWrite(session);
+                eventPublisher.publishEvent(new SessionChange(session.getType(), session.getId(),
+                    session.getSource(), Operation.INSERT, false));
+            }
+        }
+        meterRegistry.counter("session.async_write.drained").increment(batch.size());
+        return true;
+    }
+
+    private boolean isPending(Pending entry) {
+        return pending.get(key(entry.session.getType(), entry.session.getId())) == entry;
+    }
+
+    private void forget(Pending entry) {
+        Session session = entry.session;
+        if (!pending.remove(key(session.getType(), session.getId()), entry)) {
+            return;
+        }
+        pendingChecksums.remove(checksumKey(session), entry);
+        try {
+            journal.release(entry.segment, entry.offset);
+        } catch (IOException e) {
+            LOG.warn("Could not delete a drained journal segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether the rejected session is stored, or now an alias of a
+     * stored session, false if it was deleted since it was rejected
+     */
+    private boolean resolveDuplicate(Session session) {
+        if (sessionRepository.findOneBySourceAndTypeAndId(session.getSource(), session.getType(),
+            session.getId()) != null) {
+            // written before a restart
+            return true;
+        }
+        Session existing = sessionRepository.findOneBySourceAndTypeAndChecksum(session.getSource(),
+            session.getType(), session.getChecksum());
+        if (existing == null) {
+            return false;
+        }
+        mongoTemplate.getCollection(ALIASES).replaceOne(Filters.eq("_id", session.getId()),
+            new Document("_id", session.getId())
+                .append("source", session.getSource())
+                .append("type", session.getType().name())
+                .append("target", existing.getId())
+                .append("created", new Date()),
+            new ReplaceOptions().upsert(true));
+        meterRegistry.counter("session.async_write.aliases").increment();
+        return true;
+    }
+
+    private byte[] encode(Session session) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(session, document);
+        ByteBuffer buffer = new RawBsonDocument(document, CODEC).getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private Session decode(byte[] bytes) {
+        return mongoTemplate.getConverter().read(Session.class, new RawBsonDocument(bytes).decode(CODEC));
+    }
+
+    private String key(SessionType type, String id) {
+        return type + ":" + id;
+    }
+
+    private String checksumKey(Session session) {
+        return session.getSource() + ":" + session.getType() + ":" + session.getChecksum();
+    }
+}
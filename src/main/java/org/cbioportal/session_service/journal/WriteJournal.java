@@ -0,0 +1,301 @@
+package org.cbioportal.session_service.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of records in memory-mapped segment files of a fixed size.
+ * Each record is its length, a CRC32C of its bytes and the bytes; a record
+ * whose length or checksum does not match, such as one torn by a crash, ends
+ * the segment.
+ *
+ * Appending only copies into the mapped segment. {@link #sync(long)} forces
+ * the segment to disk, and threads waiting for it at the same time share one
+ * force (group commit). The owner releases a record after applying it
+ * elsewhere, which negates its length so it is skipped when the journal is
+ * opened again; the mark is not forced, so a record released shortly before
+ * the machine crashed may be read again. A segment is deleted once every
+ * record in it was released, the current one when the journal is closed.
+ */
+public class WriteJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteJournal.class);
+
+    static final String EXTENSION = ".journal";
+
+    private static final int HEADER = 8;
+
+    public static final class Record {
+        private final long segment;
+        private final int offset;
+        private final byte[] bytes;
+
+        Record(long segment, int offset, byte[] bytes) {
+            this.segment = segment;
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+
+        public long getSegment() {
+            return segment;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Object syncLock = new Object();
+    // records not released yet, per segment
+    private final Map<Long, Integer> unreleased = new HashMap<>();
+
+    private long segment;
+    private MappedByteBuffer buffer;
+    private int lastOffset;
+    private long appended;
+    private long synced;
+    private long syncs;
+
+    public WriteJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the journal, starting a new segment after the existing ones.
+     * @return the unreleased records of the existing segments, oldest first
+     */
+    public synchronized List<Record> open() throws IOException {
+        Files.createDirectories(directory);
+        List<Record> records = new ArrayList<>();
+        for (long existing : segments()) {
+            int count = 0;
+            for (Record record : read(existing)) {
+                records.add(record);
+                count++;
+            }
+            if (count == 0) {
+                Files.delete(file(existing));
+            } else {
+                unreleased.put(existing, count);
+            }
+            segment = Math.max(segment, existing);
+        }
+        roll();
+        return records;
+    }
+
+    /**
+     * @return the largest record that fits into a segment
+     */
+    public int maxRecordSize() {
+        return segmentSize - HEADER;
+    }
+
+    /**
+     * Appends a record, which is durable once {@link #sync(long)} returned
+     * for the returned position.
+     * @return the position of the record
+     */
+    public synchronized long append(byte[] bytes) throws IOException {
+        if (bytes.length > maxRecordSize()) {
+            throw new IllegalArgumentException("record of " + bytes.length + " bytes does not fit into a segment");
+        }
+        if (buffer.remaining() < HEADER + bytes.length) {
+            // earlier segments are durable once the current one is
+            buffer.force();
+            roll();
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(bytes);
+        // the length goes last, a zero length marks the end of the segment
+        buffer.putInt(start, bytes.length);
+        unreleased.merge(segment, 1, Integer::sum);
+        lastOffset = start;
+        return ++appended;
+    }
+
+    /**
+     * @return the segment the last record was appended to
+     */
+    public synchronized long currentSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the offset of the last appended record in its segment
+     */
+    public synchronized int lastOffset() {
+        return lastOffset;
+    }
+
+    /**
+     * @return the position of the last appended record
+     */
+    public synchronized long appended() {
+        return appended;
+    }
+
+    /**
+     * Waits until the record at the position is on disk.
+     */
+    public void sync(long position) {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                // forced by another thread in the meantime
+                return;
+            }
+            MappedByteBuffer target;
+            long upTo;
+            synchronized (this) {
+                target = buffer;
+                upTo = appended;
+            }
+            target.force();
+            synced = upTo;
+            syncs++;
+        }
+    }
+
+    /**
+     * @return the number of times segments were forced to disk
+     */
+    public long syncs() {
+        synchronized (syncLock) {
+            return syncs;
+        }
+    }
+
+    /**
+     * Marks the record at the offset of the segment as applied, deleting the
+     * segment once all of its records are and no more are appended to it.
+     */
+    public synchronized void release(long recordSegment, int offset) throws IOException {
+        Integer remaining = unreleased.computeIfPresent(recordSegment, (key, count) -> count - 1);
+        if (remaining == null) {
+            return;
+        }
+        if (remaining > 0 || recordSegment == segment) {
+            markReleased(recordSegment, offset);
+        }
+        if (remaining <= 0) {
+            unreleased.remove(recordSegment);
+            if (recordSegment != segment) {
+                Files.deleteIfExists(file(recordSegment));
+            }
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, deleting it if all of its records
+     * were released.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+            if (!unreleased.containsKey(segment)) {
+                Files.deleteIfExists(file(segment));
+            }
+        }
+    }
+
+    private void markReleased(long recordSegment, int offset) throws IOException {
+        if (recordSegment == segment) {
+            buffer.putInt(offset, -Math.abs(buffer.getInt(offset)));
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file(recordSegment), StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, offset);
+            length.flip();
+            int value = -Math.abs(length.getInt());
+            length.clear();
+            length.putInt(value).flip();
+            channel.write(length, offset);
+        }
+    }
+
+    private void roll() throws IOException {
+        long previous = segment;
+        if (buffer != null && !unreleased.containsKey(previous)) {
+            Files.deleteIfExists(file(previous));
+        }
+        segment++;
+        try (FileChannel channel = FileChannel.open(file(segment), StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(EXTENSION))
+                .map(name -> Long.parseLong(name.substring(0, name.length() - EXTENSION.length())))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private List<Record> read(long number) throws IOException {
+        Path file = file(number);
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer segmentBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (segmentBuffer.remaining() >= HEADER) {
+                int offset = segmentBuffer.position();
+                int length = segmentBuffer.getInt();
+                int checksum = segmentBuffer.getInt();
+                if (length < 0 && -length <= segmentBuffer.remaining()) {
+                    // released
+                    segmentBuffer.position(segmentBuffer.position() - length);
+                    continue;
+                }
+                if (length <= 0 || length > segmentBuffer.remaining()) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                segmentBuffer.get(bytes);
+                CRC32C crc = new CRC32C();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Ignoring the end of " + file + " after a record that does not match its checksum");
+                    break;
+                }
+                records.add(new Record(number, offset, bytes));
+            }
+        }
+        return records;
+    }
+
+    private Path file(long number) {
+        return directory.resolve(String.format("%020d", number) + EXTENSION);
+    }
+}
@@ -0,0 +1,91 @@
+package org.cbioportal.session_service.limit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounds the number of concurrent requests and splits the bound between the
+ * keys (sources) that currently have requests in flight, proportionally to
+ * their weights. An idle system lets one key use every slot; once others
+ * become active, the busy key is held to its share.
+ *
+ * Counters are updated with atomic operations only, so the shares are
+ * approximate under contention.
+ */
+public class FairConcurrencyLimiter {
+
+    private final int maxConcurrent;
+    private final ToIntFunction<String> weights;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // weight of the keys with requests in flight
+    private final AtomicInteger activeWeight = new AtomicInteger();
+    private final Map<String, KeyState> keys = new ConcurrentHashMap<>();
+
+    public FairConcurrencyLimiter(int maxConcurrent, ToIntFunction<String> weights) {
+        this.maxConcurrent = maxConcurrent;
+        this.weights = weights;
+    }
+
+    /**
+     * @return a permit to pass to {@link #release} when the request
+     * completes, or null if the request must not run
+     */
+    public Permit tryAcquire(String key) {
+        KeyState state = keys.computeIfAbsent(key, k -> new KeyState(key, weights.applyAsInt(k)));
+        Permit permit = new Permit(state);
+        if (state.inFlight.getAndIncrement() == 0) {
+            activeWeight.addAndGet(state.weight);
+        }
+        int share = Math.max(1,
+            (int) ((long) maxConcurrent * state.weight / Math.max(activeWeight.get(), state.weight)));
+        if (state.inFlight.get() > share) {
+            releaseKey(state);
+            return null;
+        }
+        if (inFlight.incrementAndGet() > maxConcurrent) {
+            inFlight.decrementAndGet();
+            releaseKey(state);
+            return null;
+        }
+        return permit;
+    }
+
+    public void release(Permit permit) {
+        inFlight.decrementAndGet();
+        releaseKey(permit.state);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void releaseKey(KeyState state) {
+        if (state.inFlight.decrementAndGet() == 0) {
+            activeWeight.addAndGet(-state.weight);
+            // a request that still got this state keeps counting on it, the
+            // next one creates a fresh state
+            keys.remove(state.key, state);
+        }
+    }
+
+    public static final class Permit {
+        private final KeyState state;
+
+        private Permit(KeyState state) {
+            this.state = state;
+        }
+    }
+
+    private static final class KeyState {
+        private final String key;
+        private final int weight;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private KeyState(String key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+}
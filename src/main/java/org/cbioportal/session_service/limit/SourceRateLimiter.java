@@ -0,0 +1,96 @@
+package org.cbioportal.session_service.limit;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token buckets per source, and optionally per user, with separate budgets
+ * for cheap requests (single sessions, writes) and expensive ones (lists,
+ * queries, search, aggregations). Expensive requests additionally share a
+ * {@link FairConcurrencyLimiter}, weighted per source.
+ */
+@Component
+public class SourceRateLimiter {
+
+    @Value("${session.rate-limit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.rate-limit.per-user:false}")
+    private boolean perUser;
+
+    @Value("${session.rate-limit.cheap.rate:100}")
+    private double cheapRate;
+
+    @Value("${session.rate-limit.cheap.burst:200}")
+    private int cheapBurst;
+
+    @Value("${session.rate-limit.expensive.rate:5}")
+    private double expensiveRate;
+
+    @Value("${session.rate-limit.expensive.burst:20}")
+    private int expensiveBurst;
+
+    @Value("${session.rate-limit.expensive.max-concurrent:16}")
+    private int maxConcurrentExpensive;
+
+    @Autowired
+    private Environment environment;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private FairConcurrencyLimiter expensiveLimiter;
+
+    @PostConstruct
+    public void init() {
+        expensiveLimiter = new FairConcurrencyLimiter(maxConcurrentExpensive,
+            source -> environment.getProperty("session.rate-limit.weight." + source, Integer.class, 1));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param user the authenticated user, or null
+     * @return 0 if the request is within budget, otherwise the nanoseconds
+     * until it would be
+     */
+    public long tryAcquire(String source, String user, boolean expensive) {
+        String key = (expensive ? "expensive:" : "cheap:") + source
+            + (perUser && user != null ? ":" + user : "");
+        long now = System.nanoTime();
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> expensive
+                ? new TokenBucket(expensiveRate, expensiveBurst, now)
+                : new TokenBucket(cheapRate, cheapBurst, now));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    /**
+     * @return a permit to release when the request completes, or null if the
+     * source already uses its share of the expensive request slots
+     */
+    public FairConcurrencyLimiter.Permit tryStartExpensive(String source) {
+        return expensiveLimiter.tryAcquire(source);
+    }
+
+    public void finishExpensive(FairConcurrencyLimiter.Permit permit) {
+        expensiveLimiter.release(permit);
+    }
+
+    /**
+     * Drops buckets that have refilled completely, they behave like new ones.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+}
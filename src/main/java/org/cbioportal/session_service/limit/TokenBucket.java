@@ -0,0 +1,53 @@
+package org.cbioportal.session_service.limit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket in its virtual scheduling form (GCRA): instead of a
+ * token count the bucket keeps the time at which it will be full again, and
+ * a request is admitted if that time is at most one burst ahead of now.
+ * A single compare-and-set per request, no allocation.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    // theoretical arrival time of the next request, in System.nanoTime() units
+    private final AtomicLong fullAt;
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst bucket capacity
+     */
+    public TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+        this.intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.burstNanos = intervalNanos * Math.max(burst, 1);
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise the nanoseconds until one is
+     * available
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long start = Math.max(current, nowNanos);
+            long next = start + intervalNanos;
+            long wait = next - nowNanos - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return whether the bucket is full, i.e. has not been used for a while
+     */
+    public boolean isIdle(long nowNanos) {
+        return fullAt.get() <= nowNanos;
+    }
+}
@@ -0,0 +1,49 @@
+package org.cbioportal.session_service.mongo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+@Configuration
+public class MongoPoolConfig {
+
+    @Bean
+    public MongoPoolMonitor mongoPoolMonitor(MeterRegistry meterRegistry) {
+        return new MongoPoolMonitor(meterRegistry);
+    }
+
+    /**
+     * Applies the session.mongo.pool.* settings; unset values keep the
+     * driver defaults or the options of the connection string.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoPoolCustomizer(Environment environment,
+                                                                   MongoPoolMonitor mongoPoolMonitor) {
+        return builder -> builder.applyToConnectionPoolSettings(pool -> {
+            Integer maxSize = environment.getProperty("session.mongo.pool.max-size", Integer.class);
+            if (maxSize != null) {
+                pool.maxSize(maxSize);
+            }
+            Integer minSize = environment.getProperty("session.mongo.pool.min-size", Integer.class);
+            if (minSize != null) {
+                pool.minSize(minSize);
+            }
+            Long maxWaitMs = environment.getProperty("session.mongo.pool.max-wait-ms", Long.class);
+            if (maxWaitMs != null) {
+                pool.maxWaitTime(maxWaitMs, TimeUnit.MILLISECONDS);
+            }
+            Long maxIdleMs = environment.getProperty("session.mongo.pool.max-idle-ms", Long.class);
+            if (maxIdleMs != null) {
+                pool.maxConnectionIdleTime(maxIdleMs, TimeUnit.MILLISECONDS);
+            }
+            Integer maxConnecting = environment.getProperty("session.mongo.pool.max-connecting", Integer.class);
+            if (maxConnecting != null) {
+                pool.maxConnecting(maxConnecting);
+            }
+            pool.addConnectionPoolListener(mongoPoolMonitor);
+        });
+    }
+}
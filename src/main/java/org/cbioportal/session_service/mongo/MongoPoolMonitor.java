@@ -0,0 +1,57 @@
+package org.cbioportal.session_service.mongo;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks how many threads wait for a pooled MongoDB connection and how long
+ * they wait. The pool size and usage gauges are published by Spring Boot's
+ * own MongoDB metrics.
+ */
+public class MongoPoolMonitor implements ConnectionPoolListener {
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Timer waitTime;
+    private final Timer failedWaitTime;
+
+    public MongoPoolMonitor(MeterRegistry meterRegistry) {
+        Gauge.builder("session.mongo.pool.waiting", waiting, AtomicInteger::get)
+            .description("threads waiting for a connection")
+            .register(meterRegistry);
+        waitTime = Timer.builder("session.mongo.pool.wait")
+            .tag("outcome", "success")
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+        failedWaitTime = Timer.builder("session.mongo.pool.wait")
+            .tag("outcome", "failed")
+            .register(meterRegistry);
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waiting.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        waiting.decrementAndGet();
+        waitTime.record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waiting.decrementAndGet();
+        failedWaitTime.record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,190 @@
+package org.cbioportal.session_service.mongo;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Filters;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shard keys of the session collections on a sharded cluster, configured per
+ * type with session.sharding.key.&lt;type&gt; or session.sharding.key.default:
+ * <pre>
+ * hashed-id         { _id: "hashed" }, spreads inserts evenly (default)
+ * source-id         { source: 1, _id: 1 }, keeps the sessions of a source together
+ * source-hashed-id  { source: 1, _id: "hashed" }, both
+ * source            { source: 1 }, keeps the unique checksum index
+ * </pre>
+ * MongoDB only enforces unique indexes that start with the shard key, so with
+ * any key but source duplicate sessions are detected by a lookup before the
+ * insert instead of the unique (source, type, checksum) index.
+ *
+ * At startup the configured keys are compared to the cluster, and the query
+ * paths that would be sent to every shard are logged. Collections created
+ * later, such as new partitions, are sharded when they are created.
+ */
+@Component
+public class SessionSharding {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSharding.class);
+
+    public enum ShardKey {
+        HASHED_ID(new Document("_id", "hashed")),
+        SOURCE_ID(new Document("source", 1).append("_id", 1)),
+        SOURCE_HASHED_ID(new Document("source", 1).append("_id", "hashed")),
+        SOURCE(new Document("source", 1));
+
+        private final Document key;
+
+        ShardKey(Document key) {
+            this.key = key;
+        }
+
+        public Document getKey() {
+            return key;
+        }
+
+        static ShardKey parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // fields of the equality matches of the query paths of the service
+    private static final Map<String, List<String>> QUERY_PATHS = new LinkedHashMap<>();
+    static {
+        QUERY_PATHS.put("reads, updates and deletes by id", List.of("source", "_id"));
+        QUERY_PATHS.put("duplicate checks by checksum", List.of("source", "checksum"));
+        QUERY_PATHS.put("lists, queries, searches and counts", List.of("source"));
+        QUERY_PATHS.put("statistics over all sources", List.of());
+    }
+
+    @Value("${session.sharding.enabled:false}")
+    private boolean enabled;
+
+    // run shardCollection for collections that are not sharded yet
+    @Value("${session.sharding.shard-collections:false}")
+    private boolean shardCollections;
+
+    // random instead of ObjectId ids, which increase over time and so
+    // concentrate inserts on one chunk with a ranged key on _id
+    @Value("${session.sharding.random-ids:false}")
+    private boolean randomIds;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoClient mongoClient;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public ShardKey getShardKey(SessionType type) {
+        return ShardKey.parse(environment.getProperty("session.sharding.key." + type.name(),
+            environment.getProperty("session.sharding.key.default", "hashed-id")));
+    }
+
+    /**
+     * @return whether the unique (source, type, checksum) index can be kept
+     */
+    public boolean isChecksumUnique(SessionType type) {
+        return !enabled || getShardKey(type) == ShardKey.SOURCE;
+    }
+
+    /**
+     * @return an id for a new session, null to let MongoDB generate an ObjectId
+     */
+    public String newId() {
+        // 32 hex digits, never mistaken for an ObjectId
+        return enabled && randomIds ? UUID.randomUUID().toString().replace("-", "") : null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void check() {
+        if (!enabled) {
+            return;
+        }
+        String database = mongoTemplate.getDb().getName();
+        for (SessionType type : SessionType.values()) {
+            ShardKey shardKey = getShardKey(type);
+            List<String> collections = sessionCollections.collections(type);
+            if (collections.isEmpty() && !sessionCollections.isPartitioned()) {
+                collections = List.of(type.name());
+            }
+            for (String collection : collections) {
+                String namespace = database + "." + collection;
+                Document sharded = mongoClient.getDatabase("config").getCollection("collections")
+                    .find(Filters.eq("_id", namespace)).first();
+                if (sharded != null && !Boolean.TRUE.equals(sharded.getBoolean("dropped"))) {
+                    if (!shardKey.getKey().equals(sharded.get("key", Document.class))) {
+                        LOG.warn(namespace + " is sharded on " + sharded.get("key", Document.class).toJson()
+                            + ", not on the configured " + shardKey.getKey().toJson());
+                    }
+                } else if (shardCollections) {
+                    shardCollection(namespace, shardKey);
+                } else {
+                    LOG.warn(namespace + " is not sharded, session.sharding.key." + type.name() + " is not applied");
+                }
+            }
+            List<String> scatterGather = new ArrayList<>();
+            String firstKeyField = shardKey.getKey().keySet().iterator().next();
+            for (Map.Entry<String, List<String>> path : QUERY_PATHS.entrySet()) {
+                // a query is routed to some shards only if it matches on a prefix of the key
+                if (!path.getValue().contains(firstKeyField)) {
+                    scatterGather.add(path.getKey());
+                }
+            }
+            if (!scatterGather.isEmpty()) {
+                LOG.warn("With shard key " + shardKey.getKey().toJson() + ", " + String.join(", ", scatterGather)
+                    + " of " + type + " sessions are sent to all shards");
+            }
+            if (!isChecksumUnique(type)) {
+                LOG.warn("The checksum of " + type + " sessions is not unique with shard key "
+                    + shardKey.getKey().toJson() + ", identical sessions saved concurrently may both be stored");
+            }
+        }
+    }
+
+    /**
+     * Shards a session collection created by the repository, if configured to.
+     */
+    public void onCollectionCreated(String collection, SessionType type) {
+        if (enabled && shardCollections) {
+            shardCollection(mongoTemplate.getDb().getName() + "." + collection, getShardKey(type));
+        }
+    }
+
+    private void shardCollection(String namespace, ShardKey shardKey) {
+        try {
+            mongoClient.getDatabase("admin").runCommand(new Document("shardCollection", namespace)
+                .append("key", shardKey.getKey()));
+            LOG.info("Sharded " + namespace + " on " + shardKey.getKey().toJson());
+        } catch (MongoCommandException e) {
+            // e.g. an existing unique index that does not start with the key
+            LOG.error("Could not shard " + namespace + " on " + shardKey.getKey().toJson() + ": "
+                + e.getErrorMessage());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.cbioportal.session_service.query;
+
+/**
+ * Number of sessions sharing one value of a grouped field.
+ */
+public class GroupCount {
+    private final Object value;
+    private final long count;
+
+    public GroupCount(Object value, long count) {
+        this.value = value;
+        this.count = count;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
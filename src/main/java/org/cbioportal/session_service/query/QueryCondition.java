@@ -0,0 +1,43 @@
+package org.cbioportal.session_service.query;
+
+/**
+ * One condition of a structured query, e.g.
+ * {"field": "data.users", "op": "contains", "value": "user@example.org"}.
+ */
+public class QueryCondition {
+    private String field;
+    private QueryOperator op;
+    private Object value;
+
+    public QueryCondition() {}
+
+    public QueryCondition(String field, QueryOperator op, Object value) {
+        this.field = field;
+        this.op = op;
+        this.value = value;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public QueryOperator getOp() {
+        return op;
+    }
+
+    public void setOp(QueryOperator op) {
+        this.op = op;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(Object value) {
+        this.value = value;
+    }
+}
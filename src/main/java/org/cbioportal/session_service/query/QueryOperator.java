@@ -0,0 +1,38 @@
+package org.cbioportal.session_service.query;
+
+import java.util.Collection;
+import java.util.function.BiFunction;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Operators of the structured query API and how each one is applied to the
+ * {@link Criteria} of its field.
+ */
+public enum QueryOperator {
+    eq((criteria, value) -> criteria.is(value)),
+    ne((criteria, value) -> criteria.ne(value)),
+    in((criteria, value) -> criteria.in((Collection<?>) value)),
+    nin((criteria, value) -> criteria.nin((Collection<?>) value)),
+    gt((criteria, value) -> criteria.gt(value)),
+    gte((criteria, value) -> criteria.gte(value)),
+    lt((criteria, value) -> criteria.lt(value)),
+    lte((criteria, value) -> criteria.lte(value)),
+    // array field contains the value, or every value of a list
+    contains((criteria, value) -> value instanceof Collection
+        ? criteria.all((Collection<?>) value) : criteria.all(value)),
+    exists((criteria, value) -> criteria.exists((Boolean) value));
+
+    private final BiFunction<Criteria, Object, Criteria> applier;
+
+    QueryOperator(BiFunction<Criteria, Object, Criteria> applier) {
+        this.applier = applier;
+    }
+
+    Criteria apply(Criteria criteria, Object value) {
+        return applier.apply(criteria, value);
+    }
+
+    boolean requiresList() {
+        return this == in || this == nin;
+    }
+}
@@ -0,0 +1,140 @@
+package org.cbioportal.session_service.query;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.AggregateIterable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cardinality questions answered with aggregation pipelines inside MongoDB,
+ * so no session bodies are transferred. Pipelines run with the time limit of
+ * the {@link SessionQueryGuard}.
+ */
+@Component
+public class SessionAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionAggregator.class);
+
+    @Value("${session.aggregate.max-groups:1000}")
+    private int maxGroups;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    @Autowired
+    private SessionQueryGuard sessionQueryGuard;
+
+    // $bsonSize needs MongoDB 4.4, switched off after the first failure
+    private volatile boolean payloadSizeSupported = true;
+
+    /**
+     * Counts the sessions of a source and type per value of a field, most
+     * frequent first.
+     */
+    public List<GroupCount> countByField(String source, SessionType type, String field)
+        throws SessionQueryInvalidException {
+        if (field == null || field.isEmpty() || field.startsWith("$") || field.indexOf('\0') >= 0) {
+            throw new SessionQueryInvalidException("invalid field name: " + field);
+        }
+        List<Document> pipeline = List.of(
+            new Document("$match", new Document("source", source).append("type", type.name())),
+            new Document("$group", new Document("_id", "$" + field).append("count", new Document("$sum", 1))),
+            new Document("$sort", new Document("count", -1).append("_id", 1)),
+            new Document("$limit", maxGroups));
+        List<GroupCount> groups = new ArrayList<>();
+        for (Document group : aggregate(sessionCollections.collection(type, source), pipeline)) {
+            groups.add(new GroupCount(group.get("_id"), ((Number) group.get("count")).longValue()));
+        }
+        return groups;
+    }
+
+    /**
+     * @param source the source to report on, or null for every source
+     */
+    public List<SessionStats> stats(String source) {
+        List<SessionStats> stats = new ArrayList<>();
+        for (SessionType type : SessionType.values()) {
+            // the sources of a type are spread over several collections with partitioning
+            Map<String, SessionStats> bySource = new TreeMap<>();
+            for (String collection : sessionCollections.collections(type)) {
+                if (source != null && sessionCollections.isPartitioned()
+                    && !collection.equals(sessionCollections.collection(type, source))
+                    && !collection.equals(sessionCollections.sharedCollection(type))) {
+                    continue;
+                }
+                for (SessionStats row : stats(source, type, collection)) {
+                    bySource.merge(row.getSource(), row, SessionAggregator::add);
+                }
+            }
+            stats.addAll(bySource.values());
+        }
+        return stats;
+    }
+
+    private static SessionStats add(SessionStats a, SessionStats b) {
+        return new SessionStats(a.getSource(), a.getType(), a.getCount() + b.getCount(),
+            a.getTotalBytes() == null || b.getTotalBytes() == null ? null : a.getTotalBytes() + b.getTotalBytes());
+    }
+
+    private List<SessionStats> stats(String source, SessionType type, String collection) {
+        if (payloadSizeSupported) {
+            try {
+                return runStats(source, type, collection, true);
+            } catch (MongoCommandException e) {
+                LOG.warn("Session sizes are not available, $bsonSize needs MongoDB 4.4: " + e.getMessage());
+                payloadSizeSupported = false;
+            }
+        }
+        return runStats(source, type, collection, false);
+    }
+
+    private List<Document> aggregate(String collection, List<Document> pipeline) {
+        AggregateIterable<Document> result = mongoTemplate.getCollection(collection).aggregate(pipeline);
+        if (sessionQueryGuard.getMaxTimeMs() > 0) {
+            result = result.maxTime(sessionQueryGuard.getMaxTimeMs(), TimeUnit.MILLISECONDS);
+        }
+        try {
+            return result.into(new ArrayList<>());
+        } catch (MongoExecutionTimeoutException e) {
+            throw sessionQueryGuard.timedOut();
+        }
+    }
+
+    private List<SessionStats> runStats(String source, SessionType type, String collection,
+                                        boolean withPayloadSize) {
+        List<Document> pipeline = new ArrayList<>();
+        if (source != null) {
+            pipeline.add(new Document("$match", new Document("source", source)));
+        }
+        Document group = new Document("_id", "$source").append("count", new Document("$sum", 1));
+        if (withPayloadSize) {
+            group.append("totalBytes", new Document("$sum", new Document("$bsonSize", "$$ROOT")));
+        }
+        pipeline.add(new Document("$group", group));
+        pipeline.add(new Document("$sort", new Document("_id", 1)));
+        List<SessionStats> stats = new ArrayList<>();
+        for (Document row : aggregate(collection, pipeline)) {
+            Number totalBytes = (Number) row.get("totalBytes");
+            stats.add(new SessionStats(row.getString("_id"), type, ((Number) row.get("count")).longValue(),
+                totalBytes == null ? null : totalBytes.longValue()));
+        }
+        return stats;
+    }
+}
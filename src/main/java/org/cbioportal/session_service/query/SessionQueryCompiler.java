@@ -0,0 +1,149 @@
+package org.cbioportal.session_service.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compiles structured queries into {@link Criteria}. Validation and grouping
+ * of the conditions depend only on the query shape (the sorted field and
+ * operator pairs), so they are done once per shape and the resulting
+ * template only binds the values of later queries with the same shape.
+ */
+@Component
+public class SessionQueryCompiler {
+
+    private static final int MAX_TEMPLATES = 1000;
+    private static final Comparator<QueryCondition> SHAPE_ORDER =
+        Comparator.comparing(QueryCondition::getField).thenComparing(QueryCondition::getOp);
+
+    // compared element by element, field names may contain any character
+    private record Shape(String field, QueryOperator op) {}
+
+    private final Map<List<Shape>, QueryTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @throws SessionQueryInvalidException if a field or operator is invalid
+     */
+    public Query compile(List<QueryCondition> conditions) throws SessionQueryInvalidException {
+        if (conditions == null || conditions.isEmpty()) {
+            throw new SessionQueryInvalidException("at least one condition is required");
+        }
+        List<QueryCondition> sorted = new ArrayList<>(conditions);
+        for (QueryCondition condition : sorted) {
+            if (condition == null || condition.getField() == null || condition.getOp() == null) {
+                throw new SessionQueryInvalidException("conditions need a field and an op");
+            }
+        }
+        sorted.sort(SHAPE_ORDER);
+        List<Shape> shape = sorted.stream()
+            .map(c -> new Shape(c.getField(), c.getOp()))
+            .toList();
+        QueryTemplate template = templates.get(shape);
+        if (template == null) {
+            template = new QueryTemplate(sorted);
+            if (templates.size() >= MAX_TEMPLATES) {
+                templates.clear();
+            }
+            templates.put(shape, template);
+        }
+        List<Object> values = new ArrayList<>(sorted.size());
+        for (QueryCondition condition : sorted) {
+            values.add(checkValue(condition.getOp(), condition.getValue()));
+        }
+        return template.bind(values);
+    }
+
+    private Object checkValue(QueryOperator op, Object value) {
+        if (op.requiresList() && !(value instanceof List)) {
+            throw new SessionQueryInvalidException(op + " requires a list value");
+        }
+        if (op == QueryOperator.exists && !(value instanceof Boolean)) {
+            throw new SessionQueryInvalidException("exists requires true or false");
+        }
+        return toBson(value);
+    }
+
+    // maps become documents at any depth, including inside lists, and must
+    // not contain operators
+    private Object toBson(Object value) {
+        if (value instanceof Map) {
+            Document document = new Document();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String key = entry.getKey().toString();
+                if (key.startsWith("$")) {
+                    throw new SessionQueryInvalidException("values must not contain operators");
+                }
+                document.append(key, toBson(entry.getValue()));
+            }
+            return document;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                list.add(toBson(element));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static void checkField(String field) {
+        if (field.isEmpty() || field.startsWith("$") || field.indexOf('\0') >= 0) {
+            throw new SessionQueryInvalidException("invalid field name: " + field);
+        }
+        // the source is given by the path and added to every query
+        if (field.equals("source")) {
+            throw new SessionQueryInvalidException("source cannot be queried");
+        }
+    }
+
+    /**
+     * Validated conditions of one shape, grouped by field.
+     */
+    private static final class QueryTemplate {
+        private final List<String> fields = new ArrayList<>();
+        private final List<List<QueryOperator>> operators = new ArrayList<>();
+
+        private QueryTemplate(List<QueryCondition> sortedConditions) {
+            for (QueryCondition condition : sortedConditions) {
+                String field = condition.getField();
+                checkField(field);
+                int last = fields.size() - 1;
+                if (last < 0 || !fields.get(last).equals(field)) {
+                    fields.add(field);
+                    operators.add(new ArrayList<>());
+                    last++;
+                }
+                List<QueryOperator> fieldOperators = operators.get(last);
+                if (fieldOperators.contains(condition.getOp())) {
+                    throw new SessionQueryInvalidException("duplicate " + condition.getOp() + " on " + field);
+                }
+                fieldOperators.add(condition.getOp());
+                if (fieldOperators.size() > 1 && fieldOperators.contains(QueryOperator.eq)) {
+                    throw new SessionQueryInvalidException("eq cannot be combined with other operators on " + field);
+                }
+            }
+        }
+
+        private Query bind(List<Object> values) {
+            Query query = new Query();
+            int next = 0;
+            for (int i = 0; i < fields.size(); i++) {
+                Criteria criteria = Criteria.where(fields.get(i));
+                for (QueryOperator op : operators.get(i)) {
+                    criteria = op.apply(criteria, values.get(next++));
+                }
+                query.addCriteria(criteria);
+            }
+            return query;
+        }
+    }
+}
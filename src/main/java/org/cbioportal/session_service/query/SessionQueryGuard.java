@@ -0,0 +1,268 @@
+package org.cbioportal.session_service.query;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Governs client supplied Mongo filters: only allow-listed operators are
+ * accepted, every query runs with a server side time limit and a result cap,
+ * and query shapes that MongoDB would answer with a collection scan can be
+ * rejected or limited further. A query that is not paged and matches more
+ * sessions than its cap is rejected rather than truncated.
+ */
+@Component
+public class SessionQueryGuard {
+
+    public enum CollectionScanPolicy { ALLOW, DOWNGRADE, REJECT }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionQueryGuard.class);
+    private static final int MAX_CACHED_PLANS = 1000;
+
+    @Value("${session.query.allowed-operators:$eq,$ne,$gt,$gte,$lt,$lte,$in,$nin,$exists,$type,$and,$or,$nor,$elemMatch,$all,$size}")
+    private String allowedOperators;
+
+    @Value("${session.query.max-time-ms:30000}")
+    private long maxTimeMs;
+
+    @Value("${session.query.max-results:10000}")
+    private int maxResults;
+
+    @Value("${session.query.collection-scan-policy:downgrade}")
+    private String collectionScanPolicy;
+
+    @Value("${session.query.collection-scan.max-time-ms:2000}")
+    private long collectionScanMaxTimeMs;
+
+    @Value("${session.query.collection-scan.max-results:100}")
+    private int collectionScanMaxResults;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // query shape -> whether the winning plan scans the whole collection
+    private final Map<String, Boolean> collectionScans = new ConcurrentHashMap<>();
+
+    /**
+     * Parses and validates the filter and applies the time limit, the result
+     * cap and the requested page.
+     * @param page zero based page number
+     * @param pageSize page size, 0 or anything above the cap means the cap
+     * @throws SessionQueryInvalidException if the filter is not acceptable
+     */
+    public Query buildQuery(String filter, int page, int pageSize) throws SessionQueryInvalidException {
+        Document filterObject = Document.parse(filter);
+        Set<String> allowed = Arrays.stream(allowedOperators.split(","))
+            .map(String::trim)
+            .collect(Collectors.toSet());
+        validate(filterObject, allowed);
+        return applyLimits(new BasicQuery(filterObject), page, pageSize);
+    }
+
+    /**
+     * Applies the time limit, the result cap and the requested page to an
+     * already validated query. Pages larger than the cap are clamped to it;
+     * queries that are not paged read one session past the cap, so
+     * {@link #checkResults(int, int)} can tell whether it was hit.
+     */
+    public Query applyLimits(Query query, int page, int pageSize) throws SessionQueryInvalidException {
+        if (page < 0 || pageSize < 0) {
+            reject("page", "page and pageSize must not be negative");
+        }
+        int limit = maxResults > 0 && (pageSize == 0 || pageSize > maxResults) ? maxResults : pageSize;
+        query.with(Sort.by("_id"));
+        if (limit > 0) {
+            query.limit(pageSize > 0 ? limit : limit + 1);
+            query.skip((long) page * limit);
+        }
+        if (maxTimeMs > 0) {
+            query.maxTimeMsec(maxTimeMs);
+        }
+        return query;
+    }
+
+    /**
+     * Applies the time limit alone, to queries that are counted or
+     * aggregated.
+     */
+    public Query applyTimeLimit(Query query) {
+        if (maxTimeMs > 0) {
+            query.maxTimeMsec(maxTimeMs);
+        }
+        return query;
+    }
+
+    /**
+     * @return the time limit of queries and aggregations in milliseconds, 0
+     * for none
+     */
+    public long getMaxTimeMs() {
+        return maxTimeMs;
+    }
+
+    /**
+     * Consults the query planner (once per query shape) and applies the
+     * configured collection scan policy. Downgraded pages are clamped to the
+     * collection scan cap and their offset follows the clamped page size.
+     * @return the number of sessions the query may return
+     */
+    public int checkPlan(String collection, String source, Query query) throws SessionQueryInvalidException {
+        CollectionScanPolicy policy = CollectionScanPolicy.valueOf(collectionScanPolicy.toUpperCase());
+        if (policy == CollectionScanPolicy.ALLOW) {
+            return maxResults;
+        }
+        Document filter = new Document(query.getQueryObject()).append("source", source);
+        String shape = collection + ":" + shape(filter);
+        Boolean collectionScan = collectionScans.get(shape);
+        if (collectionScan == null) {
+            collectionScan = explainIsCollectionScan(collection, filter);
+            if (collectionScans.size() >= MAX_CACHED_PLANS) {
+                collectionScans.clear();
+            }
+            collectionScans.put(shape, collectionScan);
+        }
+        if (!collectionScan) {
+            return maxResults;
+        }
+        if (policy == CollectionScanPolicy.REJECT) {
+            reject("collection_scan", "query would scan the whole " + collection + " collection");
+        }
+        meterRegistry.counter("session.query.downgraded").increment();
+        query.maxTimeMsec(collectionScanMaxTimeMs);
+        if (isPaged(query)) {
+            if (query.getLimit() > collectionScanMaxResults) {
+                long page = query.getSkip() / query.getLimit();
+                query.limit(collectionScanMaxResults);
+                query.skip(page * collectionScanMaxResults);
+            }
+            return collectionScanMaxResults;
+        }
+        int cap = maxResults > 0 ? Math.min(maxResults, collectionScanMaxResults) : collectionScanMaxResults;
+        query.limit(cap + 1);
+        return cap;
+    }
+
+    // pages are limited to the page size, at most the cap, while queries that
+    // are not paged read one past the cap or have no limit
+    private boolean isPaged(Query query) {
+        return query.getLimit() > 0 && (maxResults == 0 || query.getLimit() <= maxResults);
+    }
+
+    /**
+     * Rejects the results of a query that hit its cap, instead of returning
+     * them truncated.
+     * @param cap the cap returned by {@link #checkPlan}, 0 for none
+     */
+    public void checkResults(int count, int cap) throws SessionQueryInvalidException {
+        if (cap > 0 && count > cap) {
+            reject("max_results", "query matches more than " + cap
+                + " sessions, request them in pages with page and pageSize");
+        }
+    }
+
+    /**
+     * @return the number of sessions a query may return, 0 for no limit
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Records a query that MongoDB aborted because it ran past the time limit.
+     */
+    public SessionQueryInvalidException timedOut() {
+        meterRegistry.counter("session.query.rejected", "reason", "timeout").increment();
+        return new SessionQueryInvalidException("query exceeded the time limit of " + maxTimeMs + "ms");
+    }
+
+    private void validate(Object value, Set<String> allowed) {
+        if (value instanceof Document) {
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                String key = entry.getKey();
+                if (key.indexOf('\0') >= 0) {
+                    reject("field", "field names must not contain the null character");
+                }
+                if (key.startsWith("$") && !allowed.contains(key)) {
+                    reject("operator", "operator " + key + " is not allowed");
+                }
+                validate(entry.getValue(), allowed);
+            }
+        } else if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                validate(element, allowed);
+            }
+        }
+    }
+
+    private boolean explainIsCollectionScan(String collection, Document filter) {
+        try {
+            Document explain = mongoTemplate.getDb().runCommand(
+                new Document("explain", new Document("find", collection).append("filter", filter))
+                    .append("verbosity", "queryPlanner"));
+            Document planner = explain.get("queryPlanner", Document.class);
+            return planner != null && containsStage(planner.get("winningPlan"), "COLLSCAN");
+        } catch (RuntimeException e) {
+            LOG.warn("Could not explain query on " + collection + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean containsStage(Object plan, String stage) {
+        if (plan instanceof Document) {
+            Document document = (Document) plan;
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            for (Object child : document.values()) {
+                if (containsStage(child, stage)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof List) {
+            for (Object child : (List<?>) plan) {
+                if (containsStage(child, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // the filter with every value replaced by its type, e.g. {"data.users":"String"}
+    private String shape(Object value) {
+        if (value instanceof Document) {
+            return ((Document) value).entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> e.getKey() + ":" + shape(e.getValue()))
+                .collect(Collectors.joining(",", "{", "}"));
+        }
+        if (value instanceof List) {
+            return ((List<?>) value).stream().map(this::shape).distinct().sorted()
+                .collect(Collectors.joining(",", "[", "]"));
+        }
+        return value == null ? "null" : value.getClass().getSimpleName();
+    }
+
+    private void reject(String reason, String message) {
+        meterRegistry.counter("session.query.rejected", "reason", reason).increment();
+        throw new SessionQueryInvalidException(message);
+    }
+}
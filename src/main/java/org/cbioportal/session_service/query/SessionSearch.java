@@ -0,0 +1,133 @@
+package org.cbioportal.session_service.query;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition.TextIndexDefinitionBuilder;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.stereotype.Component;
+
+/**
+ * Full text search over the text fields of each session type, backed by a
+ * MongoDB text index that is kept up to date by MongoDB itself. Results are
+ * ranked by text score.
+ *
+ * A collection has at most one text index, an existing one over different
+ * fields is replaced.
+ */
+@Component
+public class SessionSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSearch.class);
+    private static final String INDEX_NAME = "session_search";
+
+    @Value("${session.search.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.search.fields:data.name,data.description}")
+    private String defaultFields;
+
+    @Value("${session.search.language:english}")
+    private String language;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    private final Set<String> indexed = ConcurrentHashMap.newKeySet();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        for (SessionType type : SessionType.values()) {
+            for (String collection : sessionCollections.collections(type)) {
+                ensureIndex(type, collection);
+            }
+        }
+    }
+
+    /**
+     * @throws SessionQueryInvalidException if search is disabled or the text
+     * is empty
+     */
+    public Query buildQuery(String source, SessionType type, String text) throws SessionQueryInvalidException {
+        if (!enabled) {
+            throw new SessionQueryInvalidException("search is not enabled");
+        }
+        if (text == null || text.isBlank()) {
+            throw new SessionQueryInvalidException("search text must not be empty");
+        }
+        // the repository creates missing collections along with their unique index
+        String collection = sessionCollections.collection(type, source);
+        if (!indexed.contains(collection) && mongoTemplate.collectionExists(collection)) {
+            ensureIndex(type, collection);
+        }
+        String shared = sessionCollections.sharedCollection(type);
+        if (sessionCollections.isFallback() && !indexed.contains(shared) && mongoTemplate.collectionExists(shared)) {
+            ensureIndex(type, shared);
+        }
+        return TextQuery.queryText(TextCriteria.forLanguage(language).matching(text)).sortByScore();
+    }
+
+    private void ensureIndex(SessionType type, String collection) {
+        if (indexed.contains(collection)) {
+            return;
+        }
+        List<String> fields = fields(type);
+        for (IndexInfo index : mongoTemplate.indexOps(collection).getIndexInfo()) {
+            if (index.getIndexFields().stream().noneMatch(IndexField::isText)) {
+                continue;
+            }
+            List<String> indexedFields = index.getIndexFields().stream()
+                .map(IndexField::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+            if (INDEX_NAME.equals(index.getName()) && indexedFields.equals(fields.stream().sorted().collect(Collectors.toList()))) {
+                indexed.add(collection);
+                return;
+            }
+            LOG.info("Replacing text index " + index.getName() + " of " + collection);
+            mongoTemplate.indexOps(collection).dropIndex(index.getName());
+        }
+        TextIndexDefinitionBuilder definition = new TextIndexDefinitionBuilder()
+            .named(INDEX_NAME)
+            .withDefaultLanguage(language);
+        for (String field : fields) {
+            definition.onField(field);
+        }
+        mongoTemplate.indexOps(collection).createIndex(definition.build());
+        indexed.add(collection);
+    }
+
+    private List<String> fields(SessionType type) {
+        return Arrays.stream(environment.getProperty("session.search.fields." + type.name(), defaultFields)
+                .split(","))
+            .map(String::trim)
+            .filter(field -> !field.isEmpty())
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,40 @@
+package org.cbioportal.session_service.query;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import org.cbioportal.session_service.domain.SessionType;
+
+/**
+ * Number of sessions and their total stored size for one source and type.
+ */
+@JsonInclude(Include.NON_NULL)
+public class SessionStats {
+    private final String source;
+    private final SessionType type;
+    private final long count;
+    // null when the server cannot compute document sizes (before MongoDB 4.4)
+    private final Long totalBytes;
+
+    public SessionStats(String source, SessionType type, long count, Long totalBytes) {
+        this.source = source;
+        this.type = type;
+        this.count = count;
+        this.totalBytes = totalBytes;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public SessionType getType() {
+        return type;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Long getTotalBytes() {
+        return totalBytes;
+    }
+}
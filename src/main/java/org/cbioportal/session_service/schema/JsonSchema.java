@@ -0,0 +1,386 @@
+package org.cbioportal.session_service.schema;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A JSON Schema compiled into a tree of checks that validates documents in a
+ * single pass over the parser tokens, without building the document.
+ *
+ * Supported keywords are type, properties, required, additionalProperties,
+ * items, enum (of scalar values), minLength, maxLength, pattern, minimum,
+ * maximum, minItems and maxItems. Any other keyword except annotations such
+ * as title or description is rejected when the schema is compiled, so a
+ * schema is never silently checked less strictly than it reads.
+ */
+public final class JsonSchema {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final Set<String> ANNOTATIONS = Set.of("$schema", "$id", "$comment", "title", "description",
+        "default", "examples");
+
+    // errors reported per document, validation stops once they are reached
+    static final int MAX_ERRORS = 10;
+
+    private static final int OBJECT = 1, ARRAY = 2, STRING = 4, INTEGER = 8, NUMBER = 16, BOOLEAN = 32, NULL = 64;
+    private static final int ANY = OBJECT | ARRAY | STRING | INTEGER | NUMBER | BOOLEAN | NULL;
+    private static final String[] TYPE_NAMES = {"object", "array", "string", "integer", "number", "boolean", "null"};
+
+    // stands for null in enums, which cannot hold null itself
+    private static final Object NULL_VALUE = new Object() {
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    private int types = ANY;
+    private Map<String, JsonSchema> properties;
+    // property name to its bit in the set of required properties seen
+    private Map<String, Integer> required;
+    private boolean additionalAllowed = true;
+    private JsonSchema additionalProperties;
+    private JsonSchema items;
+    private Set<Object> enumValues;
+    private int minLength = -1;
+    private int maxLength = -1;
+    private Pattern pattern;
+    private BigDecimal minimum;
+    private BigDecimal maximum;
+    private int minItems = -1;
+    private int maxItems = -1;
+
+    private JsonSchema() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the schema uses a keyword that is
+     * not supported or is malformed
+     */
+    public static JsonSchema compile(JsonNode schema) {
+        return compile(schema, "");
+    }
+
+    private static JsonSchema compile(JsonNode node, String path) {
+        JsonSchema schema = new JsonSchema();
+        if (node.isBoolean()) {
+            if (!node.booleanValue()) {
+                schema.types = 0;
+            }
+            return schema;
+        }
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("schema at '" + path + "' is not an object");
+        }
+        for (Map.Entry<String, JsonNode> field : node.properties()) {
+            String keyword = field.getKey();
+            JsonNode value = field.getValue();
+            switch (keyword) {
+                case "type":
+                    schema.types = 0;
+                    if (value.isArray()) {
+                        value.forEach(type -> schema.types |= type(type.asText(), path));
+                    } else {
+                        schema.types = type(value.asText(), path);
+                    }
+                    break;
+                case "properties":
+                    schema.properties = new HashMap<>();
+                    value.properties().forEach(property -> schema.properties.put(property.getKey(),
+                        compile(property.getValue(), path + "/properties/" + property.getKey())));
+                    break;
+                case "required":
+                    if (value.size() > 64) {
+                        throw new IllegalArgumentException("more than 64 required properties at '" + path + "'");
+                    }
+                    schema.required = new HashMap<>();
+                    value.forEach(name -> schema.required.put(name.asText(), schema.required.size()));
+                    break;
+                case "additionalProperties":
+                    if (value.isBoolean()) {
+                        schema.additionalAllowed = value.booleanValue();
+                    } else {
+                        schema.additionalProperties = compile(value, path + "/additionalProperties");
+                    }
+                    break;
+                case "items":
+                    schema.items = compile(value, path + "/items");
+                    break;
+                case "enum":
+                    schema.enumValues = new LinkedHashSet<>();
+                    for (JsonNode option : value) {
+                        if (option.isContainerNode()) {
+                            throw new IllegalArgumentException("enum at '" + path + "' has a non scalar value");
+                        }
+                        schema.enumValues.add(option.isNumber() ? normalize(option.decimalValue())
+                            : option.isNull() ? NULL_VALUE : option.isBoolean() ? option.booleanValue()
+                            : option.asText());
+                    }
+                    break;
+                case "minLength":
+                    schema.minLength = value.intValue();
+                    break;
+                case "maxLength":
+                    schema.maxLength = value.intValue();
+                    break;
+                case "pattern":
+                    schema.pattern = Pattern.compile(value.asText());
+                    break;
+                case "minimum":
+                    schema.minimum = value.decimalValue();
+                    break;
+                case "maximum":
+                    schema.maximum = value.decimalValue();
+                    break;
+                case "minItems":
+                    schema.minItems = value.intValue();
+                    break;
+                case "maxItems":
+                    schema.maxItems = value.intValue();
+                    break;
+                default:
+                    if (!ANNOTATIONS.contains(keyword)) {
+                        throw new IllegalArgumentException("unsupported keyword '" + keyword + "' at '" + path + "'");
+                    }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * @return the violations of the schema as JSON pointers to the offending
+     * values followed by the reason, empty if the document is valid
+     */
+    public List<String> validate(String json) {
+        List<String> errors = new ArrayList<>(0);
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                errors.add(": is empty");
+                return errors;
+            }
+            validate(parser, token, errors);
+            if (errors.size() < MAX_ERRORS && parser.nextToken() != null) {
+                errors.add(": has content after the end of the document");
+            }
+        } catch (DocumentInvalid e) {
+            // stopped at the maximum number of errors
+        } catch (JsonProcessingException e) {
+            errors.add(pointer(e.getProcessor() instanceof JsonParser ? (JsonParser) e.getProcessor() : null)
+                + ": is not valid JSON, " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return errors;
+    }
+
+    private void validate(JsonParser parser, JsonToken token, List<String> errors) throws IOException {
+        int type = type(parser, token);
+        if ((types & type) == 0) {
+            error(parser, errors, "expected " + typeNames(types) + " but found "
+                + typeNames((type & INTEGER) != 0 ? INTEGER : type));
+            parser.skipChildren();
+            return;
+        }
+        switch (token) {
+            case START_OBJECT:
+                validateObject(parser, errors);
+                break;
+            case START_ARRAY:
+                validateArray(parser, errors);
+                break;
+            case VALUE_STRING:
+                validateString(parser, errors);
+                break;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                validateNumber(parser, errors);
+                break;
+            default:
+                if (enumValues != null && !enumValues.contains(token == JsonToken.VALUE_NULL ? NULL_VALUE
+                    : Boolean.valueOf(token == JsonToken.VALUE_TRUE))) {
+                    error(parser, errors, "is not one of " + enumValues);
+                }
+        }
+    }
+
+    private void validateObject(JsonParser parser, List<String> errors) throws IOException {
+        long seen = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (required != null) {
+                Integer bit = required.get(name);
+                if (bit != null) {
+                    seen |= 1L << bit;
+                }
+            }
+            JsonSchema property = properties == null ? null : properties.get(name);
+            if (property == null) {
+                if (!additionalAllowed) {
+                    error(parser, errors, "is not an allowed property");
+                    parser.skipChildren();
+                    continue;
+                }
+                property = additionalProperties;
+            }
+            if (property == null) {
+                parser.skipChildren();
+            } else {
+                property.validate(parser, value, errors);
+            }
+            if (errors.size() >= MAX_ERRORS) {
+                throw new DocumentInvalid();
+            }
+        }
+        if (required != null && Long.bitCount(seen) < required.size()) {
+            for (Map.Entry<String, Integer> property : required.entrySet()) {
+                if ((seen & 1L << property.getValue()) == 0) {
+                    // at the end of the object the parser points at the object itself
+                    error(parser, errors, "is missing the required property '" + property.getKey() + "'");
+                }
+            }
+        }
+    }
+
+    private void validateArray(JsonParser parser, List<String> errors) throws IOException {
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            size++;
+            if (items == null) {
+                parser.skipChildren();
+            } else {
+                items.validate(parser, token, errors);
+            }
+            if (errors.size() >= MAX_ERRORS) {
+                throw new DocumentInvalid();
+            }
+        }
+        if (minItems >= 0 && size < minItems) {
+            error(parser, errors, "has fewer than " + minItems + " items");
+        }
+        if (maxItems >= 0 && size > maxItems) {
+            error(parser, errors, "has more than " + maxItems + " items");
+        }
+    }
+
+    private void validateString(JsonParser parser, List<String> errors) throws IOException {
+        if (minLength < 0 && maxLength < 0 && pattern == null && enumValues == null) {
+            return;
+        }
+        String value = parser.getText();
+        int length = value.codePointCount(0, value.length());
+        if (minLength >= 0 && length < minLength) {
+            error(parser, errors, "is shorter than " + minLength + " characters");
+        }
+        if (maxLength >= 0 && length > maxLength) {
+            error(parser, errors, "is longer than " + maxLength + " characters");
+        }
+        if (pattern != null && !pattern.matcher(value).find()) {
+            error(parser, errors, "does not match " + pattern.pattern());
+        }
+        if (enumValues != null && !enumValues.contains(value)) {
+            error(parser, errors, "is not one of " + enumValues);
+        }
+    }
+
+    private void validateNumber(JsonParser parser, List<String> errors) throws IOException {
+        if (minimum == null && maximum == null && enumValues == null) {
+            return;
+        }
+        BigDecimal value = parser.getDecimalValue();
+        if (minimum != null && value.compareTo(minimum) < 0) {
+            error(parser, errors, "is less than " + minimum);
+        }
+        if (maximum != null && value.compareTo(maximum) > 0) {
+            error(parser, errors, "is greater than " + maximum);
+        }
+        if (enumValues != null && !enumValues.contains(normalize(value))) {
+            error(parser, errors, "is not one of " + enumValues);
+        }
+    }
+
+    private static int type(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return OBJECT;
+            case START_ARRAY:
+                return ARRAY;
+            case VALUE_STRING:
+                return STRING;
+            case VALUE_NUMBER_INT:
+                return INTEGER | NUMBER;
+            case VALUE_NUMBER_FLOAT:
+                // 1.0 is an integer as well
+                return parser.getDecimalValue().stripTrailingZeros().scale() <= 0 ? INTEGER | NUMBER : NUMBER;
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return BOOLEAN;
+            default:
+                return NULL;
+        }
+    }
+
+    private static int type(String name, String path) {
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(name)) {
+                return 1 << i;
+            }
+        }
+        throw new IllegalArgumentException("unknown type '" + name + "' at '" + path + "'");
+    }
+
+    private static String typeNames(int types) {
+        if (types == 0) {
+            return "nothing";
+        }
+        if ((types & (INTEGER | NUMBER)) == (INTEGER | NUMBER)) {
+            types &= ~INTEGER;
+        }
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if ((types & 1 << i) != 0) {
+                names.add(TYPE_NAMES[i]);
+            }
+        }
+        return String.join(" or ", names);
+    }
+
+    private static void error(JsonParser parser, List<String> errors, String message) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(pointer(parser) + ": " + message);
+        }
+    }
+
+    private static String pointer(JsonParser parser) {
+        return parser == null ? "" : parser.getParsingContext().pathAsPointer().toString();
+    }
+
+    private static BigDecimal normalize(BigDecimal value) {
+        return value.stripTrailingZeros();
+    }
+
+    // unwinds the validation once enough errors were found
+    private static final class DocumentInvalid extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DocumentInvalid() {
+            super(null, null, false, false);
+        }
+    }
+}
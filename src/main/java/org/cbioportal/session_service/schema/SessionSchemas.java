@@ -0,0 +1,68 @@
+package org.cbioportal.session_service.schema;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.cbioportal.session_service.domain.SessionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+/**
+ * Optional JSON schemas for session data, read from
+ * &lt;location&gt;&lt;type&gt;.json and compiled once at startup. Types without
+ * a schema file are not checked.
+ */
+@Component
+public class SessionSchemas {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSchemas.class);
+
+    // empty to turn schema validation off
+    @Value("${session.validation.schema-location:classpath:schemas/}")
+    private String location;
+
+    @Autowired
+    private ResourceLoader resourceLoader;
+
+    private final Map<SessionType, JsonSchema> schemas = new EnumMap<>(SessionType.class);
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (location.isBlank()) {
+            return;
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        for (SessionType type : SessionType.values()) {
+            Resource resource = resourceLoader.getResource(location + type.name() + ".json");
+            if (!resource.exists()) {
+                continue;
+            }
+            try (InputStream in = resource.getInputStream()) {
+                schemas.put(type, JsonSchema.compile(mapper.readTree(in)));
+            } catch (IllegalArgumentException e) {
+                // fail at startup rather than accept data the schema is meant to reject
+                throw new IllegalStateException("Invalid JSON schema " + resource + ": " + e.getMessage(), e);
+            }
+            LOG.info("Validating " + type + " sessions against " + resource);
+        }
+    }
+
+    /**
+     * @return the violations of the schema of the type, empty if the data is
+     * valid or the type has no schema
+     */
+    public List<String> validate(SessionType type, String data) {
+        JsonSchema schema = schemas.get(type);
+        return schema == null ? Collections.emptyList() : schema.validate(data);
+    }
+}
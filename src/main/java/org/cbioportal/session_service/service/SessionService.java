@@ -32,8 +32,14 @@
 
 package org.cbioportal.session_service.service;
 
+import org.bson.Document;
 import org.cbioportal.session_service.domain.Session;
 import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.history.SessionVersion;
+import org.cbioportal.session_service.index.UserSessionEntry;
+import org.cbioportal.session_service.query.GroupCount;
+import org.cbioportal.session_service.query.QueryCondition;
+import org.cbioportal.session_service.query.SessionStats;
 import org.cbioportal.session_service.service.exception.*;
 
 import java.util.List;
@@ -45,9 +51,28 @@ public interface SessionService {
     Session upsertSession(String source, SessionType type, String data) throws SessionInvalidException;
     Session insertSession(String id, String source, SessionType type, String data) throws SessionInvalidException;
     List<Session> getSessions(String source, SessionType type);
+    List<Session> getSessions(String source, SessionType type, boolean summaryOnly);
     List<Session> getSessionsByQuery(String source, SessionType type, String query);
+    List<Session> getSessionsByQuery(String source, SessionType type, String query, int page, int pageSize,
+        boolean summaryOnly);
+    List<Session> getSessionsByConditions(String source, SessionType type, List<QueryCondition> conditions,
+        int page, int pageSize, boolean summaryOnly);
+    List<Session> searchSessions(String source, SessionType type, String text, int page, int pageSize,
+        boolean summaryOnly);
+    List<UserSessionEntry> getUserSessions(String source, SessionType type, String user);
+    long countSessions(String source, SessionType type, List<QueryCondition> conditions);
+    List<GroupCount> countSessionsByField(String source, SessionType type, String field);
+    List<SessionStats> getSessionStats(String source);
     Session getSession(String source, SessionType type, String id) throws SessionNotFoundException;
     void updateSession(String source, SessionType type, String id, String data) throws SessionInvalidException, 
         SessionNotFoundException;
+    List<SessionVersion> getSessionVersions(String source, SessionType type, String id)
+        throws SessionNotFoundException;
+    Object getSessionVersion(String source, SessionType type, String id, int version)
+        throws SessionNotFoundException;
+    List<Document> diffSessionVersions(String source, SessionType type, String id, int from, int to)
+        throws SessionNotFoundException;
     void deleteSession(String source, SessionType type, String id) throws SessionNotFoundException;
+    long migrateToPartitions(SessionType type);
+    void deleteSource(String source);
 }
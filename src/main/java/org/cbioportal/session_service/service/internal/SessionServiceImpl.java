@@ -32,19 +32,51 @@
 
 package org.cbioportal.session_service.service.internal;
 
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.ReadPreference;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import jakarta.validation.ConstraintViolation;
-import jakarta.validation.ConstraintViolationException;
+import java.util.Map;
 import org.bson.BSONException;
+import org.bson.Document;
 import org.bson.json.JsonParseException;
+import org.cbioportal.session_service.cache.SessionCache;
+import org.cbioportal.session_service.cache.SessionIdFilter;
+import org.cbioportal.session_service.cache.SessionQueryCache;
+import org.cbioportal.session_service.cache.SessionResponseCache;
+import org.cbioportal.session_service.cache.SessionWriteBuffer;
+import org.cbioportal.session_service.cache.SingleFlight;
 import org.cbioportal.session_service.domain.Session;
 import org.cbioportal.session_service.domain.SessionRepository;
 import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.domain.internal.SessionConsistency;
+import org.cbioportal.session_service.domain.internal.SessionConsistency.ReadOperation;
+import org.cbioportal.session_service.domain.internal.SessionSummarizer;
+import org.cbioportal.session_service.events.SessionChange;
+import org.cbioportal.session_service.events.SessionChange.Operation;
+import org.cbioportal.session_service.history.SessionHistory;
+import org.cbioportal.session_service.history.SessionVersion;
+import org.cbioportal.session_service.journal.AsyncSessionWriter;
+import org.cbioportal.session_service.index.UserSessionEntry;
+import org.cbioportal.session_service.index.UserSessionIndex;
+import org.cbioportal.session_service.query.GroupCount;
+import org.cbioportal.session_service.query.QueryCondition;
+import org.cbioportal.session_service.query.SessionAggregator;
+import org.cbioportal.session_service.query.SessionQueryCompiler;
+import org.cbioportal.session_service.query.SessionQueryGuard;
+import org.cbioportal.session_service.query.SessionSearch;
+import org.cbioportal.session_service.query.SessionStats;
 import org.cbioportal.session_service.service.SessionService;
 import org.cbioportal.session_service.service.exception.*;
+import org.cbioportal.session_service.tracing.SessionTracing;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.stereotype.Service;
 
@@ -57,6 +89,65 @@ public class SessionServiceImpl implements SessionService {
     @Autowired
     private SessionRepository sessionRepository;
 
+    @Autowired
+    private SessionCache sessionCache;
+
+    @Autowired
+    private SessionIdFilter sessionIdFilter;
+
+    @Autowired
+    private SessionQueryCache sessionQueryCache;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private SessionQueryGuard sessionQueryGuard;
+
+    @Autowired
+    private SessionQueryCompiler sessionQueryCompiler;
+
+    @Autowired
+    private SessionAggregator sessionAggregator;
+
+    @Autowired
+    private UserSessionIndex userSessionIndex;
+
+    @Autowired
+    private SessionSummarizer sessionSummarizer;
+
+    @Autowired
+    private SessionSearch sessionSearch;
+
+    @Autowired
+    private SessionHistory sessionHistory;
+
+    @Autowired
+    private SessionWriteBuffer sessionWriteBuffer;
+
+    @Autowired
+    private SessionResponseCache sessionResponseCache;
+
+    @Autowired
+    private SessionValidator sessionValidator;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    @Autowired
+    private AsyncSessionWriter asyncSessionWriter;
+
+    @Autowired
+    private SessionTracing sessionTracing;
+
+    @Autowired
+    private SessionConsistency sessionConsistency;
+
+    // concurrent identical reads share one database round trip, writes detach the reads in flight
+    private final SingleFlight<String, Session> sessionLookups = new SingleFlight<>(Session::copy);
+    private final SingleFlight<String, List<Session>> sessionListLookups = new SingleFlight<>();
+    private final SingleFlight<String, List<Session>> sessionQueryLookups = new SingleFlight<>();
+
     /**
      * Adds a session to the repository.
      * @param source - catalog of the session
@@ -67,26 +158,35 @@ public class SessionServiceImpl implements SessionService {
      */
     @Override
     public Session upsertSession(String source, SessionType type, String data) throws SessionInvalidException {
-        Session session = null;
+        sessionTracing.observe("service validate", type, () -> sessionValidator.validate(source, type, data));
+        Session session = new Session();
         try {
-            session = new Session();
             session.setSource(source);
             session.setType(type);
-            session.setData(data);
+            // parses the data and computes the checksum
+            sessionTracing.observe("service parse", type, data.length(), () -> session.setData(data));
+            sessionTracing.observe("service summarize", type, () -> summarize(session));
 
-            sessionRepository.upsertSession(session);
+            Session accepted = sessionTracing.observe("service journal", type,
+                () -> asyncSessionWriter.offer(session));
+            if (accepted != null) {
+                return accepted;
+            }
+            sessionTracing.observe("service save", type, () -> sessionRepository.upsertSession(session));
+            sessionIdFilter.recordInserted(source, type, session.getId());
+            forgetLookups(source, type, session.getId());
+            sessionQueryCache.onInsert(session);
+            userSessionIndex.onWrite(session);
+            eventPublisher.publishEvent(new SessionChange(type, session.getId(), source, Operation.INSERT, false));
+            return session;
         } catch (DuplicateKeyException e) {
-            session = sessionRepository.findOneBySourceAndTypeAndChecksum(source,
-                    type,
-                    session.getChecksum());
-        } catch (ConstraintViolationException e) {
-            throw new SessionInvalidException(buildConstraintViolationExceptionMessage(e));
+            return sessionTracing.observe("service find duplicate", type,
+                () -> sessionRepository.findOneBySourceAndTypeAndChecksum(source, type, session.getChecksum()));
         } catch (JsonParseException e) {
             throw new SessionInvalidException(e.getMessage());
         } catch (HttpMessageNotReadableException e) {
             throw new SessionInvalidException(e.getMessage());
         }
-        return session;
     }
 
     /**
@@ -105,6 +205,7 @@ public class SessionServiceImpl implements SessionService {
      */
     @Override
     public Session insertSession(String id, String source, SessionType type, String data) throws SessionInvalidException {
+        sessionTracing.observe("service validate", type, () -> sessionValidator.validate(source, type, data));
         try {
             Session session = new Session();
             if (id != null) {
@@ -112,9 +213,15 @@ public class SessionServiceImpl implements SessionService {
             }
             session.setSource(source);
             session.setType(type);
-            session.setData(data);
+            sessionTracing.observe("service parse", type, data.length(), () -> session.setData(data));
+            sessionTracing.observe("service summarize", type, () -> summarize(session));
 
-            sessionRepository.insertSession(session);
+            sessionTracing.observe("service save", type, () -> sessionRepository.insertSession(session));
+            sessionIdFilter.recordInserted(source, type, session.getId());
+            forgetLookups(source, type, session.getId());
+            sessionQueryCache.onInsert(session);
+            userSessionIndex.onWrite(session);
+            eventPublisher.publishEvent(new SessionChange(type, session.getId(), source, Operation.INSERT, false));
             return session;
         } catch (DuplicateKeyException e) {
             throw new SessionAlreadyExists(e.getMessage());
@@ -125,40 +232,314 @@ public class SessionServiceImpl implements SessionService {
 
     @Override
     public List<Session> getSessions(String source, SessionType type) {
-        return sessionRepository.findBySourceAndType(source, type);
+        return sessionListLookups.execute(source + ":" + type,
+            () -> sessionRepository.findBySourceAndType(source, type));
+    }
+
+    @Override
+    public List<Session> getSessions(String source, SessionType type, boolean summaryOnly) {
+        if (!summaryOnly) {
+            return getSessions(source, type);
+        }
+        return toSummaries(sessionListLookups.execute(source + ":" + type + ":summary",
+            () -> sessionRepository.findBySourceAndTypeAndQuery(source, type, sessionSummarizer.project(new Query()))));
     }
 
     @Override
     public List<Session> getSessionsByQuery(String source, SessionType type, String query)
         throws SessionQueryInvalidException {
+        return getSessionsByQuery(source, type, query, 0, 0, false);
+    }
+
+    @Override
+    public List<Session> getSessionsByQuery(String source, SessionType type, String query, int page, int pageSize,
+        boolean summaryOnly) throws SessionQueryInvalidException {
+        Query built;
         try {
-            return sessionRepository.findBySourceAndTypeAndQuery(source, type, query);
+            built = sessionQueryGuard.buildQuery(query, page, pageSize);
         } catch (IllegalArgumentException | JsonParseException | BSONException e) {
             throw new SessionQueryInvalidException(e.getMessage());
+        }
+        return summaryOnly ? toSummaries(findByQuery(source, type, sessionSummarizer.project(built)))
+            : findByQuery(source, type, built);
+    }
+
+    @Override
+    public List<Session> getSessionsByConditions(String source, SessionType type, List<QueryCondition> conditions,
+        int page, int pageSize, boolean summaryOnly) throws SessionQueryInvalidException {
+        Query query = sessionQueryGuard.applyLimits(sessionQueryCompiler.compile(conditions), page, pageSize);
+        return summaryOnly ? toSummaries(findByQuery(source, type, sessionSummarizer.project(query)))
+            : findByQuery(source, type, query);
+    }
+
+    /**
+     * @return the sessions matching the search text, best match first
+     */
+    @Override
+    public List<Session> searchSessions(String source, SessionType type, String text, int page, int pageSize,
+        boolean summaryOnly) throws SessionQueryInvalidException {
+        Query query = sessionQueryGuard.applyLimits(sessionSearch.buildQuery(source, type, text), page, pageSize);
+        if (summaryOnly) {
+            sessionSummarizer.project(query);
+        }
+        try {
+            List<Session> sessions = sessionRepository.findBySourceAndTypeAndQuery(source, type, query);
+            sessionQueryGuard.checkResults(sessions.size(), sessionQueryGuard.getMaxResults());
+            return summaryOnly ? toSummaries(sessions) : sessions;
+        } catch (DataAccessException e) {
+            if (e.getCause() instanceof MongoExecutionTimeoutException) {
+                throw sessionQueryGuard.timedOut();
+            }
+            throw e;
+        }
+    }
+
+    private List<Session> toSummaries(List<Session> sessions) {
+        List<Session> summaries = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            summaries.add(sessionSummarizer.toSummary(session));
+        }
+        return summaries;
+    }
+
+    private void summarize(Session session) {
+        if (sessionSummarizer.isEnabled()) {
+            session.setSummary(sessionSummarizer.summarize(session.getType(), session.getData()));
+        }
+    }
+
+    private List<Session> findByQuery(String source, SessionType type, Query requested)
+        throws SessionQueryInvalidException {
+        Query query = asyncSessionWriter.resolveAliases(source, type, requested);
+        String key = source + ":" + type + ":" + query.getSkip() + ":" + query.getLimit() + ":"
+            + query.getQueryObject().toJson() + ":" + query.getFieldsObject().toJson();
+        // cached results are hydrated into full sessions, projections bypass the cache
+        boolean cacheable = query.getFieldsObject().isEmpty();
+        try {
+            List<String> cachedIds = cacheable ? sessionQueryCache.get(source, type, query) : null;
+            if (cachedIds != null) {
+                List<Session> sessions = hydrate(source, type, cachedIds);
+                if (sessions != null) {
+                    return sessions;
+                }
+            }
+            return sessionQueryLookups.execute(key, () -> {
+                long generation = sessionQueryCache.generation(source, type);
+                int cap = sessionQueryGuard.checkPlan(sessionCollections.collection(type, source), source,
+                    query);
+                List<Session> sessions = sessionRepository.findBySourceAndTypeAndQuery(source, type, query);
+                // results that hit the cap are rejected, so cached ids never exceed it
+                sessionQueryGuard.checkResults(sessions.size(), cap);
+                if (cacheable) {
+                    sessionQueryCache.put(source, type, query, sessions, generation);
+                }
+                return sessions;
+            });
+        } catch (IllegalArgumentException | BSONException e) {
+            throw new SessionQueryInvalidException(e.getMessage());
         } catch (UncategorizedMongoDbException e) {
+            if (e.getCause() instanceof MongoExecutionTimeoutException) {
+                throw sessionQueryGuard.timedOut();
+            }
             throw new SessionQueryInvalidException(e.getMessage());
+        } catch (DataAccessException e) {
+            if (e.getCause() instanceof MongoExecutionTimeoutException) {
+                throw sessionQueryGuard.timedOut();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return summaries of the sessions the user has access to, read from the
+     * user index when it is enabled
+     */
+    @Override
+    public List<UserSessionEntry> getUserSessions(String source, SessionType type, String user) {
+        if (userSessionIndex.isEnabled()) {
+            return userSessionIndex.find(source, type, user);
+        }
+        List<UserSessionEntry> entries = new ArrayList<>();
+        for (Session session : findByQuery(source, type,
+            sessionQueryGuard.applyLimits(userSessionIndex.userQuery(user), 0, 0))) {
+            entries.add(userSessionIndex.toEntry(session));
         }
+        return entries;
+    }
+
+    /**
+     * @param conditions conditions the counted sessions must match, null or
+     * empty to count all sessions of the source and type
+     */
+    @Override
+    public long countSessions(String source, SessionType type, List<QueryCondition> conditions)
+        throws SessionQueryInvalidException {
+        Query query = conditions == null || conditions.isEmpty() ? new Query() : sessionQueryCompiler.compile(conditions);
+        try {
+            return sessionRepository.countBySourceAndTypeAndQuery(source, type,
+                sessionQueryGuard.applyTimeLimit(query));
+        } catch (DataAccessException e) {
+            if (e.getCause() instanceof MongoExecutionTimeoutException) {
+                throw sessionQueryGuard.timedOut();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public List<GroupCount> countSessionsByField(String source, SessionType type, String field)
+        throws SessionQueryInvalidException {
+        return sessionAggregator.countByField(source, type, field);
+    }
+
+    @Override
+    public List<SessionStats> getSessionStats(String source) {
+        return sessionAggregator.stats(source);
+    }
+
+    /**
+     * Loads cached query results from the session cache, fetching the
+     * sessions it misses in one query.
+     * @return the sessions in the order of the ids, or null if one of them no
+     * longer exists and the query has to be run again
+     */
+    private List<Session> hydrate(String source, SessionType type, List<String> ids) {
+        Map<String, Session> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            Session session = sessionCache.get(type, id);
+            if (session != null && session.getSource().equals(source)) {
+                found.put(id, session);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Long> generations = new HashMap<>();
+            for (String id : missing) {
+                generations.put(id, sessionCache.generation(type, id));
+            }
+            for (Session session : sessionRepository.findBySourceAndTypeAndIds(source, type, missing)) {
+                sessionCache.put(session, generations.get(session.getId()));
+                found.put(session.getId(), session);
+            }
+        }
+        List<Session> sessions = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Session session = found.get(id);
+            if (session == null) {
+                return null;
+            }
+            sessions.add(session);
+        }
+        return sessions;
     }
 
     @Override
     public Session getSession(String source, SessionType type, String id) throws SessionNotFoundException {
-        Session session = sessionRepository.findOneBySourceAndTypeAndId(source, type, id);
-        if (session != null) {
+        Session session = sessionWriteBuffer.get(type, id);
+        if (session == null) {
+            session = asyncSessionWriter.get(type, id);
+        }
+        if (session == null) {
+            session = sessionCache.get(type, id);
+        }
+        if (session == null) {
+            if (!sessionIdFilter.mightExist(source, type, id)) {
+                throw new SessionNotFoundException(id);
+            }
+            long generation = sessionCache.generation(type, id);
+            session = sessionTracing.observe("service find", type, () -> sessionLookups.execute(
+                lookupKey(source, type, id), () -> findOneOrAliased(source, type, id, null)));
+            if (session != null) {
+                if (session.getId().equals(id)) {
+                    // sessions found through an alias are cached when read by their own id
+                    sessionCache.put(session, generation);
+                }
+            } else if (sessionConsistency.readsPrimary(type, ReadOperation.GET)) {
+                // a secondary may miss a session that was just written
+                sessionIdFilter.recordMissing(source, type, id);
+            }
+        }
+        // cache entries are keyed by type and id only
+        if (session != null && session.getSource().equals(source)) {
             return session;
         }
         throw new SessionNotFoundException(id);
     }
 
+    private static String lookupKey(String source, SessionType type, String id) {
+        return source + ":" + type + ":" + id;
+    }
+
+    // reads that started before the write may return the old session
+    private void forgetLookups(String source, SessionType type, String id) {
+        sessionLookups.forget(lookupKey(source, type, id));
+        sessionListLookups.forget(source + ":" + type);
+        sessionListLookups.forget(source + ":" + type + ":summary");
+    }
+
+    /**
+     * @param readPreference null for the configured one
+     */
+    private Session findOneOrAliased(String source, SessionType type, String id, ReadPreference readPreference) {
+        Session session = findOne(source, type, id, readPreference);
+        if (session == null && asyncSessionWriter.isAsync(type)) {
+            // accepted while a session with the same data already existed
+            String target = asyncSessionWriter.resolveAlias(source, type, id);
+            if (target != null) {
+                session = findOne(source, type, target, readPreference);
+            }
+        }
+        return session;
+    }
+
+    private Session findOne(String source, SessionType type, String id, ReadPreference readPreference) {
+        return readPreference == null ? sessionRepository.findOneBySourceAndTypeAndId(source, type, id)
+            : sessionRepository.findOneBySourceAndTypeAndId(source, type, id, readPreference);
+    }
+
     @Override
     public void updateSession(String source, SessionType type, String id, String data) throws SessionInvalidException,
         SessionNotFoundException {
-        Session savedSession = sessionRepository.findOneBySourceAndTypeAndId(source, type, id);
+        sessionTracing.observe("service validate", type, () -> sessionValidator.validate(source, type, data));
+        asyncSessionWriter.settle(type, id);
+        Session bufferedSession = sessionWriteBuffer.get(type, id);
+        Session savedSession = bufferedSession != null && bufferedSession.getSource().equals(source) ? bufferedSession
+            // the history and the query cache invalidation need the latest version
+            : sessionTracing.observe("service find", type,
+                () -> findOneOrAliased(source, type, id, ReadPreference.primary()));
         if (savedSession != null) {
+            // the existing session if the id is an alias
+            String savedId = savedSession.getId();
             try {
-                savedSession.setData(data);
-                sessionRepository.upsertSession(savedSession);
-            } catch (ConstraintViolationException e) {
-                throw new SessionInvalidException(buildConstraintViolationExceptionMessage(e));
+                Object previousData = savedSession.getData();
+                Session updated;
+                if (sessionWriteBuffer.isBuffered(type)) {
+                    // buffered sessions may be read concurrently, so they are replaced, not modified
+                    updated = new Session();
+                    updated.setId(savedId);
+                    updated.setSource(source);
+                    updated.setType(type);
+                } else {
+                    updated = savedSession;
+                }
+                sessionTracing.observe("service parse", type, data.length(), () -> updated.setData(data));
+                sessionTracing.observe("service summarize", type, () -> summarize(updated));
+                // evicted before and after, so reads racing with the write do not cache the old version
+                sessionCache.evict(type, savedId);
+                sessionTracing.observe("service save", type, () -> {
+                    if (!sessionWriteBuffer.offer(updated, previousData)) {
+                        sessionRepository.upsertSession(updated);
+                    }
+                });
+                forgetLookups(source, type, savedId);
+                forgetLookups(source, type, id);
+                sessionCache.evict(type, savedId);
+                sessionQueryCache.onUpdate(updated, previousData);
+                userSessionIndex.onWrite(updated);
+                sessionHistory.record(updated, previousData);
+                eventPublisher.publishEvent(new SessionChange(type, savedId, source, Operation.UPDATE, false));
             } catch (JsonParseException e) {
                 throw new SessionInvalidException(e.getMessage());
             }
@@ -167,21 +548,77 @@ public class SessionServiceImpl implements SessionService {
         throw new SessionNotFoundException(id);
     }
 
+    @Override
+    public List<SessionVersion> getSessionVersions(String source, SessionType type, String id)
+        throws SessionNotFoundException {
+        checkVersioned(type);
+        return sessionHistory.getVersions(source, type, asyncSessionWriter.canonicalId(source, type, id));
+    }
+
+    @Override
+    public Object getSessionVersion(String source, SessionType type, String id, int version)
+        throws SessionNotFoundException {
+        checkVersioned(type);
+        return sessionHistory.getVersion(source, type, asyncSessionWriter.canonicalId(source, type, id), version);
+    }
+
+    @Override
+    public List<Document> diffSessionVersions(String source, SessionType type, String id, int from, int to)
+        throws SessionNotFoundException {
+        checkVersioned(type);
+        return sessionHistory.diff(source, type, asyncSessionWriter.canonicalId(source, type, id), from, to);
+    }
+
+    private void checkVersioned(SessionType type) {
+        if (!sessionHistory.isEnabled(type)) {
+            throw new SessionQueryInvalidException("no version history is kept for " + type);
+        }
+    }
+
     @Override
     public void deleteSession(String source, SessionType type, String id) throws SessionNotFoundException {
+        asyncSessionWriter.settle(type, id);
+        sessionCache.evict(type, id);
         long numberDeleted = sessionRepository.deleteBySourceAndTypeAndId(source, type, id);
+        if (numberDeleted == 0 && asyncSessionWriter.isAsync(type)) {
+            String target = asyncSessionWriter.resolveAlias(source, type, id);
+            if (target != null) {
+                id = target;
+                numberDeleted = sessionRepository.deleteBySourceAndTypeAndId(source, type, id);
+            }
+        }
         if (numberDeleted != 1) { // using unique id so never more than 1
             throw new SessionNotFoundException(id);
         }
+        // a flush racing with the delete does not recreate it, buffered writes never upsert
+        sessionWriteBuffer.discard(type, id);
+        forgetLookups(source, type, id);
+        sessionCache.evict(type, id);
+        sessionQueryCache.onDelete(source, type, id);
+        userSessionIndex.onDelete(type, id);
+        sessionHistory.delete(type, id);
+        eventPublisher.publishEvent(new SessionChange(type, id, source, Operation.DELETE, false));
     }
 
-    private String buildConstraintViolationExceptionMessage(ConstraintViolationException e) {
-        StringBuffer errors = new StringBuffer();
-        for (ConstraintViolation violation : e.getConstraintViolations()) {
-            errors.append(violation.getMessage());
-            errors.append(";");
-        }
-        return errors.toString();
+    @Override
+    public long migrateToPartitions(SessionType type) {
+        return sessionRepository.migrateToPartitions(type);
     }
 
+    /**
+     * Deletes every session of a source, including pending writes and the
+     * cached sessions, query results and misses of the source.
+     */
+    @Override
+    public void deleteSource(String source) {
+        sessionWriteBuffer.discardSource(source);
+        asyncSessionWriter.deleteSource(source);
+        sessionRepository.dropSource(source);
+        sessionCache.evictSource(source);
+        sessionResponseCache.evictSource(source);
+        sessionQueryCache.onDeleteSource(source);
+        sessionIdFilter.onDeleteSource(source);
+        userSessionIndex.onDeleteSource(source);
+        sessionHistory.deleteSource(source);
+    }
 }
@@ -0,0 +1,51 @@
+package org.cbioportal.session_service.service.internal;
+
+import java.util.List;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.schema.SessionSchemas;
+import org.cbioportal.session_service.service.exception.SessionInvalidException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks requests before the data is parsed, hashed or stored, replacing
+ * Bean Validation of {@link org.cbioportal.session_service.domain.Session}
+ * in the MongoDB event pipeline. The constraints are the ones declared on
+ * Session, plus a size limit and the JSON schema of the type if it has one.
+ */
+@Component
+public class SessionValidator {
+
+    static final int MIN_SOURCE_LENGTH = 3;
+
+    // MongoDB documents are limited to 16MB
+    @Value("${session.validation.max-data-length:16000000}")
+    private int maxDataLength;
+
+    @Autowired
+    private SessionSchemas sessionSchemas;
+
+    /**
+     * @throws SessionInvalidException if the session would be invalid
+     */
+    public void validate(String source, SessionType type, String data) throws SessionInvalidException {
+        if (source == null || source.length() < MIN_SOURCE_LENGTH) {
+            throw new SessionInvalidException("source has a minimum length of " + MIN_SOURCE_LENGTH);
+        }
+        if (type == null) {
+            throw new SessionInvalidException("type must not be null");
+        }
+        if (data == null) {
+            throw new SessionInvalidException("data must not be null");
+        }
+        if (maxDataLength > 0 && data.length() > maxDataLength) {
+            throw new SessionInvalidException("data is longer than " + maxDataLength + " characters");
+        }
+        List<String> errors = sessionSchemas.validate(type, data);
+        if (!errors.isEmpty()) {
+            throw new SessionInvalidException("data does not match the " + type + " schema: "
+                + String.join("; ", errors));
+        }
+    }
+}
@@ -32,6 +32,9 @@
 
 package org.cbioportal.session_service.swagger;
 
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Bean;
 
@@ -42,6 +45,28 @@ import io.swagger.v3.oas.models.info.License;
 
 @Configuration
 public class SwaggerConfig {
+
+    /**
+     * Creates the springdoc beans on the first request to the API docs or
+     * Swagger UI instead of at startup. With AOT processing the setting is
+     * fixed when the application is built.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "session.springdoc.lazy", havingValue = "true")
+    public static BeanFactoryPostProcessor lazySpringdoc() {
+        return beanFactory -> {
+            for (String name : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition definition = beanFactory.getBeanDefinition(name);
+                String className = definition.getBeanClassName() != null ? definition.getBeanClassName()
+                    : definition.getFactoryBeanName() != null
+                        ? beanFactory.getBeanDefinition(definition.getFactoryBeanName()).getBeanClassName()
+                        : null;
+                if (className != null && className.startsWith("org.springdoc.")) {
+                    definition.setLazyInit(true);
+                }
+            }
+        };
+    }
     @Bean
     public OpenAPI openAPI() {
         return new OpenAPI()
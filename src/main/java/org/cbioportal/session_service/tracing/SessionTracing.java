@@ -0,0 +1,73 @@
+package org.cbioportal.session_service.tracing;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.function.Supplier;
+import org.cbioportal.session_service.domain.SessionType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Observes the stages of handling a request, such as parsing the session
+ * data or saving it, as "session.stage" observations. With a tracing bridge
+ * on the class path each stage becomes a span named after the stage, a child
+ * of the HTTP request span, and the MongoDB commands it sends become its
+ * children; the registry also times them by stage and type.
+ *
+ * With session.tracing.enabled=false (the default) the stages run without
+ * creating observations.
+ */
+@Component
+public class SessionTracing {
+
+    public static final String STAGE = "session.stage";
+
+    @Value("${session.tracing.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public <T> T observe(String stage, SessionType type, Supplier<T> body) {
+        return enabled ? observation(stage, type).observe(body) : body.get();
+    }
+
+    public void observe(String stage, SessionType type, Runnable body) {
+        if (enabled) {
+            observation(stage, type).observe(body);
+        } else {
+            body.run();
+        }
+    }
+
+    /**
+     * @param payloadSize length of the session data, recorded on the span only
+     */
+    public <T> T observe(String stage, SessionType type, int payloadSize, Supplier<T> body) {
+        return enabled ? observation(stage, type)
+            .highCardinalityKeyValue("session.payload.size", Integer.toString(payloadSize))
+            .observe(body) : body.get();
+    }
+
+    public void observe(String stage, SessionType type, int payloadSize, Runnable body) {
+        if (enabled) {
+            observation(stage, type)
+                .highCardinalityKeyValue("session.payload.size", Integer.toString(payloadSize))
+                .observe(body);
+        } else {
+            body.run();
+        }
+    }
+
+    private Observation observation(String stage, SessionType type) {
+        return Observation.createNotStarted(STAGE, observationRegistry)
+            .contextualName(stage)
+            .lowCardinalityKeyValue("stage", stage)
+            .lowCardinalityKeyValue("session.type", type == null ? "none" : type.name());
+    }
+}
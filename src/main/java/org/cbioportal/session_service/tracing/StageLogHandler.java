@@ -0,0 +1,54 @@
+package org.cbioportal.session_service.tracing;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs every stage and MongoDB command with its duration and attributes, for
+ * looking at single slow requests without a trace collector.
+ */
+public class StageLogHandler implements ObservationHandler<Observation.Context> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StageLogHandler.class);
+
+    private static final String START = StageLogHandler.class.getName() + ".start";
+
+    @Override
+    public boolean supportsContext(Observation.Context context) {
+        String name = context.getName();
+        return name != null && (name.equals(SessionTracing.STAGE) || name.startsWith("spring.data.mongodb"));
+    }
+
+    @Override
+    public void onStart(Observation.Context context) {
+        context.put(START, System.nanoTime());
+    }
+
+    @Override
+    public void onStop(Observation.Context context) {
+        Long start = context.get(START);
+        if (start == null || !LOG.isInfoEnabled()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder(String.valueOf(context.getContextualName()))
+            .append(" took ")
+            .append(String.format("%.3f", (System.nanoTime() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1)))
+            .append(" ms");
+        for (KeyValue keyValue : context.getAllKeyValues()) {
+            message.append(' ').append(keyValue.getKey()).append('=').append(keyValue.getValue());
+        }
+        Observation.ContextView parent = context.getParentObservation() == null ? null
+            : context.getParentObservation().getContextView();
+        if (parent != null) {
+            message.append(" in ").append(parent.getContextualName());
+        }
+        if (context.getError() != null) {
+            message.append(" failed: ").append(context.getError());
+        }
+        LOG.info(message.toString());
+    }
+}
@@ -0,0 +1,30 @@
+package org.cbioportal.session_service.tracing;
+
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.observability.ContextProviderFactory;
+import org.springframework.data.mongodb.observability.MongoObservationCommandListener;
+
+@Configuration
+@ConditionalOnProperty(name = "session.tracing.enabled", havingValue = "true")
+public class TracingConfig {
+
+    /**
+     * Observes every MongoDB command, as a child of the stage that sent it.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoTracingCustomizer(ObservationRegistry observationRegistry) {
+        return builder -> builder
+            .contextProvider(ContextProviderFactory.create(observationRegistry))
+            .addCommandListener(new MongoObservationCommandListener(observationRegistry));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "session.tracing.log", havingValue = "true")
+    public StageLogHandler stageLogHandler() {
+        return new StageLogHandler();
+    }
+}
@@ -0,0 +1,98 @@
+package org.cbioportal.session_service.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+import org.bson.RawBsonDocument;
+
+/**
+ * Reads the sessions of one part file of an export, one at a time.
+ */
+class PartReader implements Closeable {
+
+    private final TransferFormat format;
+    private final BufferedReader lines;
+    private final DataInputStream documents;
+
+    PartReader(Path file, TransferFormat format) throws IOException {
+        this.format = format;
+        InputStream in = new GZIPInputStream(Files.newInputStream(file), 1 << 16);
+        if (format == TransferFormat.BSON) {
+            lines = null;
+            documents = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        } else {
+            lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+            documents = null;
+        }
+    }
+
+    /**
+     * @return the next session, null at the end of the part
+     */
+    RawBsonDocument next() throws IOException {
+        if (format == TransferFormat.NDJSON) {
+            String line;
+            do {
+                line = lines.readLine();
+            } while (line != null && line.isBlank());
+            return line == null ? null : RawBsonDocument.parse(line);
+        }
+        int first = documents.read();
+        if (first < 0) {
+            return null;
+        }
+        // BSON documents start with their little endian int32 size
+        byte[] header = new byte[3];
+        documents.readFully(header);
+        int size = first | (header[0] & 0xff) << 8 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 24;
+        if (size < 5) {
+            throw new EOFException("invalid BSON document size " + size);
+        }
+        byte[] bytes = new byte[size];
+        bytes[0] = (byte) first;
+        System.arraycopy(header, 0, bytes, 1, 3);
+        documents.readFully(bytes, 4, size - 4);
+        return new RawBsonDocument(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (lines != null) {
+            lines.close();
+        } else {
+            documents.close();
+        }
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
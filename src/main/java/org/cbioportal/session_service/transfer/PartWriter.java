@@ -0,0 +1,74 @@
+package org.cbioportal.session_service.transfer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+import org.bson.RawBsonDocument;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+/**
+ * Writes one part file of an export. The part is written under a temporary
+ * name and only renamed once it is complete.
+ */
+class PartWriter {
+
+    private static final JsonWriterSettings EXTENDED_JSON = JsonWriterSettings.builder()
+        .outputMode(JsonMode.EXTENDED).build();
+
+    private final Path file;
+    private final Path temporary;
+    private final TransferFormat format;
+    private final MessageDigest digest;
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private long documents;
+
+    PartWriter(Path file, TransferFormat format) throws IOException {
+        this.file = file;
+        this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        this.format = format;
+        this.digest = PartReader.sha256();
+        this.out = new GZIPOutputStream(new DigestOutputStream(Files.newOutputStream(temporary), digest), 1 << 16);
+        this.channel = Channels.newChannel(out);
+    }
+
+    void write(RawBsonDocument document) throws IOException {
+        if (format == TransferFormat.BSON) {
+            channel.write(document.getByteBuffer().asNIO());
+        } else {
+            out.write(document.toJson(EXTENDED_JSON).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        documents++;
+    }
+
+    long getDocuments() {
+        return documents;
+    }
+
+    TransferManifest.Part finish() throws IOException {
+        out.close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new TransferManifest.Part(file.getFileName().toString(), documents,
+            HexFormat.of().formatHex(digest.digest()));
+    }
+
+    void abort() {
+        try {
+            out.close();
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            // the next attempt overwrites it
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.cbioportal.session_service.transfer;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.cbioportal.session_service.cache.SessionIdFilter;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.mongo.SessionSharding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams whole session collections to and from gzip compressed part files,
+ * one collection per thread, so the collections of a partitioned source can be
+ * exported on their own, holding no more than one batch of sessions in
+ * memory regardless of the size of a collection.
+ *
+ * Exports walk each collection in _id order and record the last exported id
+ * in the manifest after every part, so an interrupted export continues after
+ * the last complete part. Imports check the digest of every part before
+ * inserting it with unordered bulk writes; sessions that already exist, by id
+ * or by checksum, are skipped, so an interrupted import can simply be run
+ * again.
+ */
+@Component
+public class SessionTransfer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionTransfer.class);
+
+    private static final BsonDocument BY_ID = new BsonDocument("_id", new BsonInt32(1));
+
+    @Value("${session.transfer.threads:4}")
+    private int threads;
+
+    @Value("${session.transfer.part-size:100000}")
+    private int partSize;
+
+    @Value("${session.transfer.batch-size:1000}")
+    private int batchSize;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SessionIdFilter sessionIdFilter;
+
+    @Autowired
+    private SessionSharding sessionSharding;
+
+    @Autowired
+    private SessionCollections sessionCollections;
+
+    public List<TransferResult> export(Path directory, Collection<SessionType> types, TransferFormat format)
+        throws IOException {
+        Files.createDirectories(directory);
+        List<String> names = new ArrayList<>();
+        for (SessionType type : types) {
+            names.addAll(sessionCollections.collections(type));
+        }
+        return forEachCollection(names, collection -> export(directory, collection, format));
+    }
+
+    public List<TransferResult> importSessions(Path directory, Collection<SessionType> types) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(TransferManifest.EXTENSION))
+                .map(name -> name.substring(0, name.length() - TransferManifest.EXTENSION.length()))
+                .filter(name -> types.contains(sessionCollections.typeOf(name)))
+                .sorted()
+                .forEach(names::add);
+        }
+        List<TransferResult> results = forEachCollection(names, collection -> importSessions(directory, collection));
+        if (results.stream().anyMatch(result -> result.getDocuments() > 0)) {
+            // imported sessions keep their old ids, which the filter would reject
+            sessionIdFilter.rebuild();
+        }
+        return results;
+    }
+
+    private TransferResult export(Path directory, String collection, TransferFormat format) throws IOException {
+        TransferManifest manifest = TransferManifest.load(directory, collection);
+        if (!manifest.exists()) {
+            manifest.setFormat(format);
+        } else if (manifest.getFormat() != format) {
+            throw new IllegalStateException(collection + " was exported as " + manifest.getFormat() + " to "
+                + directory);
+        }
+        if (manifest.isComplete()) {
+            LOG.info(collection + " is already exported to " + directory);
+            return new TransferResult(collection, manifest.getDocuments(), 0, manifest.getParts().size());
+        }
+        BsonValue lastId = manifest.getLastId();
+        FindIterable<RawBsonDocument> sessions = mongoTemplate.getCollection(collection)
+            .withDocumentClass(RawBsonDocument.class)
+            .find()
+            .sort(BY_ID)
+            .hint(BY_ID)
+            .batchSize(batchSize);
+        if (lastId != null) {
+            // index bounds rather than $gt, which would skip ids of other BSON types
+            sessions.min(new BsonDocument("_id", lastId));
+        }
+        PartWriter part = null;
+        try (MongoCursor<RawBsonDocument> cursor = sessions.iterator()) {
+            while (cursor.hasNext()) {
+                RawBsonDocument session = cursor.next();
+                BsonValue id = session.get("_id");
+                if (id.equals(manifest.getLastId())) {
+                    // min is inclusive
+                    continue;
+                }
+                if (part == null) {
+                    part = new PartWriter(directory.resolve(manifest.nextPartFile()), format);
+                }
+                part.write(session);
+                lastId = id;
+                if (part.getDocuments() >= partSize) {
+                    manifest.addPart(part.finish(), lastId);
+                    manifest.save();
+                    part = null;
+                }
+            }
+            if (part != null) {
+                manifest.addPart(part.finish(), lastId);
+                part = null;
+            }
+        } finally {
+            if (part != null) {
+                part.abort();
+            }
+        }
+        manifest.setComplete(true);
+        manifest.save();
+        TransferResult result = new TransferResult(collection, manifest.getDocuments(), 0,
+            manifest.getParts().size());
+        LOG.info("Exported " + result);
+        return result;
+    }
+
+    private TransferResult importSessions(Path directory, String collection) throws IOException {
+        TransferManifest manifest = TransferManifest.load(directory, collection);
+        if (!manifest.isComplete()) {
+            throw new IllegalStateException("export of " + collection + " to " + directory + " is not complete");
+        }
+        SessionType type = sessionCollections.typeOf(collection);
+        Set<String> prepared = new HashSet<>();
+        long inserted = 0;
+        long read = 0;
+        for (TransferManifest.Part part : manifest.getParts()) {
+            Path file = directory.resolve(part.file);
+            if (!PartReader.sha256(file).equals(part.sha256)) {
+                throw new IllegalStateException(file + " does not match the digest in its manifest");
+            }
+            long partRead = 0;
+            // sessions go to the collections of this deployment, which may be partitioned differently
+            Map<String, List<WriteModel<RawBsonDocument>>> batches = new HashMap<>();
+            int batched = 0;
+            try (PartReader reader = new PartReader(file, manifest.getFormat())) {
+                RawBsonDocument session;
+                while ((session = reader.next()) != null) {
+                    partRead++;
+                    String target = sessionCollections.collection(type, session.getString("source").getValue());
+                    if (prepared.add(target)) {
+                        // the same index as the repository creates, if unique it rejects sessions already
+                        // stored under another id
+                        mongoTemplate.getCollection(target).createIndex(
+                            Indexes.ascending("source", "type", "checksum"),
+                            new IndexOptions().unique(sessionSharding.isChecksumUnique(type)));
+                    }
+                    batches.computeIfAbsent(target, name -> new ArrayList<>()).add(new InsertOneModel<>(session));
+                    if (++batched >= batchSize) {
+                        inserted += insert(batches);
+                        batched = 0;
+                    }
+                }
+            }
+            inserted += insert(batches);
+            if (partRead != part.documents) {
+                throw new IllegalStateException(file + " has " + partRead + " sessions, its manifest "
+                    + part.documents);
+            }
+            read += partRead;
+        }
+        TransferResult result = new TransferResult(collection, inserted, read - inserted, manifest.getParts().size());
+        LOG.info("Imported " + result);
+        return result;
+    }
+
+    private long insert(Map<String, List<WriteModel<RawBsonDocument>>> batches) {
+        long inserted = 0;
+        for (Map.Entry<String, List<WriteModel<RawBsonDocument>>> batch : batches.entrySet()) {
+            if (!batch.getValue().isEmpty()) {
+                inserted += insert(mongoTemplate.getCollection(batch.getKey())
+                    .withDocumentClass(RawBsonDocument.class), batch.getValue());
+                batch.getValue().clear();
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * @return the number of sessions inserted, the others already existed
+     */
+    private long insert(MongoCollection<RawBsonDocument> collection, List<WriteModel<RawBsonDocument>> batch) {
+        try {
+            return collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getInsertedCount();
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+            return e.getWriteResult().getInsertedCount();
+        }
+    }
+
+    private interface CollectionTask {
+        TransferResult run(String collection) throws IOException;
+    }
+
+    private List<TransferResult> forEachCollection(List<String> collections, CollectionTask task)
+        throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, collections.size())));
+        try {
+            List<Callable<TransferResult>> tasks = new ArrayList<>();
+            for (String collection : collections) {
+                tasks.add(() -> task.run(collection));
+            }
+            List<TransferResult> results = new ArrayList<>();
+            for (Future<TransferResult> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.cbioportal.session_service.transfer;
+
+/**
+ * File formats of exported sessions, both gzip compressed.
+ */
+public enum TransferFormat {
+    // one extended JSON document per line, readable with zcat and mongoimport
+    NDJSON("ndjson.gz"),
+    // concatenated BSON documents as written by mongodump
+    BSON("bson.gz");
+
+    private final String extension;
+
+    TransferFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,142 @@
+package org.cbioportal.session_service.transfer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * The &lt;collection&gt;.manifest file of an export: its parts with their number of
+ * sessions and SHA-256 digest, and the last exported id as the checkpoint to
+ * resume from. Rewritten atomically after every part.
+ */
+class TransferManifest {
+
+    static class Part {
+        final String file;
+        final long documents;
+        final String sha256;
+
+        Part(String file, long documents, String sha256) {
+            this.file = file;
+            this.documents = documents;
+            this.sha256 = sha256;
+        }
+    }
+
+    private final Path path;
+    private final String collection;
+    private TransferFormat format;
+    private final List<Part> parts = new ArrayList<>();
+    private BsonValue lastId;
+    private boolean complete;
+
+    static final String EXTENSION = ".manifest";
+
+    private TransferManifest(Path path, String collection) {
+        this.path = path;
+        this.collection = collection;
+    }
+
+    static Path path(Path directory, String collection) {
+        return directory.resolve(collection + EXTENSION);
+    }
+
+    /**
+     * @return the manifest of the collection in the directory, empty if there is none
+     */
+    static TransferManifest load(Path directory, String collection) throws IOException {
+        TransferManifest manifest = new TransferManifest(path(directory, collection), collection);
+        if (!Files.exists(manifest.path)) {
+            return manifest;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(manifest.path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        manifest.format = TransferFormat.valueOf(properties.getProperty("format"));
+        manifest.complete = Boolean.parseBoolean(properties.getProperty("complete"));
+        String lastId = properties.getProperty("last-id");
+        if (lastId != null) {
+            manifest.lastId = BsonDocument.parse(lastId).get("_id");
+        }
+        int count = Integer.parseInt(properties.getProperty("parts", "0"));
+        for (int i = 1; i <= count; i++) {
+            manifest.parts.add(new Part(properties.getProperty("part." + i + ".file"),
+                Long.parseLong(properties.getProperty("part." + i + ".documents")),
+                properties.getProperty("part." + i + ".sha256")));
+        }
+        return manifest;
+    }
+
+    void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("format", format.name());
+        properties.setProperty("complete", Boolean.toString(complete));
+        if (lastId != null) {
+            // extended JSON keeps the BSON type of the id
+            properties.setProperty("last-id", new BsonDocument("_id", lastId).toJson());
+        }
+        properties.setProperty("parts", Integer.toString(parts.size()));
+        for (int i = 1; i <= parts.size(); i++) {
+            Part part = parts.get(i - 1);
+            properties.setProperty("part." + i + ".file", part.file);
+            properties.setProperty("part." + i + ".documents", Long.toString(part.documents));
+            properties.setProperty("part." + i + ".sha256", part.sha256);
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, collection);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean exists() {
+        return format != null;
+    }
+
+    TransferFormat getFormat() {
+        return format;
+    }
+
+    void setFormat(TransferFormat format) {
+        this.format = format;
+    }
+
+    List<Part> getParts() {
+        return parts;
+    }
+
+    String nextPartFile() {
+        return String.format("%s-%05d.%s", collection, parts.size() + 1, format.getExtension());
+    }
+
+    void addPart(Part part, BsonValue lastId) {
+        parts.add(part);
+        this.lastId = lastId;
+    }
+
+    BsonValue getLastId() {
+        return lastId;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    long getDocuments() {
+        return parts.stream().mapToLong(part -> part.documents).sum();
+    }
+}
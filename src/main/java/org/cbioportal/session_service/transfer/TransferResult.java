@@ -0,0 +1,47 @@
+package org.cbioportal.session_service.transfer;
+
+/**
+ * Outcome of exporting or importing the sessions of one collection.
+ */
+public class TransferResult {
+    private final String collection;
+    private final long documents;
+    private final long duplicates;
+    private final int parts;
+
+    public TransferResult(String collection, long documents, long duplicates, int parts) {
+        this.collection = collection;
+        this.documents = documents;
+        this.duplicates = duplicates;
+        this.parts = parts;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return the number of sessions exported or inserted
+     */
+    public long getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return the number of imported sessions that already existed, by id or
+     * by checksum
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return collection + ": " + documents + " sessions in " + parts + " parts"
+            + (duplicates > 0 ? ", " + duplicates + " duplicates skipped" : "");
+    }
+}
@@ -0,0 +1,79 @@
+package org.cbioportal.session_service.transfer;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.cbioportal.session_service.domain.SessionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Command line export and import: started with session.transfer.export or
+ * session.transfer.import set to a directory, the service transfers the
+ * sessions and exits instead of serving requests, e.g.
+ * <pre>
+ * java -jar session_service.jar --spring.main.web-application-type=none --session.transfer.export=/backup
+ * </pre>
+ */
+@Component
+public class TransferRunner implements ApplicationRunner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransferRunner.class);
+
+    @Value("${session.transfer.export:}")
+    private String exportDirectory;
+
+    @Value("${session.transfer.import:}")
+    private String importDirectory;
+
+    // comma separated, empty for all types
+    @Value("${session.transfer.types:}")
+    private String types;
+
+    @Value("${session.transfer.format:NDJSON}")
+    private TransferFormat format;
+
+    @Autowired
+    private SessionTransfer sessionTransfer;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (exportDirectory.isEmpty() && importDirectory.isEmpty()) {
+            return;
+        }
+        int exitCode = 0;
+        try {
+            List<TransferResult> results = exportDirectory.isEmpty()
+                ? sessionTransfer.importSessions(Path.of(importDirectory), parseTypes(types))
+                : sessionTransfer.export(Path.of(exportDirectory), parseTypes(types), format);
+            results.forEach(result -> LOG.info(result.toString()));
+        } catch (Exception e) {
+            LOG.error("Session transfer failed", e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+
+    public static List<SessionType> parseTypes(String types) {
+        if (types == null || types.isBlank()) {
+            return Arrays.asList(SessionType.values());
+        }
+        return Arrays.stream(types.split(","))
+            .map(String::trim)
+            .filter(type -> !type.isEmpty())
+            .map(SessionType::valueOf)
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,15 @@
+package org.cbioportal.session_service.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks endpoints that read many sessions or run aggregations, they are
+ * rate limited with the expensive budget.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ExpensiveOperation {
+}
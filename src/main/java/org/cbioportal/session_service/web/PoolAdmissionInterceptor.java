@@ -0,0 +1,49 @@
+package org.cbioportal.session_service.web;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.cbioportal.session_service.mongo.MongoPoolMonitor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Rejects requests with 503 and a Retry-After header while more than
+ * max-waiting threads wait for a MongoDB connection, so a saturated pool
+ * sheds load quickly instead of holding every request thread until the pool
+ * wait times out.
+ */
+@Component
+public class PoolAdmissionInterceptor implements HandlerInterceptor {
+
+    @Value("${session.admission.enabled:false}")
+    private boolean enabled;
+
+    @Value("${session.admission.max-waiting:50}")
+    private int maxWaiting;
+
+    @Value("${session.admission.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    @Autowired
+    private MongoPoolMonitor mongoPoolMonitor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+        throws Exception {
+        if (!enabled || mongoPoolMonitor.getWaiting() <= maxWaiting) {
+            return true;
+        }
+        meterRegistry.counter("session.admission.rejected", "reason", "pool").increment();
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "database connection pool is saturated");
+        return false;
+    }
+}
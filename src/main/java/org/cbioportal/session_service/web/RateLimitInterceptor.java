@@ -0,0 +1,82 @@
+package org.cbioportal.session_service.web;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cbioportal.session_service.limit.FairConcurrencyLimiter;
+import org.cbioportal.session_service.limit.SourceRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Applies the {@link SourceRateLimiter} to API requests, answering 429 with
+ * a Retry-After header when a source is over its budget.
+ */
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String PERMIT_ATTRIBUTE = RateLimitInterceptor.class.getName() + ".permit";
+
+    @Autowired
+    private SourceRateLimiter sourceRateLimiter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+        throws Exception {
+        if (!sourceRateLimiter.isEnabled() || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        boolean expensive = ((HandlerMethod) handler).hasMethodAnnotation(ExpensiveOperation.class);
+        String source = source(request);
+        Principal user = request.getUserPrincipal();
+        long waitNanos = sourceRateLimiter.tryAcquire(source, user == null ? null : user.getName(), expensive);
+        if (waitNanos > 0) {
+            return reject(response, "rate", TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+        }
+        if (expensive) {
+            FairConcurrencyLimiter.Permit permit = sourceRateLimiter.tryStartExpensive(source);
+            if (permit == null) {
+                return reject(response, "concurrency", 1);
+            }
+            request.setAttribute(PERMIT_ATTRIBUTE, permit);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object permit = request.getAttribute(PERMIT_ATTRIBUTE);
+        if (permit != null) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            sourceRateLimiter.finishExpensive((FairConcurrencyLimiter.Permit) permit);
+        }
+    }
+
+    private boolean reject(HttpServletResponse response, String reason, long retryAfterSeconds) throws Exception {
+        meterRegistry.counter("session.rate_limit.rejected", "reason", reason).increment();
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "too many requests, retry later");
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String source(HttpServletRequest request) {
+        Map<String, String> variables =
+            (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String source = variables == null ? null : variables.get("source");
+        // e.g. the statistics of all sources
+        return source == null ? "*" : source;
+    }
+}
@@ -0,0 +1,52 @@
+package org.cbioportal.session_service.web;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.service.SessionService;
+import org.cbioportal.session_service.transfer.TransferRunner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Administration of per-source collections: moving existing sessions out of
+ * the shared collections and deleting all sessions of a source.
+ */
+@RestController
+@RequestMapping(value = "/api/admin/")
+@ConditionalOnProperty(name = "session.partitioning.admin-endpoint.enabled", havingValue = "true")
+public class SessionPartitionController {
+
+    @Autowired
+    private SessionService sessionService;
+
+    @RequestMapping(method = RequestMethod.POST, value = "/partitions/migrate")
+    public Map<SessionType, Long> migrateToPartitions(@RequestParam(required = false) String types) {
+        Map<SessionType, Long> moved = new EnumMap<>(SessionType.class);
+        for (SessionType type : TransferRunner.parseTypes(types)) {
+            moved.put(type, sessionService.migrateToPartitions(type));
+        }
+        return moved;
+    }
+
+    @RequestMapping(method = RequestMethod.DELETE, value = "/sources/{source}")
+    public void deleteSource(@PathVariable String source) {
+        sessionService.deleteSource(source);
+    }
+
+    // partitioning is not enabled
+    @ExceptionHandler
+    public void handleNotPartitioned(IllegalStateException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpStatus.CONFLICT.value(), e.getMessage());
+    }
+}
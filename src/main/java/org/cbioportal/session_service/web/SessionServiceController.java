@@ -33,9 +33,22 @@
 package org.cbioportal.session_service.web;
 
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.bson.Document;
+import org.cbioportal.session_service.cache.SessionResponseCache;
+import org.cbioportal.session_service.cache.SessionResponseCache.RenderedSession;
 import org.cbioportal.session_service.domain.*;
+import org.cbioportal.session_service.events.SessionEventFeed;
+import org.cbioportal.session_service.history.SessionVersion;
+import org.cbioportal.session_service.index.UserSessionEntry;
+import org.cbioportal.session_service.query.GroupCount;
+import org.cbioportal.session_service.query.QueryCondition;
+import org.cbioportal.session_service.query.QueryOperator;
 import org.cbioportal.session_service.service.exception.*;
 import org.cbioportal.session_service.service.SessionService;
+import org.cbioportal.session_service.tracing.SessionTracing;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.security.config.Customizer;
@@ -43,9 +56,14 @@ import org.springframework.security.config.annotation.web.configurers.AbstractHt
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 
@@ -71,12 +89,22 @@ public class SessionServiceController {
     @Autowired
     private SessionService sessionService;
 
+    @Autowired
+    private SessionResponseCache sessionResponseCache;
+
+    @Autowired
+    private SessionEventFeed sessionEventFeed;
+
+    @Autowired
+    private SessionTracing sessionTracing;
+
     @RequestMapping(method = RequestMethod.POST, value="/{source}/{type}")
     @JsonView(Session.Views.IdOnly.class)
     public Session upsertSession(@PathVariable String source,
         @PathVariable SessionType type, 
         @RequestBody String data) { 
-        return sessionService.upsertSession(source, type, data);
+        return sessionTracing.observe("controller upsert", type, data.length(),
+            () -> sessionService.upsertSession(source, type, data));
     }
 
     @RequestMapping(method = RequestMethod.POST, value="/{source}/{type}/{id}")
@@ -85,41 +113,184 @@ public class SessionServiceController {
                               @PathVariable SessionType type,
                               @PathVariable String id,
                               @RequestBody String data) {
-        return sessionService.insertSession(id, source, type, data);
+        return sessionTracing.observe("controller insert", type, data.length(),
+            () -> sessionService.insertSession(id, source, type, data));
     }
 
+    @ExpensiveOperation
     @RequestMapping(method = RequestMethod.GET, value="/{source}/{type}")
-    @JsonView(Session.Views.Full.class)
-    public Iterable<Session> getSessions(@PathVariable String source, 
-        @PathVariable SessionType type) {
-        return sessionService.getSessions(source, type);
+    public MappingJacksonValue getSessions(@PathVariable String source, 
+        @PathVariable SessionType type,
+        @Parameter(description = "full or summary")
+        @RequestParam(name="view", defaultValue="full") String view) {
+        boolean summaryOnly = isSummaryView(view);
+        return withView(sessionService.getSessions(source, type, summaryOnly), summaryOnly);
     }
     
+    @ExpensiveOperation
     @RequestMapping(method = RequestMethod.GET, value="/{source}/{type}/query")
-    @JsonView(Session.Views.Full.class)
-    public Iterable<Session> getSessionsByQuery(@PathVariable String source, 
+    public MappingJacksonValue getSessionsByQuery(@PathVariable String source, 
         @PathVariable SessionType type, 
         @RequestParam(name="field") String field,
-        @RequestParam(name="value") String value) {
-        String query = "{\""+field+"\":\""+value+"\"}";
-        return sessionService.getSessionsByQuery(source, type, query);
+        @RequestParam(name="value") String value,
+        @RequestParam(name="page", defaultValue="0") int page,
+        @RequestParam(name="pageSize", defaultValue="0") int pageSize,
+        @RequestParam(name="view", defaultValue="full") String view) {
+        boolean summaryOnly = isSummaryView(view);
+        return withView(sessionService.getSessionsByConditions(source, type,
+            List.of(new QueryCondition(field, QueryOperator.eq, value)), page, pageSize, summaryOnly), summaryOnly);
+    }
+
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.POST, value = "/{source}/{type}/query/structured")
+    public MappingJacksonValue fetchSessionsByConditions(@PathVariable String source,
+            @PathVariable SessionType type,
+            @Parameter(required = true, description = "conditions that must all match, e.g. "
+                + "[{\"field\": \"data.users\", \"op\": \"contains\", \"value\": \"user@example.org\"}]")
+            @RequestBody List<QueryCondition> conditions,
+            @RequestParam(name="page", defaultValue="0") int page,
+            @RequestParam(name="pageSize", defaultValue="0") int pageSize,
+            @RequestParam(name="view", defaultValue="full") String view) {
+        boolean summaryOnly = isSummaryView(view);
+        return withView(sessionService.getSessionsByConditions(source, type, conditions, page, pageSize,
+            summaryOnly), summaryOnly);
     }
 
+    @ExpensiveOperation
     @RequestMapping(method = RequestMethod.POST, value = "/{source}/{type}/query/fetch")
-    @JsonView(Session.Views.Full.class)
-    public Iterable<Session> fetchSessionsByQuery(@PathVariable String source,
+    public MappingJacksonValue fetchSessionsByQuery(@PathVariable String source,
             @PathVariable SessionType type,
             @Parameter(required = true, description = "selection filter similar to mongo filter")
-            @RequestBody String query) {
-        return sessionService.getSessionsByQuery(source, type, query);
+            @RequestBody String query,
+            @RequestParam(name="page", defaultValue="0") int page,
+            @RequestParam(name="pageSize", defaultValue="0") int pageSize,
+            @RequestParam(name="view", defaultValue="full") String view) {
+        boolean summaryOnly = isSummaryView(view);
+        return withView(sessionService.getSessionsByQuery(source, type, query, page, pageSize, summaryOnly),
+            summaryOnly);
+    }
+
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.GET, value = "/{source}/{type}/query/search")
+    public MappingJacksonValue searchSessions(@PathVariable String source,
+        @PathVariable SessionType type,
+        @Parameter(description = "words to search for, \"quoted phrases\" and -excluded words are supported")
+        @RequestParam(name="q") String text,
+        @RequestParam(name="page", defaultValue="0") int page,
+        @RequestParam(name="pageSize", defaultValue="0") int pageSize,
+        @RequestParam(name="view", defaultValue="full") String view) {
+        boolean summaryOnly = isSummaryView(view);
+        return withView(sessionService.searchSessions(source, type, text, page, pageSize, summaryOnly), summaryOnly);
+    }
+
+    private boolean isSummaryView(String view) {
+        if (view.equals("summary")) {
+            return true;
+        }
+        if (view.equals("full")) {
+            return false;
+        }
+        throw new SessionQueryInvalidException("view must be full or summary");
+    }
+
+    private MappingJacksonValue withView(List<Session> sessions, boolean summaryOnly) {
+        MappingJacksonValue body = new MappingJacksonValue(sessions);
+        body.setSerializationView(summaryOnly ? Session.Views.Summary.class : Session.Views.Full.class);
+        return body;
+    }
+
+    @RequestMapping(method = RequestMethod.GET, value = "/{source}/{type}/users/{user}")
+    public List<UserSessionEntry> getUserSessions(@PathVariable String source,
+        @PathVariable SessionType type,
+        @PathVariable String user) {
+        return sessionService.getUserSessions(source, type, user);
+    }
+
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.GET, value = "/{source}/{type}/query/count")
+    public long countSessions(@PathVariable String source,
+        @PathVariable SessionType type,
+        @RequestParam(name="field", required=false) String field,
+        @RequestParam(name="value", required=false) String value) {
+        if (field == null) {
+            return sessionService.countSessions(source, type, null);
+        }
+        return sessionService.countSessions(source, type,
+            List.of(new QueryCondition(field, QueryOperator.eq, value)));
+    }
+
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.POST, value = "/{source}/{type}/query/structured/count")
+    public long countSessionsByConditions(@PathVariable String source,
+        @PathVariable SessionType type,
+        @RequestBody List<QueryCondition> conditions) {
+        return sessionService.countSessions(source, type, conditions);
     }
 
-    @RequestMapping(value = "/{source}/{type}/{id}", method = RequestMethod.GET)
-    @JsonView(Session.Views.Full.class)
-    public Session getSession(@PathVariable String source, 
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.GET, value = "/{source}/{type}/query/count/by")
+    public List<GroupCount> countSessionsByField(@PathVariable String source,
+        @PathVariable SessionType type,
+        @Parameter(description = "field to group by, e.g. data.studyId")
+        @RequestParam(name="field") String field) {
+        return sessionService.countSessionsByField(source, type, field);
+    }
+
+    @RequestMapping(value = "/{source}/{type}/{id}", method = RequestMethod.GET,
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponse(responseCode = "200", content = @Content(schema = @Schema(implementation = Session.class)))
+    public ResponseEntity<byte[]> getSession(@PathVariable String source, 
+        @PathVariable SessionType type,
+        @PathVariable String id,
+        @Parameter(hidden = true) @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+        String acceptEncoding) {
+        Session session = sessionTracing.observe("controller get", type,
+            () -> sessionService.getSession(source, type, id));
+        // served from pre-rendered bytes, equivalent to @JsonView(Session.Views.Full.class)
+        RenderedSession rendered = sessionTracing.observe("controller render", type,
+            () -> sessionResponseCache.render(session, Session.Views.Full.class,
+                SessionResponseCache.acceptsGzip(acceptEncoding)));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (rendered.isGzipped()) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(rendered.getBody());
+    }
+
+    @RequestMapping(value = "/{source}/{type}/{id}/events", method = RequestMethod.GET,
+        produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watchSession(@PathVariable String source,
+        @PathVariable SessionType type,
+        @PathVariable String id) {
+        // 404 for sessions that do not exist (or belong to another source), the
+        // id of the existing session if the id is an alias
+        return sessionEventFeed.subscribe(type, sessionService.getSession(source, type, id).getId());
+    }
+
+    @RequestMapping(value = "/{source}/{type}/{id}/versions", method = RequestMethod.GET)
+    public List<SessionVersion> getSessionVersions(@PathVariable String source,
         @PathVariable SessionType type,
         @PathVariable String id) {
-        return sessionService.getSession(source, type, id);
+        return sessionService.getSessionVersions(source, type, id);
+    }
+
+    @RequestMapping(value = "/{source}/{type}/{id}/versions/{version}", method = RequestMethod.GET)
+    public Object getSessionVersion(@PathVariable String source,
+        @PathVariable SessionType type,
+        @PathVariable String id,
+        @PathVariable int version) {
+        return sessionService.getSessionVersion(source, type, id, version);
+    }
+
+    @RequestMapping(value = "/{source}/{type}/{id}/diff", method = RequestMethod.GET)
+    public List<Document> diffSessionVersions(@PathVariable String source,
+        @PathVariable SessionType type,
+        @PathVariable String id,
+        @RequestParam(name="from") int from,
+        @RequestParam(name="to") int to) {
+        return sessionService.diffSessionVersions(source, type, id, from, to);
     }
 
     @RequestMapping(value = "/{source}/{type}/{id}", method = RequestMethod.PUT)
@@ -127,7 +298,8 @@ public class SessionServiceController {
         @PathVariable SessionType type,
         @PathVariable String id, 
         @RequestBody String data) {
-        sessionService.updateSession(source, type, id, data);
+        sessionTracing.observe("controller update", type, data.length(),
+            () -> sessionService.updateSession(source, type, id, data));
     }
 
     @RequestMapping(value = "/{source}/{type}/{id}", method = RequestMethod.DELETE)
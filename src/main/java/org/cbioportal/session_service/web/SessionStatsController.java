@@ -0,0 +1,50 @@
+package org.cbioportal.session_service.web;
+
+import java.io.IOException;
+import java.util.List;
+import org.cbioportal.session_service.query.SessionStats;
+import org.cbioportal.session_service.service.SessionService;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Session counts and sizes per source and type. Computing them reads every
+ * session of the collections involved, so they are administration
+ * endpoints.
+ */
+@RestController
+@RequestMapping(value = "/api/admin/")
+@ConditionalOnProperty(name = "session.stats.admin-endpoint.enabled", havingValue = "true")
+public class SessionStatsController {
+
+    @Autowired
+    private SessionService sessionService;
+
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.GET, value = "/stats")
+    public List<SessionStats> getSessionStats() {
+        return sessionService.getSessionStats(null);
+    }
+
+    @ExpensiveOperation
+    @RequestMapping(method = RequestMethod.GET, value = "/stats/{source}")
+    public List<SessionStats> getSessionStats(@PathVariable String source) {
+        return sessionService.getSessionStats(source);
+    }
+
+    // ran past the time limit
+    @ExceptionHandler
+    public void handleSessionQueryInvalid(SessionQueryInvalidException e, HttpServletResponse response)
+        throws IOException {
+        response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+    }
+}
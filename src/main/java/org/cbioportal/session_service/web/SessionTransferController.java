@@ -0,0 +1,65 @@
+package org.cbioportal.session_service.web;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.cbioportal.session_service.transfer.SessionTransfer;
+import org.cbioportal.session_service.transfer.TransferFormat;
+import org.cbioportal.session_service.transfer.TransferResult;
+import org.cbioportal.session_service.transfer.TransferRunner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Export and import of whole session collections to and from directories
+ * below session.transfer.directory. Requests block until the transfer is done.
+ */
+@RestController
+@RequestMapping(value = "/api/admin/")
+@ConditionalOnProperty(name = "session.transfer.endpoint.enabled", havingValue = "true")
+public class SessionTransferController {
+
+    @Value("${session.transfer.directory}")
+    private Path directory;
+
+    @Autowired
+    private SessionTransfer sessionTransfer;
+
+    @RequestMapping(method = RequestMethod.POST, value = "/export/{name}")
+    public List<TransferResult> exportSessions(@PathVariable String name,
+                                               @RequestParam(required = false) String types,
+                                               @RequestParam(defaultValue = "NDJSON") TransferFormat format)
+        throws IOException {
+        return sessionTransfer.export(resolve(name), TransferRunner.parseTypes(types), format);
+    }
+
+    @RequestMapping(method = RequestMethod.POST, value = "/import/{name}")
+    public List<TransferResult> importSessions(@PathVariable String name,
+                                               @RequestParam(required = false) String types) throws IOException {
+        return sessionTransfer.importSessions(resolve(name), TransferRunner.parseTypes(types));
+    }
+
+    @ExceptionHandler
+    public void handleTransferFailed(IllegalStateException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpStatus.CONFLICT.value(), e.getMessage());
+    }
+
+    private Path resolve(String name) {
+        Path resolved = directory.resolve(name).normalize();
+        if (!resolved.startsWith(directory.normalize()) || resolved.equals(directory.normalize())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid directory name " + name);
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,114 @@
+package org.cbioportal.session_service;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionRepository;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.journal.AsyncSessionWriter;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(
+    classes = SessionService.class,
+    properties = {
+        "de.flapdoodle.mongodb.embedded.version=6.0.5",
+        "spring.mvc.pathmatch.matching-strategy=ANT_PATH_MATCHER",
+        "session.async-write.enabled=true",
+        "session.async-write.directory=target/session-journal-test",
+        // drained by the tests
+        "session.async-write.drain-interval-ms=3600000"
+    }
+)
+public class AsyncSessionWriterTest {
+
+    @Autowired
+    private org.cbioportal.session_service.service.SessionService sessionService;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private AsyncSessionWriter asyncSessionWriter;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @After
+    public void tearDown() {
+        mongoTemplate.dropCollection("virtual_study");
+        mongoTemplate.dropCollection(AsyncSessionWriter.ALIASES);
+    }
+
+    @Test
+    public void newSessionsDuplicatingAStoredSessionBecomeAliasesOfIt() {
+        Session stored = storeDirectly("{\"name\": \"stored\"}");
+
+        Session accepted = sessionService.upsertSession("msk_portal", SessionType.virtual_study,
+            "{\"name\": \"stored\"}");
+        asyncSessionWriter.drain();
+
+        assertThat(sessionService.getSession("msk_portal", SessionType.virtual_study, accepted.getId()).getId(),
+            equalTo(stored.getId()));
+    }
+
+    @Test
+    public void updatesWriteTheirPendingSessionFirst() {
+        Session accepted = sessionService.upsertSession("msk_portal", SessionType.virtual_study,
+            "{\"name\": \"pending\"}");
+
+        sessionService.updateSession("msk_portal", SessionType.virtual_study, accepted.getId(),
+            "{\"name\": \"updated\"}");
+        asyncSessionWriter.drain();
+
+        Session stored = sessionRepository.findOneBySourceAndTypeAndId("msk_portal", SessionType.virtual_study,
+            accepted.getId());
+        assertThat(stored.getData().toString(), containsString("updated"));
+        assertThat(asyncSessionWriter.get(SessionType.virtual_study, accepted.getId()), nullValue());
+    }
+
+    @Test
+    public void queriesByIdFindTheSessionAnAliasPointsTo() {
+        Session accepted = sessionService.upsertSession("msk_portal", SessionType.virtual_study,
+            "{\"name\": \"aliased\"}");
+        // stored by another instance before this one drained
+        Session stored = storeDirectly("{\"name\": \"aliased\"}");
+        asyncSessionWriter.drain();
+
+        List<Session> found = sessionService.getSessionsByQuery("msk_portal", SessionType.virtual_study,
+            "{\"_id\": {\"$in\": [\"" + accepted.getId() + "\"]}}");
+
+        assertThat(found.stream().map(Session::getId).collect(Collectors.toList()), contains(stored.getId()));
+        assertThat(sessionService.getSession("msk_portal", SessionType.virtual_study, accepted.getId()).getId(),
+            equalTo(stored.getId()));
+    }
+
+    @Test
+    public void queriesByIdWritePendingSessionsFirst() {
+        Session accepted = sessionService.upsertSession("msk_portal", SessionType.virtual_study,
+            "{\"name\": \"pending\"}");
+
+        List<Session> found = sessionService.getSessionsByQuery("msk_portal", SessionType.virtual_study,
+            "{\"_id\": \"" + accepted.getId() + "\"}");
+
+        assertThat(found, hasSize(1));
+    }
+
+    private Session storeDirectly(String data) {
+        Session session = new Session();
+        session.setSource("msk_portal");
+        session.setType(SessionType.virtual_study);
+        session.setData(data);
+        sessionRepository.insertSession(session);
+        return session;
+    }
+}
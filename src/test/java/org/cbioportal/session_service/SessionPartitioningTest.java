@@ -0,0 +1,131 @@
+package org.cbioportal.session_service;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionRepository;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(
+    classes = SessionService.class,
+    properties = {
+        "de.flapdoodle.mongodb.embedded.version=6.0.5",
+        "spring.mvc.pathmatch.matching-strategy=ANT_PATH_MATCHER",
+        "session.partitioning.enabled=true",
+        "session.partitioning.fallback=true"
+    }
+)
+public class SessionPartitioningTest {
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @After
+    public void tearDown() {
+        mongoTemplate.dropCollection("virtual_study");
+        mongoTemplate.dropCollection("virtual_study__msk_portal");
+    }
+
+    @Test
+    public void migrationMovesSessionsIntoTheirPartition() {
+        String id = insertShared("{\"name\": \"moved\"}");
+
+        assertThat(sessionRepository.migrateToPartitions(SessionType.virtual_study), equalTo(1L));
+
+        assertThat(mongoTemplate.count(new Query(), "virtual_study"), equalTo(0L));
+        assertThat(sessionRepository.findOneBySourceAndTypeAndId("msk_portal", SessionType.virtual_study, id),
+            notNullValue());
+    }
+
+    @Test
+    public void sessionsDuplicatingAPartitionedSessionStayInTheSharedCollection() {
+        Session existing = session("{\"name\": \"same\"}");
+        sessionRepository.upsertSession(existing);
+        String duplicate = insertShared("{\"name\": \"same\"}");
+
+        assertThat(sessionRepository.migrateToPartitions(SessionType.virtual_study), equalTo(0L));
+
+        // still found through the fallback, not deleted
+        Session found = sessionRepository.findOneBySourceAndTypeAndId("msk_portal", SessionType.virtual_study,
+            duplicate);
+        assertThat(found, notNullValue());
+        assertThat(found.getId(), equalTo(duplicate));
+        assertThat(sessionRepository.findOneBySourceAndTypeAndId("msk_portal", SessionType.virtual_study,
+            existing.getId()), notNullValue());
+    }
+
+    @Test
+    public void aSessionCopiedBeforeAnInterruptedMigrationIsRemovedFromTheSharedCollection() {
+        String id = insertShared("{\"name\": \"copied\"}");
+        Document copy = mongoTemplate.getCollection("virtual_study").find().first();
+        mongoTemplate.getCollection("virtual_study__msk_portal").insertOne(copy);
+
+        assertThat(sessionRepository.migrateToPartitions(SessionType.virtual_study), equalTo(1L));
+
+        assertThat(mongoTemplate.getCollection("virtual_study").countDocuments(), equalTo(0L));
+        assertThat(sessionRepository.findOneBySourceAndTypeAndId("msk_portal", SessionType.virtual_study, id),
+            notNullValue());
+    }
+
+    @Test
+    public void fallbackListsArePagedAcrossBothCollections() {
+        for (int i = 0; i < 3; i++) {
+            sessionRepository.upsertSession(session("{\"name\": \"partition\", \"rank\": " + (2 * i) + "}"));
+            insertShared("{\"name\": \"shared\", \"rank\": " + (2 * i + 1) + "}");
+        }
+        Query query = new Query().with(Sort.by("data.rank")).skip(1).limit(3);
+
+        List<Session> page = sessionRepository.findBySourceAndTypeAndQuery("msk_portal", SessionType.virtual_study,
+            query);
+
+        assertThat(page.stream().map(session -> ((Number) ((Document) session.getData()).get("rank")).intValue())
+            .collect(Collectors.toList()), contains(1, 2, 3));
+        assertThat(sessionRepository.countBySourceAndTypeAndQuery("msk_portal", SessionType.virtual_study,
+            new Query()), equalTo(6L));
+    }
+
+    @Test
+    public void sessionsInBothCollectionsAreCountedOnce() {
+        insertShared("{\"name\": \"both\"}");
+        Document copy = mongoTemplate.getCollection("virtual_study").find().first();
+        mongoTemplate.getCollection("virtual_study__msk_portal").insertOne(copy);
+
+        assertThat(sessionRepository.countBySourceAndTypeAndQuery("msk_portal", SessionType.virtual_study,
+            new Query()), equalTo(1L));
+        assertThat(sessionRepository.findBySourceAndTypeAndQuery("msk_portal", SessionType.virtual_study,
+            new Query().limit(10)), hasSize(1));
+    }
+
+    private String insertShared(String data) {
+        Session session = session(data);
+        session.setId(new ObjectId().toHexString());
+        mongoTemplate.insert(session, "virtual_study");
+        return session.getId();
+    }
+
+    private static Session session(String data) {
+        Session session = new Session();
+        session.setSource("msk_portal");
+        session.setType(SessionType.virtual_study);
+        session.setData(data);
+        return session;
+    }
+}
@@ -503,6 +503,159 @@ public class SessionServiceTest {
         assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
     }
 
+    @Test
+    public void sessionIdsNamedLikeQueryRoutesAreReadable() throws Exception {
+        String data = "\"portal-session\":\"my session information\"";
+        for (String id : new String[] {"count", "search", "stats"}) {
+            ResponseEntity<String> response = insertSession("msk_portal", "main_session", id, data + ",\"name\":\"" + id + "\"");
+            assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+
+            response = template.getForEntity(base.toString() + "msk_portal/main_session/" + id, String.class);
+            assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+            assertThat(parseIds(response.getBody()), contains(id));
+        }
+    }
+
+    @Test
+    public void countSessions() throws Exception {
+        addData("msk_portal", "main_session", "\"portal-session\":\"first\"");
+        addData("msk_portal", "main_session", "\"portal-session\":\"second\"");
+
+        ResponseEntity<String> response = template.getForEntity(base.toString() + "msk_portal/main_session/query/count", String.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(response.getBody(), equalTo("2"));
+
+        response = template.getForEntity(base.toString()
+            + "msk_portal/main_session/query/count?field=data.portal-session&value=first", String.class);
+        assertThat(response.getBody(), equalTo("1"));
+    }
+
+    @Test
+    public void statsAreNotServedUnderSessions() throws Exception {
+        ResponseEntity<String> response = template.getForEntity(base.toString() + "stats", String.class);
+        assertThat(response.getStatusCode(), not(equalTo(HttpStatus.OK)));
+    }
+
+    @Test
+    public void getSessionServesRenderedJson() throws Exception {
+        String data = "\"portal-session\":\"my session information\"";
+        String id = parseIds(addData("msk_portal", "main_session", data).getBody()).get(0);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+        ResponseEntity<String> first = template.exchange(base.toString() + "msk_portal/main_session/" + id,
+            HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertThat(first.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(first.getHeaders().getContentType().isCompatibleWith(MediaType.APPLICATION_JSON), equalTo(true));
+        assertThat(expectedResponse(first.getBody(), "msk_portal", "main_session", data), equalTo(true));
+
+        // the second read is served from the rendered bytes
+        ResponseEntity<String> second = template.getForEntity(base.toString() + "msk_portal/main_session/" + id, String.class);
+        assertThat(second.getBody(), equalTo(first.getBody()));
+    }
+
+    @Test
+    public void getSessionOnlyProducesJson() throws Exception {
+        String data = "\"portal-session\":\"my session information\"";
+        String id = parseIds(addData("msk_portal", "main_session", data).getBody()).get(0);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(MediaType.TEXT_PLAIN));
+        ResponseEntity<String> response = template.exchange(base.toString() + "msk_portal/main_session/" + id,
+            HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.NOT_ACCEPTABLE));
+    }
+
+    @Test
+    public void fetchSessionWithQueryRejectsOperatorsOutsideTheAllowList() throws Exception {
+        addData("msk_portal", "main_session", "\"portal-session\":{\"title\":\"my portal session\"}");
+
+        for (String filter : new String[] {
+            "\"$where\":\"sleep(1000) || true\"",
+            "\"data.portal-session.title\":{\"$regex\":\".*portal.*\"}"}) {
+            ResponseEntity<String> response = template.exchange(base.toString() + "msk_portal/main_session/query/fetch",
+                HttpMethod.POST, prepareData(filter), String.class);
+            assertThat(response.getBody(), containsString("SessionQueryInvalidException"));
+            assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+        }
+    }
+
+    @Test
+    public void fetchSessionWithQueryIsPaged() throws Exception {
+        addData("msk_portal", "main_session", "\"portal-session\":{\"title\":\"first\"},\"kind\":\"paged\"");
+        addData("msk_portal", "main_session", "\"portal-session\":{\"title\":\"second\"},\"kind\":\"paged\"");
+        HttpEntity<String> filter = prepareData("\"data.kind\":\"paged\"");
+
+        List<String> pages = new ArrayList<>();
+        for (int page = 0; page < 3; page++) {
+            ResponseEntity<String> response = template.exchange(base.toString()
+                + "msk_portal/main_session/query/fetch?pageSize=1&page=" + page, HttpMethod.POST, filter, String.class);
+            assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+            pages.addAll(parseIds(response.getBody()));
+        }
+        assertThat(pages, hasSize(2));
+        assertThat(pages.get(0).compareTo(pages.get(1)), lessThan(0));
+
+        ResponseEntity<String> response = template.exchange(base.toString()
+            + "msk_portal/main_session/query/fetch?page=-1", HttpMethod.POST, filter, String.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void getSessionWithQueryRejectsTheSource() throws Exception {
+        addData("msk_portal", "main_session", "\"portal-session\":\"my session information\"");
+
+        // the source comes from the path, querying it could read another source
+        ResponseEntity<String> response = template.getForEntity(base.toString()
+            + "msk_portal/main_session/query?field=source&value=other_portal", String.class);
+        assertThat(response.getBody(), containsString("SessionQueryInvalidException"));
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void fetchSessionWithConditions() throws Exception {
+        String data = "\"portal-session\":{\"title\":\"my portal session\"},\"users\":[\"user@example.org\"],\"created\":10";
+        addData("msk_portal", "main_session", data);
+        addData("msk_portal", "main_session", "\"portal-session\":{\"title\":\"other\"},\"users\":[\"user@example.org\"],\"created\":1");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> conditions = new HttpEntity<>("[{\"field\": \"data.users\", \"op\": \"contains\", \"value\": \"user@example.org\"},"
+            + "{\"field\": \"data.created\", \"op\": \"gte\", \"value\": 5}]", headers);
+        ResponseEntity<String> response = template.exchange(base.toString() + "msk_portal/main_session/query/structured",
+            HttpMethod.POST, conditions, String.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(expectedResponse(response.getBody(), "msk_portal", "main_session", data, true), equalTo(true));
+
+        HttpEntity<String> invalid = new HttpEntity<>("[{\"field\": \"data.created\", \"op\": \"gte\", \"value\": {\"$where\": \"1\"}}]", headers);
+        response = template.exchange(base.toString() + "msk_portal/main_session/query/structured",
+            HttpMethod.POST, invalid, String.class);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void upsertSessionShortSource() throws Exception {
+        // validated by the service before anything is parsed or stored
+        ResponseEntity<String> response = addData("ab", "main_session", "\"portal-session\":\"my session information\"");
+        assertThat(response.getBody(), containsString("org.cbioportal.session_service.service.exception.SessionInvalidException"));
+        assertThat(response.getBody(), containsString("source has a minimum length of 3"));
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+
+        response = insertSession("ab", "main_session", "custom_vs_id", "\"portal-session\":\"my session information\"");
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+
+        response = template.getForEntity(base.toString() + "ab/main_session", String.class);
+        assertThat(response.getBody(), equalTo("[]"));
+    }
+
+    @Test
+    public void updateSessionShortSource() throws Exception {
+        ResponseEntity<String> response = template.exchange(base.toString() + "ab/main_session/some_id",
+            HttpMethod.PUT, prepareData("\"portal-session\":\"my session information\""), String.class);
+        assertThat(response.getBody(), containsString("org.cbioportal.session_service.service.exception.SessionInvalidException"));
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
     private HttpEntity<String> prepareData(String data) throws Exception {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -0,0 +1,46 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void containsEveryInsertedValue() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        String[] ids = new String[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new ObjectId().toHexString();
+            filter.put(ids[i]);
+        }
+        for (String id : ids) {
+            assertThat(filter.mightContain(id), equalTo(true));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateStaysNearConfiguredValue() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(new ObjectId().toHexString());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("missing-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives, lessThan(300));
+        assertThat(filter.expectedFpp(), lessThan(0.03));
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        assertThat(filter.mightContain("57167a52ef86d81afb415aba"), equalTo(false));
+        assertThat(filter.expectedFpp(), equalTo(0.0));
+    }
+}
@@ -0,0 +1,131 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Date;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionCacheTest {
+
+    private RemoteCache remoteCache;
+    private SessionCache replica;
+    private SessionCache otherReplica;
+
+    @Before
+    public void setUp() {
+        remoteCache = new InProcessRemoteCache();
+        replica = cache(remoteCache);
+        otherReplica = cache(remoteCache);
+    }
+
+    @Test
+    public void deletingASourceEvictsItsSessionsOnEveryReplica() {
+        put(replica, session("a", "msk_portal"));
+        put(replica, session("b", "other"));
+        assertThat(otherReplica.get(SessionType.virtual_study, "a"), notNullValue());
+
+        replica.evictSource("msk_portal");
+
+        assertThat(replica.get(SessionType.virtual_study, "a"), nullValue());
+        assertThat(otherReplica.get(SessionType.virtual_study, "a"), nullValue());
+        assertThat(replica.get(SessionType.virtual_study, "b"), notNullValue());
+    }
+
+    @Test
+    public void sessionsCachedAfterTheSourceWasDeletedAreServed() throws InterruptedException {
+        replica.evictSource("msk_portal");
+        Thread.sleep(2);
+
+        put(replica, session("a", "msk_portal"));
+
+        assertThat(otherReplica.get(SessionType.virtual_study, "a"), notNullValue());
+    }
+
+    @Test
+    public void aReadThatStartedBeforeAnUpdateIsNotCached() {
+        long generation = replica.generation(SessionType.virtual_study, "a");
+        Session stale = session("a", "msk_portal");
+
+        // the update evicts while the read is in flight
+        replica.evict(SessionType.virtual_study, "a");
+        replica.put(stale, generation);
+
+        assertThat(replica.get(SessionType.virtual_study, "a"), nullValue());
+        assertThat(otherReplica.get(SessionType.virtual_study, "a"), nullValue());
+    }
+
+    @Test
+    public void anInvalidationFromAnotherReplicaStopsARacingRead() {
+        put(replica, session("a", "msk_portal"));
+        assertThat(otherReplica.get(SessionType.virtual_study, "a"), notNullValue());
+        long generation = otherReplica.generation(SessionType.virtual_study, "a");
+
+        replica.evict(SessionType.virtual_study, "a");
+        otherReplica.put(session("a", "msk_portal"), generation);
+
+        assertThat(otherReplica.get(SessionType.virtual_study, "a"), nullValue());
+    }
+
+    @Test
+    public void callersGetTheirOwnCopy() {
+        Session session = session("a", "msk_portal");
+        put(replica, session);
+
+        Session first = replica.get(SessionType.virtual_study, "a");
+        first.setData("{\"name\": \"changed\"}");
+
+        assertThat(first, not(sameInstance(session)));
+        assertThat(replica.get(SessionType.virtual_study, "a").getChecksum(), equalTo(session.getChecksum()));
+    }
+
+    @Test
+    public void theRemoteTierKeepsTheTypesOfTheData() {
+        Date created = new Date(1700000000000L);
+        Session session = session("a", "msk_portal");
+        session.setData(new Document("count", 5L)
+            .append("small", 5)
+            .append("created", created)
+            .append("nested", new Document("total", 1L << 40)));
+        put(replica, session);
+
+        // read from the remote tier, the other replica has no near copy
+        Session cached = otherReplica.get(SessionType.virtual_study, "a");
+
+        Document data = (Document) cached.getData();
+        assertThat(data.get("count"), equalTo(5L));
+        assertThat(data.get("small"), equalTo(5));
+        assertThat(data.get("created"), equalTo(created));
+        assertThat(data.get("nested", Document.class).get("total"), equalTo(1L << 40));
+        assertThat(cached.getChecksum(), equalTo(session.getChecksum()));
+    }
+
+    private static void put(SessionCache cache, Session session) {
+        cache.put(session, cache.generation(session.getType(), session.getId()));
+    }
+
+    private static SessionCache cache(RemoteCache remoteCache) {
+        SessionCache cache = new SessionCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "nearMaxEntries", 100);
+        ReflectionTestUtils.setField(cache, "nearTtlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "remoteTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(cache, "remoteCache", remoteCache);
+        cache.init();
+        return cache;
+    }
+
+    private static Session session(String id, String source) {
+        Session session = new Session();
+        session.setId(id);
+        session.setSource(source);
+        session.setType(SessionType.virtual_study);
+        session.setData("{\"name\": \"" + id + "\"}");
+        return session;
+    }
+}
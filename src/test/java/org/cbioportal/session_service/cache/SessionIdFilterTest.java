@@ -0,0 +1,74 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.events.SessionChangeStreamWatcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionIdFilterTest {
+
+    private SessionChangeStreamWatcher watcher;
+    private SessionIdFilter filter;
+    private final String id = new ObjectId().toHexString();
+
+    @Before
+    public void setUp() {
+        watcher = mock(SessionChangeStreamWatcher.class);
+        filter = new SessionIdFilter();
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "negativeCacheMaxEntries", 100);
+        ReflectionTestUtils.setField(filter, "negativeCacheTtlSeconds", 30L);
+        ReflectionTestUtils.setField(filter, "sessionChangeStreamWatcher", watcher);
+        ReflectionTestUtils.setField(filter, "negativeCacheHits", new SimpleMeterRegistry().counter("hits"));
+    }
+
+    @Test
+    public void missesAreNotRememberedWithoutTheChangeStream() {
+        when(watcher.watchingSince()).thenReturn(0L);
+
+        filter.recordMissing("msk_portal", SessionType.virtual_study, id);
+
+        assertThat(filter.mightExist("msk_portal", SessionType.virtual_study, id), is(true));
+    }
+
+    @Test
+    public void insertsSeenOnTheChangeStreamClearMisses() {
+        when(watcher.watchingSince()).thenReturn(1L);
+        filter.recordMissing("msk_portal", SessionType.virtual_study, id);
+        assertThat(filter.mightExist("msk_portal", SessionType.virtual_study, id), is(false));
+
+        filter.recordInserted("msk_portal", SessionType.virtual_study, id);
+
+        assertThat(filter.mightExist("msk_portal", SessionType.virtual_study, id), is(true));
+    }
+
+    @Test
+    public void missesAreIgnoredOnceTheChangeStreamCloses() {
+        when(watcher.watchingSince()).thenReturn(1L);
+        filter.recordMissing("msk_portal", SessionType.virtual_study, id);
+
+        when(watcher.watchingSince()).thenReturn(0L);
+
+        assertThat(filter.mightExist("msk_portal", SessionType.virtual_study, id), is(true));
+    }
+
+    @Test
+    public void deletingASourceForgetsItsMisses() {
+        when(watcher.watchingSince()).thenReturn(1L);
+        filter.recordMissing("msk_portal", SessionType.virtual_study, id);
+        filter.recordMissing("other", SessionType.virtual_study, id);
+
+        filter.onDeleteSource("msk_portal");
+
+        assertThat(filter.mightExist("msk_portal", SessionType.virtual_study, id), is(true));
+        assertThat(filter.mightExist("other", SessionType.virtual_study, id), is(false));
+    }
+}
@@ -0,0 +1,110 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionQueryCacheTest {
+
+    private static final String SOURCE = "msk_portal";
+    private static final SessionType TYPE = SessionType.virtual_study;
+
+    private final SessionQueryCache cache = new SessionQueryCache();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+    }
+
+    @Test
+    public void filtersAreNormalized() {
+        put(query("{\"data.users\": \"a@example.org\", \"data.name\": \"x\"}"), session("1", "{\"users\": [\"a@example.org\"], \"name\": \"x\"}"));
+
+        assertThat(cache.get(SOURCE, TYPE, query("{\"data.name\": \"x\", \"data.users\": \"a@example.org\"}")),
+            contains("1"));
+    }
+
+    @Test
+    public void insertsInvalidateOnlyFiltersTheyMayMatch() {
+        Query user = query("{\"data.users\": \"a@example.org\"}");
+        Query other = query("{\"data.users\": \"b@example.org\"}");
+        put(user, session("1", "{\"users\": [\"a@example.org\"]}"));
+        put(other, session("2", "{\"users\": [\"b@example.org\"]}"));
+
+        cache.onInsert(session("3", "{\"users\": [\"a@example.org\"]}"));
+
+        assertThat(cache.get(SOURCE, TYPE, user), nullValue());
+        assertThat(cache.get(SOURCE, TYPE, other), contains("2"));
+    }
+
+    @Test
+    public void updatesInvalidateFiltersOnTheChangedPaths() {
+        Query user = query("{\"data.users\": \"a@example.org\"}");
+        Query name = query("{\"data.name\": \"x\"}");
+        Session session = session("1", "{\"users\": [\"a@example.org\"], \"name\": \"x\"}");
+        put(user, session);
+        put(name, session);
+        Object previous = session.getData();
+
+        session.setData("{\"users\": [\"a@example.org\"], \"name\": \"y\"}");
+        cache.onUpdate(session, previous);
+
+        assertThat(cache.get(SOURCE, TYPE, name), nullValue());
+        assertThat(cache.get(SOURCE, TYPE, user), contains("1"));
+    }
+
+    @Test
+    public void deletesInvalidateResultsContainingTheSessionAndLaterPages() {
+        Query first = query("{\"data.name\": \"x\"}");
+        Query second = query("{\"data.name\": \"x\"}").skip(10).limit(10);
+        Query unrelated = query("{\"data.name\": \"y\"}");
+        put(first, session("1", "{\"name\": \"x\"}"));
+        put(second, session("11", "{\"name\": \"x\"}"));
+        put(unrelated, session("2", "{\"name\": \"y\"}"));
+
+        cache.onDelete(SOURCE, TYPE, "1");
+
+        assertThat(cache.get(SOURCE, TYPE, first), nullValue());
+        assertThat(cache.get(SOURCE, TYPE, second), nullValue());
+        assertThat(cache.get(SOURCE, TYPE, unrelated), contains("2"));
+    }
+
+    @Test
+    public void resultsReadBeforeAWriteAreNotCached() {
+        Query query = query("{\"data.name\": \"x\"}");
+        long generation = cache.generation(SOURCE, TYPE);
+
+        cache.onDelete(SOURCE, TYPE, "1");
+        cache.put(SOURCE, TYPE, query, List.of(session("1", "{\"name\": \"x\"}")), generation);
+
+        assertThat(cache.get(SOURCE, TYPE, query), nullValue());
+    }
+
+    private void put(Query query, Session session) {
+        cache.put(SOURCE, TYPE, query, List.of(session), cache.generation(SOURCE, TYPE));
+    }
+
+    private static Query query(String filter) {
+        return new BasicQuery(Document.parse(filter));
+    }
+
+    private static Session session(String id, String data) {
+        Session session = new Session();
+        session.setId(id);
+        session.setSource(SOURCE);
+        session.setType(TYPE);
+        session.setData(data);
+        return session;
+    }
+}
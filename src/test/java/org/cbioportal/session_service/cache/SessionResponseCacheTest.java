@@ -0,0 +1,63 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cbioportal.session_service.cache.SessionResponseCache.RenderedSession;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionResponseCacheTest {
+
+    private SessionResponseCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new SessionResponseCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1048576L);
+        ReflectionTestUtils.setField(cache, "gzipEnabled", true);
+        ReflectionTestUtils.setField(cache, "gzipMinBytes", 16);
+        ReflectionTestUtils.setField(cache, "objectMapper", new ObjectMapper());
+    }
+
+    @Test
+    public void gzipIsAcceptedWithANonZeroQValue() {
+        assertThat(SessionResponseCache.acceptsGzip("gzip"), is(true));
+        assertThat(SessionResponseCache.acceptsGzip("deflate, GZIP;q=0.5"), is(true));
+        assertThat(SessionResponseCache.acceptsGzip("br, *"), is(true));
+    }
+
+    @Test
+    public void gzipIsRefusedWithAZeroQValue() {
+        assertThat(SessionResponseCache.acceptsGzip(null), is(false));
+        assertThat(SessionResponseCache.acceptsGzip("identity"), is(false));
+        assertThat(SessionResponseCache.acceptsGzip("gzip;q=0"), is(false));
+        assertThat(SessionResponseCache.acceptsGzip("gzip; q=0.0, deflate"), is(false));
+        // an explicit gzip entry overrides *
+        assertThat(SessionResponseCache.acceptsGzip("*, gzip;q=0"), is(false));
+        assertThat(SessionResponseCache.acceptsGzip("gzip;q=abc"), is(false));
+    }
+
+    @Test
+    public void sessionsAreOnlyGzippedForClientsAcceptingIt() {
+        Session session = new Session();
+        session.setId("a");
+        session.setSource("msk_portal");
+        session.setType(SessionType.main_session);
+        session.setData("{\"name\": \"a session large enough to be compressed\"}");
+
+        RenderedSession gzipped = cache.render(session, Session.Views.Full.class,
+            SessionResponseCache.acceptsGzip("gzip"));
+        RenderedSession plain = cache.render(session, Session.Views.Full.class,
+            SessionResponseCache.acceptsGzip("gzip;q=0"));
+
+        assertThat(gzipped.isGzipped(), is(true));
+        assertThat(plain.isGzipped(), is(false));
+        assertThat(new String(plain.getBody()), containsString("a session large enough"));
+    }
+}
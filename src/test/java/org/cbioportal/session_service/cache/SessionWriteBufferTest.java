@@ -0,0 +1,142 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionRepository;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.mongo.SessionSharding;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionWriteBufferTest {
+
+    private SessionRepository sessionRepository;
+    private SessionSharding sessionSharding;
+    private SessionQueryCache sessionQueryCache;
+    private MeterRegistry meterRegistry;
+    private SessionWriteBuffer buffer;
+
+    @Before
+    public void setUp() {
+        sessionRepository = mock(SessionRepository.class);
+        sessionSharding = mock(SessionSharding.class);
+        when(sessionSharding.isChecksumUnique(any())).thenReturn(true);
+        sessionQueryCache = new SessionQueryCache();
+        ReflectionTestUtils.setField(sessionQueryCache, "enabled", true);
+        ReflectionTestUtils.setField(sessionQueryCache, "maxEntries", 100);
+        ReflectionTestUtils.setField(sessionQueryCache, "ttlSeconds", 300L);
+        meterRegistry = new SimpleMeterRegistry();
+        buffer = new SessionWriteBuffer();
+        ReflectionTestUtils.setField(buffer, "enabled", true);
+        ReflectionTestUtils.setField(buffer, "types", "settings");
+        ReflectionTestUtils.setField(buffer, "flushSize", 1000);
+        ReflectionTestUtils.setField(buffer, "maxPending", 1000);
+        ReflectionTestUtils.setField(buffer, "sessionRepository", sessionRepository);
+        ReflectionTestUtils.setField(buffer, "sessionSharding", sessionSharding);
+        ReflectionTestUtils.setField(buffer, "sessionQueryCache", sessionQueryCache);
+        ReflectionTestUtils.setField(buffer, "meterRegistry", meterRegistry);
+        buffer.init();
+    }
+
+    @Test
+    public void flushesGoThroughTheRepository() {
+        Session session = session("a", "{\"page\": 1}");
+        assertThat(buffer.offer(session, null), is(true));
+        when(sessionRepository.replaceSessions(anyList())).thenReturn(List.of());
+
+        buffer.flush();
+
+        verify(sessionRepository).replaceSessions(List.of(session));
+        assertThat(buffer.get(SessionType.settings, "a"), nullValue());
+        assertThat(meterRegistry.counter("session.write_behind.flushed").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void flushesInvalidateQueriesCachedBeforeThem() {
+        Query byPage = new BasicQuery("{\"data.page\": 1}");
+        Query byName = new BasicQuery("{\"data.name\": \"a\"}");
+        Session session = session("a", "{\"page\": 2, \"name\": \"a\"}");
+        buffer.offer(session, Document.parse("{\"page\": 1, \"name\": \"a\"}"));
+        buffer.offer(session("a", "{\"page\": 3, \"name\": \"a\"}"), session.getData());
+        // queries running before the flush still see the data MongoDB holds
+        sessionQueryCache.put("msk_portal", SessionType.settings, byPage, List.of(session),
+            sessionQueryCache.generation("msk_portal", SessionType.settings));
+        sessionQueryCache.put("msk_portal", SessionType.settings, byName, List.of(session),
+            sessionQueryCache.generation("msk_portal", SessionType.settings));
+        when(sessionRepository.replaceSessions(anyList())).thenReturn(List.of());
+
+        buffer.flush();
+
+        assertThat(sessionQueryCache.get("msk_portal", SessionType.settings, byPage), nullValue());
+        assertThat(sessionQueryCache.get("msk_portal", SessionType.settings, byName), contains("a"));
+    }
+
+    @Test
+    public void rejectedUpdatesAreDroppedAndCounted() {
+        Session session = session("a", "{\"page\": 1}");
+        buffer.offer(session, null);
+        when(sessionRepository.replaceSessions(anyList())).thenReturn(List.of(session));
+
+        buffer.flush();
+
+        assertThat(buffer.get(SessionType.settings, "a"), nullValue());
+        assertThat(meterRegistry.counter("session.write_behind.dropped").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void updatesStayPendingWhenMongoDbCannotBeReached() {
+        Session session = session("a", "{\"page\": 1}");
+        buffer.offer(session, null);
+        when(sessionRepository.replaceSessions(anyList()))
+            .thenThrow(new DataAccessResourceFailureException("no primary"));
+
+        buffer.flush();
+
+        assertThat(buffer.get(SessionType.settings, "a"), sameInstance(session));
+        assertThat(meterRegistry.counter("session.write_behind.dropped").count(), equalTo(0.0));
+    }
+
+    @Test
+    public void updatesDuplicatingAnotherSessionAreWrittenDirectly() {
+        Session session = session("a", "{\"page\": 1}");
+        when(sessionRepository.findOneBySourceAndTypeAndChecksum("msk_portal", SessionType.settings,
+            session.getChecksum())).thenReturn(session("b", "{\"page\": 1}"));
+
+        assertThat(buffer.offer(session, null), is(false));
+        assertThat(buffer.get(SessionType.settings, "a"), nullValue());
+    }
+
+    @Test
+    public void unbufferedTypesAreNotOffered() {
+        Session session = session("a", "{\"page\": 1}");
+        session.setType(SessionType.virtual_study);
+
+        assertThat(buffer.offer(session, null), is(false));
+        verify(sessionRepository, never()).findOneBySourceAndTypeAndChecksum(any(), any(), any());
+    }
+
+    private static Session session(String id, String data) {
+        Session session = new Session();
+        session.setId(id);
+        session.setSource("msk_portal");
+        session.setType(SessionType.settings);
+        session.setData(data);
+        return session;
+    }
+}
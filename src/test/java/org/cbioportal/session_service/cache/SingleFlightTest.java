@@ -0,0 +1,135 @@
+package org.cbioportal.session_service.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, Session> lookups = new SingleFlight<>(Session::copy);
+
+    @Test
+    public void joinedCallersGetACopy() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Session loaded = session("a", "{\"page\": 1}");
+        AtomicReference<Session> first = new AtomicReference<>();
+        Thread loader = new Thread(() -> first.set(lookups.execute("a", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return loaded;
+        })));
+        loader.start();
+        loading.await();
+
+        AtomicReference<Session> joined = new AtomicReference<>();
+        Thread joiner = new Thread(() -> joined.set(lookups.execute("a", () -> {
+            loads.incrementAndGet();
+            return null;
+        })));
+        joiner.start();
+        waitUntilBlocked(joiner);
+        release.countDown();
+        loader.join();
+        joiner.join();
+
+        assertThat(loads.get(), equalTo(1));
+        assertThat(first.get(), sameInstance(loaded));
+        assertThat(joined.get(), not(sameInstance(loaded)));
+        assertThat(joined.get().getId(), equalTo("a"));
+        assertThat(joined.get().getChecksum(), equalTo(loaded.getChecksum()));
+    }
+
+    @Test
+    public void callersAfterAWriteDoNotJoinAnEarlierLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread stale = new Thread(() -> lookups.execute("a", () -> {
+            loading.countDown();
+            await(release);
+            return session("a", "{\"page\": 1}");
+        }));
+        stale.start();
+        loading.await();
+
+        // the write completed while the stale load was in flight
+        lookups.forget("a");
+        Session fresh = lookups.execute("a", () -> session("a", "{\"page\": 2}"));
+
+        assertThat(fresh.getData().toString(), containsString("page=2"));
+        release.countDown();
+        stale.join();
+    }
+
+    @Test
+    public void aForgottenLoadDoesNotDetachItsSuccessor() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread stale = new Thread(() -> lookups.execute("a", () -> {
+            loading.countDown();
+            await(release);
+            return null;
+        }));
+        stale.start();
+        loading.await();
+        lookups.forget("a");
+
+        CountDownLatch secondLoading = new CountDownLatch(1);
+        CountDownLatch secondRelease = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Thread second = new Thread(() -> lookups.execute("a", () -> {
+            loads.incrementAndGet();
+            secondLoading.countDown();
+            await(secondRelease);
+            return session("a", "{\"page\": 2}");
+        }));
+        second.start();
+        secondLoading.await();
+        // the stale load completing must not remove the second one
+        release.countDown();
+        stale.join();
+
+        Thread joiner = new Thread(() -> lookups.execute("a", () -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        joiner.start();
+        waitUntilBlocked(joiner);
+        secondRelease.countDown();
+        second.join();
+        joiner.join();
+
+        assertThat(loads.get(), equalTo(1));
+    }
+
+    private static Session session(String id, String data) {
+        Session session = new Session();
+        session.setId(id);
+        session.setSource("msk_portal");
+        session.setType(SessionType.settings);
+        session.setData(data);
+        return session;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.cbioportal.session_service.domain.internal;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionCollectionsTest {
+
+    private final SessionCollections collections = new SessionCollections();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(collections, "environment",
+            new MockEnvironment()
+                .withProperty("session.partitioning.group.small_a", "small")
+                .withProperty("session.partitioning.group.foo", "bar"));
+        ReflectionTestUtils.setField(collections, "enabled", true);
+    }
+
+    @Test
+    public void sourcesGetCollectionsOfTheirOwn() {
+        assertThat(collections.collection(SessionType.virtual_study, "portal"), equalTo("virtual_study__portal"));
+        assertThat(collections.collection(SessionType.group, "small_a"), equalTo("group__small"));
+        assertThat(collections.isExclusive("portal"), is(true));
+        assertThat(collections.isExclusive("small_a"), is(false));
+    }
+
+    @Test
+    public void sourcesSharingTheirPartitionWithAGroupAreNotExclusive() {
+        // the group of foo is named like the source bar
+        assertThat(collections.collection(SessionType.group, "foo"), equalTo("group__bar"));
+        assertThat(collections.collection(SessionType.group, "bar"), equalTo("group__bar"));
+        assertThat(collections.isExclusive("bar"), is(false));
+        assertThat(collections.isExclusive("foo"), is(false));
+        assertThat(collections.isExclusive("other"), is(true));
+    }
+
+    @Test
+    public void unusualSourceNamesAreHashed() {
+        String partition = collections.partition("my portal$");
+        assertThat(partition, matchesPattern("h[0-9a-f]{32}"));
+        assertThat(collections.partition("a__b"), not(equalTo("a__b")));
+        assertThat(collections.partition("my portal$"), equalTo(partition));
+    }
+
+    @Test
+    public void collectionNamesMapBackToTheirType() {
+        assertThat(collections.typeOf("virtual_study"), equalTo(SessionType.virtual_study));
+        assertThat(collections.typeOf("virtual_study__portal"), equalTo(SessionType.virtual_study));
+        assertThat(collections.typeOf("virtual_study_versions"), nullValue());
+        assertThat(collections.typeOf("session_user_index"), nullValue());
+        assertThat("custom_data__portal".matches(collections.namePattern()), is(true));
+        assertThat("custom_data_versions".matches(collections.namePattern()), is(false));
+    }
+
+    @Test
+    public void sharedCollectionsWithoutPartitioning() {
+        ReflectionTestUtils.setField(collections, "enabled", false);
+        assertThat(collections.collection(SessionType.settings, "portal"), equalTo("settings"));
+    }
+}
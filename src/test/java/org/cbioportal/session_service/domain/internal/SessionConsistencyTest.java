@@ -0,0 +1,64 @@
+package org.cbioportal.session_service.domain.internal;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoDatabase;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionConsistency.ReadOperation;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionConsistencyTest {
+
+    private MongoDatabase database;
+    private SessionConsistency consistency;
+
+    @Before
+    public void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        database = mock(MongoDatabase.class);
+        when(mongoTemplate.getDb()).thenReturn(database);
+        when(database.getReadPreference()).thenReturn(ReadPreference.primary());
+        consistency = new SessionConsistency();
+        ReflectionTestUtils.setField(consistency, "environment", new MockEnvironment()
+            .withProperty("session.read-preference.virtual_study.get", "secondaryPreferred")
+            .withProperty("session.read-preference.default", "primary")
+            .withProperty("session.write-concern.virtual_study", "majority,j"));
+        ReflectionTestUtils.setField(consistency, "mongoTemplate", mongoTemplate);
+    }
+
+    @Test
+    public void theMostSpecificReadPreferenceWins() {
+        Query query = consistency.apply(new Query(), SessionType.virtual_study, ReadOperation.GET);
+
+        assertThat(query.getReadPreference(), equalTo(ReadPreference.secondaryPreferred()));
+        assertThat(consistency.readsPrimary(SessionType.virtual_study, ReadOperation.GET), is(false));
+        assertThat(consistency.readsPrimary(SessionType.virtual_study, ReadOperation.FIND), is(true));
+        assertThat(consistency.readsPrimary(SessionType.group, ReadOperation.GET), is(true));
+    }
+
+    @Test
+    public void unsetReadPreferencesFallBackToTheClient() {
+        ReflectionTestUtils.setField(consistency, "environment", new MockEnvironment());
+        when(database.getReadPreference()).thenReturn(ReadPreference.nearest());
+
+        assertThat(consistency.readsPrimary(SessionType.group, ReadOperation.GET), is(false));
+    }
+
+    @Test
+    public void writeConcernsAreParsed() {
+        assertThat(consistency.writeConcern(SessionType.virtual_study, "insert", WriteConcern.ACKNOWLEDGED),
+            equalTo(WriteConcern.MAJORITY.withJournal(true)));
+        assertThat(consistency.writeConcern(SessionType.group, "insert", WriteConcern.ACKNOWLEDGED),
+            equalTo(WriteConcern.ACKNOWLEDGED));
+    }
+}
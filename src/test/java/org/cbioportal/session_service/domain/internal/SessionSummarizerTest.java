@@ -0,0 +1,68 @@
+package org.cbioportal.session_service.domain.internal;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionSummarizerTest {
+
+    private final SessionSummarizer summarizer = new SessionSummarizer();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(summarizer, "defaultFields",
+            "data.name,data.description,data.created,size(data.studies)");
+        ReflectionTestUtils.setField(summarizer, "environment",
+            new MockEnvironment().withProperty("session.summary.fields.settings", "data.page.number"));
+    }
+
+    @Test
+    public void summariesHoldTheConfiguredFieldsAndArraySizes() {
+        Map<String, Object> summary = summarizer.summarize(SessionType.virtual_study, Document.parse(
+            "{\"name\": \"my study\", \"created\": 10, \"studies\": [{\"id\": \"a\"}, {\"id\": \"b\"}], \"other\": 1}"));
+
+        assertThat(summary, equalTo(Map.of("name", "my study", "created", 10, "studiesCount", 2)));
+    }
+
+    @Test
+    public void typesCanHaveTheirOwnFields() {
+        Map<String, Object> summary = summarizer.summarize(SessionType.settings,
+            Document.parse("{\"name\": \"ignored\", \"page\": {\"number\": 3}}"));
+
+        assertThat(summary, equalTo(Map.of("number", 3)));
+    }
+
+    @Test
+    public void storedSummariesAreUsedAsTheyAre() {
+        Session session = new Session();
+        session.setId("a");
+        session.setSource("msk_portal");
+        session.setType(SessionType.virtual_study);
+        session.setData("{\"name\": \"changed\"}");
+        session.setSummary(Map.of("name", "stored"));
+
+        Session summary = summarizer.toSummary(session);
+
+        assertThat(summary.getSummary(), equalTo(Map.of("name", "stored")));
+        assertThat(summary.getData(), nullValue());
+    }
+
+    @Test
+    public void queriesAreOnlyProjectedWhenSummariesAreStored() {
+        assertThat(summarizer.project(new Query()).getFieldsObject().isEmpty(), is(true));
+
+        ReflectionTestUtils.setField(summarizer, "enabled", true);
+
+        assertThat(summarizer.project(new Query()).getFieldsObject().keySet(),
+            containsInAnyOrder("source", "type", "summary"));
+    }
+}
@@ -0,0 +1,221 @@
+package org.cbioportal.session_service.events;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+public class SessionChangeStreamWatcherTest {
+
+    private static final String A = new ObjectId().toHexString();
+    private static final String B = new ObjectId().toHexString();
+
+    private MongoTemplate mongoTemplate;
+    private MongoDatabase database;
+    private MongoCollection<Document> stateCollection;
+    // the session_service_state document of the resume token, shared by restarts
+    private final AtomicReference<Document> state = new AtomicReference<>();
+    private final List<SessionChangeStreamWatcher> watchers = new ArrayList<>();
+    private final List<SessionEventFeed> feeds = new ArrayList<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        database = mock(MongoDatabase.class);
+        stateCollection = mock(MongoCollection.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getDb()).thenReturn(database);
+        when(mongoTemplate.getCollection(SessionChangeStreamWatcher.STATE_COLLECTION)).thenReturn(stateCollection);
+        FindIterable<Document> found = mock(FindIterable.class);
+        when(stateCollection.find(any(Bson.class))).thenReturn(found);
+        when(found.first()).thenAnswer(invocation -> state.get());
+        when(stateCollection.replaceOne(any(Bson.class), any(Document.class), any(ReplaceOptions.class)))
+            .thenAnswer(invocation -> {
+                // stored and read back like MongoDB does
+                state.set(Document.parse(invocation.<Document>getArgument(1).toJson()));
+                return null;
+            });
+    }
+
+    @After
+    public void tearDown() {
+        watchers.forEach(SessionChangeStreamWatcher::stop);
+        feeds.forEach(SessionEventFeed::close);
+    }
+
+    @Test
+    public void changesAreFannedOutToTheSubscribersOfTheSession() throws InterruptedException {
+        ChangeStreamIterable<Document> stream = stream(token("1"),
+            event(OperationType.UPDATE, A), event(OperationType.INSERT, B), event(OperationType.DELETE, A));
+        SessionChangeStreamWatcher watcher = watcher();
+        SessionEventFeed feed = feed(watcher);
+        SseEmitter first = feed.subscribe(SessionType.virtual_study, A);
+        SseEmitter second = feed.subscribe(SessionType.virtual_study, A);
+        SseEmitter other = feed.subscribe(SessionType.group, A);
+
+        watcher.start();
+
+        for (SseEmitter emitter : List.of(first, second)) {
+            String sent = awaitSent(emitter, "event:delete");
+            assertThat(sent, containsString("\"id\": \"" + A + "\""));
+            assertThat(sent.indexOf("event:update"), lessThan(sent.indexOf("event:delete")));
+            assertThat(sent, not(containsString(B)));
+        }
+        assertThat(sent(other), emptyString());
+        verify(stream, never()).resumeAfter(any());
+    }
+
+    @Test
+    public void theResumeTokenIsSavedAndUsedAfterARestart() throws InterruptedException {
+        stream(token("1"), event(OperationType.INSERT, A));
+        SessionChangeStreamWatcher watcher = watcher();
+        watcher.start();
+        awaitToken("1");
+        watcher.stop();
+
+        ChangeStreamIterable<Document> resumed = stream(token("2"));
+        SessionChangeStreamWatcher restarted = watcher();
+        restarted.start();
+
+        verify(resumed, timeout(5000)).resumeAfter(token("1"));
+        awaitToken("2");
+    }
+
+    private SessionChangeStreamWatcher watcher() {
+        SessionChangeStreamWatcher watcher = new SessionChangeStreamWatcher();
+        ReflectionTestUtils.setField(watcher, "enabled", true);
+        ReflectionTestUtils.setField(watcher, "tokenSaveIntervalMs", 0L);
+        ReflectionTestUtils.setField(watcher, "retryIntervalMs", 10L);
+        ReflectionTestUtils.setField(watcher, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(watcher, "sessionCollections", new SessionCollections());
+        ReflectionTestUtils.setField(watcher, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        watchers.add(watcher);
+        return watcher;
+    }
+
+    private SessionEventFeed feed(SessionChangeStreamWatcher watcher) {
+        SessionEventFeed feed = new SessionEventFeed();
+        ReflectionTestUtils.setField(feed, "timeoutMs", 60000L);
+        ReflectionTestUtils.setField(feed, "senderThreads", 1);
+        ReflectionTestUtils.setField(feed, "maxQueued", 10);
+        ReflectionTestUtils.setField(feed, "changeStreamWatcher", watcher);
+        ReflectionTestUtils.setField(feed, "meterRegistry", new SimpleMeterRegistry());
+        feed.init();
+        feeds.add(feed);
+        ReflectionTestUtils.setField(watcher, "eventPublisher",
+            (ApplicationEventPublisher) event -> feed.onSessionChange((SessionChange) event));
+        return feed;
+    }
+
+    /**
+     * Makes the database return a change stream with the events, then no
+     * more, and the token as its resume token.
+     */
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    private ChangeStreamIterable<Document> stream(BsonDocument token, ChangeStreamDocument<Document>... events) {
+        ChangeStreamIterable<Document> stream = mock(ChangeStreamIterable.class);
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = mock(MongoChangeStreamCursor.class);
+        Queue<ChangeStreamDocument<Document>> remaining = new ConcurrentLinkedQueue<>(List.of(events));
+        when(database.watch(anyList())).thenReturn(stream);
+        when(stream.resumeAfter(any())).thenReturn(stream);
+        when(stream.cursor()).thenReturn(cursor);
+        when(cursor.tryNext()).thenAnswer(invocation -> {
+            ChangeStreamDocument<Document> next = remaining.poll();
+            if (next == null) {
+                Thread.sleep(1);
+            }
+            return next;
+        });
+        when(cursor.getResumeToken()).thenReturn(token);
+        return stream;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChangeStreamDocument<Document> event(OperationType operation, String id) {
+        ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+        when(event.getOperationType()).thenReturn(operation);
+        when(event.getNamespace()).thenReturn(new MongoNamespace("session_service", "virtual_study"));
+        when(event.getDocumentKey()).thenReturn(new BsonDocument("_id", new BsonObjectId(new ObjectId(id))));
+        when(event.getFullDocument()).thenReturn(operation == OperationType.DELETE ? null
+            : new Document("_id", new ObjectId(id)).append("source", "msk_portal"));
+        return event;
+    }
+
+    private static BsonDocument token(String value) {
+        return new BsonDocument("_data", new BsonString(value));
+    }
+
+    private void awaitToken(String value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Document saved = state.get();
+            if (saved != null && saved.get("token") != null
+                && token(value).equals(saved.get("token", Document.class).toBsonDocument())) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        assertThat(state.get().get("token", Document.class).toBsonDocument(), equalTo(token(value)));
+    }
+
+    private static String awaitSent(SseEmitter emitter, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        String sent = sent(emitter);
+        while (!sent.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            sent = sent(emitter);
+        }
+        assertThat(sent, containsString(expected));
+        return sent;
+    }
+
+    // what was sent before the emitter was attached to a response
+    @SuppressWarnings("unchecked")
+    private static String sent(SseEmitter emitter) {
+        synchronized (emitter) {
+            Set<ResponseBodyEmitter.DataWithMediaType> sent = (Set<ResponseBodyEmitter.DataWithMediaType>)
+                ReflectionTestUtils.getField(emitter, "earlySendAttempts");
+            return sent.stream().map(data -> data.getData().toString()).collect(Collectors.joining());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.cbioportal.session_service.events;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.events.SessionChange.Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionEventFeedTest {
+
+    private MeterRegistry meterRegistry;
+    private SessionEventFeed feed;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        feed = new SessionEventFeed();
+        ReflectionTestUtils.setField(feed, "timeoutMs", 60000L);
+        ReflectionTestUtils.setField(feed, "senderThreads", 1);
+        ReflectionTestUtils.setField(feed, "maxQueued", 1);
+        ReflectionTestUtils.setField(feed, "changeStreamWatcher", mock(SessionChangeStreamWatcher.class));
+        ReflectionTestUtils.setField(feed, "meterRegistry", meterRegistry);
+        feed.init();
+        // keeps the only sender busy, like a client that does not read
+        release = new CountDownLatch(1);
+        ((ExecutorService) ReflectionTestUtils.getField(feed, "senders")).execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        feed.close();
+    }
+
+    @Test
+    public void eventsAreQueuedWithoutWaitingForTheSender() {
+        feed.subscribe(SessionType.virtual_study, "a");
+
+        long started = System.nanoTime();
+        feed.onSessionChange(change(Operation.UPDATE));
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), lessThan(1000L));
+        assertThat(meterRegistry.counter("session.events.dropped").count(), equalTo(0.0));
+    }
+
+    @Test
+    public void subscribersTooFarBehindAreDisconnected() {
+        feed.subscribe(SessionType.virtual_study, "a");
+
+        feed.onSessionChange(change(Operation.UPDATE));
+        feed.onSessionChange(change(Operation.UPDATE));
+        feed.onSessionChange(change(Operation.UPDATE));
+
+        // the subscriber was removed after the first dropped event
+        assertThat(meterRegistry.counter("session.events.dropped").count(), equalTo(1.0));
+    }
+
+    private static SessionChange change(Operation operation) {
+        return new SessionChange(SessionType.virtual_study, "a", "msk_portal", operation, false);
+    }
+}
@@ -0,0 +1,55 @@
+package org.cbioportal.session_service.history;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.Test;
+
+public class JsonDeltaTest {
+
+    @Test
+    public void applyingTheDiffRebuildsTheNewVersion() {
+        Document before = Document.parse("{\"name\": \"study\", \"studies\": [{\"id\": \"a\"}, {\"id\": \"b\"}],"
+            + " \"origin\": [\"x\"], \"a/b\": 1}");
+        Document after = Document.parse("{\"name\": \"renamed\", \"studies\": [{\"id\": \"a\", \"samples\": [1]}],"
+            + " \"origin\": [\"x\", \"y\", \"z\"], \"created\": 5}");
+
+        List<Document> delta = JsonDelta.diff(before, after);
+
+        assertThat(JsonDelta.apply(Document.parse(before.toJson()), delta), equalTo((Object) after));
+    }
+
+    @Test
+    public void deltaOnlyContainsTheChangedFields() {
+        Document before = Document.parse("{\"name\": \"study\", \"description\": \"unchanged\", "
+            + "\"studies\": [\"a\", \"b\", \"c\"]}");
+        Document after = Document.parse("{\"name\": \"study\", \"description\": \"unchanged\", "
+            + "\"studies\": [\"a\", \"b\", \"d\"]}");
+
+        List<Document> delta = JsonDelta.diff(before, after);
+
+        assertThat(delta, hasSize(1));
+        assertThat(delta.get(0).getString("op"), equalTo("replace"));
+        assertThat(delta.get(0).getString("path"), equalTo("/studies/2"));
+    }
+
+    @Test
+    public void identicalVersionsHaveAnEmptyDelta() {
+        Document data = Document.parse("{\"name\": \"study\", \"studies\": [\"a\"]}");
+        assertThat(JsonDelta.diff(data, Document.parse(data.toJson())), empty());
+    }
+
+    @Test
+    public void applyDoesNotShareContainersWithTheDelta() {
+        Document before = Document.parse("{\"name\": \"study\"}");
+        Document after = Document.parse("{\"name\": \"study\", \"groups\": {\"g1\": [1, 2]}}");
+        List<Document> delta = JsonDelta.diff(before, after);
+
+        Document rebuilt = (Document) JsonDelta.apply(Document.parse(before.toJson()), delta);
+        ((List<Object>) rebuilt.get("groups", Document.class).get("g1")).add(3);
+
+        assertThat(JsonDelta.apply(Document.parse(before.toJson()), delta), equalTo((Object) after));
+    }
+}
@@ -0,0 +1,89 @@
+package org.cbioportal.session_service.index;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionSummarizer;
+import org.cbioportal.session_service.events.SessionChangeStreamWatcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class UserSessionIndexTest {
+
+    private MongoCollection<Document> collection;
+    private MeterRegistry meterRegistry;
+    private UserSessionIndex index;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        collection = mock(MongoCollection.class);
+        when(mongoTemplate.getCollection(UserSessionIndex.COLLECTION)).thenReturn(collection);
+        SessionChangeStreamWatcher changeStreamWatcher = mock(SessionChangeStreamWatcher.class);
+        SessionSummarizer sessionSummarizer = mock(SessionSummarizer.class);
+        when(sessionSummarizer.summarize(any(), any())).thenReturn(Map.of());
+        meterRegistry = new SimpleMeterRegistry();
+        index = new UserSessionIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "userFields", "data.users,data.owner");
+        ReflectionTestUtils.setField(index, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(index, "changeStreamWatcher", changeStreamWatcher);
+        ReflectionTestUtils.setField(index, "sessionSummarizer", sessionSummarizer);
+        ReflectionTestUtils.setField(index, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    public void everyUserGetsAnEntry() {
+        index.onWrite(session());
+
+        verify(collection, times(2)).replaceOne(any(Bson.class), any(Document.class), any(ReplaceOptions.class));
+        assertThat(meterRegistry.counter("session.user_index.failed").count(), equalTo(0.0));
+    }
+
+    @Test
+    public void aDuplicateEntryDoesNotFailTheWrite() {
+        when(collection.replaceOne(any(Bson.class), any(Document.class), any(ReplaceOptions.class)))
+            .thenThrow(new DuplicateKeyException("duplicate index entry"));
+
+        index.onWrite(session());
+
+        assertThat(meterRegistry.counter("session.user_index.failed").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void anUnavailableIndexDoesNotFailTheDelete() {
+        when(collection.deleteMany(any(Bson.class))).thenThrow(new DataAccessResourceFailureException("down"));
+
+        index.onDelete(SessionType.virtual_study, "a");
+
+        assertThat(meterRegistry.counter("session.user_index.failed").count(), equalTo(1.0));
+    }
+
+    private static Session session() {
+        Session session = new Session();
+        session.setId("a");
+        session.setSource("msk_portal");
+        session.setType(SessionType.virtual_study);
+        session.setData("{\"users\": [\"first@example.org\"], \"owner\": \"second@example.org\"}");
+        return session;
+    }
+}
@@ -0,0 +1,138 @@
+package org.cbioportal.session_service.journal;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteJournalTest {
+
+    private static final int SEGMENT_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreRecoveredAfterARestart() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            assertThat(journal.open(), empty());
+            journal.sync(journal.append(bytes("first")));
+            journal.sync(journal.append(bytes("second")));
+        }
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            assertThat(strings(journal.open()), contains("first", "second"));
+        }
+    }
+
+    @Test
+    public void fullSegmentsRollOverAndAreDeletedOnceReleased() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            journal.open();
+            long first = journal.currentSegment();
+            journal.append(new byte[40]);
+            int firstOffset = journal.lastOffset();
+            journal.append(new byte[40]);
+            assertThat(journal.currentSegment(), equalTo(first + 1));
+            assertThat(files(directory), hasSize(2));
+            journal.release(first, firstOffset);
+            assertThat(files(directory), hasSize(1));
+            // the current segment is kept for further records until the journal is closed
+            journal.release(first + 1, journal.lastOffset());
+            assertThat(files(directory), hasSize(1));
+        }
+        assertThat(files(directory), empty());
+    }
+
+    @Test
+    public void releasedRecordsAreNotRecovered() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            journal.open();
+            journal.append(bytes("released"));
+            journal.release(journal.currentSegment(), journal.lastOffset());
+            journal.sync(journal.append(bytes("pending")));
+        }
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            List<WriteJournal.Record> records = journal.open();
+            assertThat(strings(records), contains("pending"));
+            // a recovered record is released in its old segment, which is deleted then
+            journal.release(records.get(0).getSegment(), records.get(0).getOffset());
+            assertThat(files(directory), hasSize(1));
+        }
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            assertThat(journal.open(), empty());
+        }
+    }
+
+    @Test
+    public void recordsReleasedInAnOlderSegmentAreNotRecovered() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            journal.open();
+            long first = journal.currentSegment();
+            journal.append(bytes("first"));
+            int firstOffset = journal.lastOffset();
+            journal.append(bytes("second"));
+            journal.append(new byte[40]);
+            assertThat(journal.currentSegment(), equalTo(first + 1));
+            journal.release(first, firstOffset);
+        }
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            assertThat(journal.open(), hasSize(2));
+        }
+    }
+
+    @Test
+    public void aTornRecordEndsTheSegment() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            journal.open();
+            journal.append(bytes("kept"));
+            journal.sync(journal.append(bytes("torn")));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(files(directory).get(0).toFile(), "rw")) {
+            // the last byte of the second record
+            file.seek(8 + 4 + 8 + 3);
+            file.write('x');
+        }
+        try (WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE)) {
+            assertThat(strings(journal.open()), contains("kept"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recordsLargerThanASegmentAreRejected() throws IOException {
+        try (WriteJournal journal = new WriteJournal(folder.getRoot().toPath(), SEGMENT_SIZE)) {
+            journal.open();
+            journal.append(new byte[journal.maxRecordSize() + 1]);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<WriteJournal.Record> records) {
+        return records.stream()
+            .map(record -> new String(record.getBytes(), StandardCharsets.UTF_8))
+            .collect(Collectors.toList());
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.cbioportal.session_service.limit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class FairConcurrencyLimiterTest {
+
+    @Test
+    public void singleKeyMayUseEverySlot() {
+        FairConcurrencyLimiter limiter = new FairConcurrencyLimiter(4, key -> 1);
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire("a"), notNullValue());
+        }
+        assertThat(limiter.tryAcquire("a"), nullValue());
+    }
+
+    @Test
+    public void busyKeyIsHeldToItsShareOnceOthersAreActive() {
+        FairConcurrencyLimiter limiter = new FairConcurrencyLimiter(4, key -> 1);
+        FairConcurrencyLimiter.Permit first = limiter.tryAcquire("a");
+        limiter.tryAcquire("a");
+        assertThat(limiter.tryAcquire("b"), notNullValue());
+        // a holds 2 of 4 slots, which is its share with b active
+        assertThat(limiter.tryAcquire("a"), nullValue());
+        limiter.release(first);
+        assertThat(limiter.tryAcquire("a"), notNullValue());
+        assertThat(limiter.getInFlight(), equalTo(3));
+    }
+
+    @Test
+    public void sharesFollowTheWeights() {
+        FairConcurrencyLimiter limiter = new FairConcurrencyLimiter(6, key -> key.equals("heavy") ? 2 : 1);
+        assertThat(limiter.tryAcquire("light"), notNullValue());
+        int admitted = 0;
+        while (limiter.tryAcquire("heavy") != null) {
+            admitted++;
+        }
+        assertThat(admitted, equalTo(4));
+    }
+}
@@ -0,0 +1,66 @@
+package org.cbioportal.session_service.limit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SourceRateLimiterTest {
+
+    private SourceRateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        limiter = new SourceRateLimiter();
+        ReflectionTestUtils.setField(limiter, "cheapRate", 0.001);
+        ReflectionTestUtils.setField(limiter, "cheapBurst", 2);
+        ReflectionTestUtils.setField(limiter, "expensiveRate", 0.001);
+        ReflectionTestUtils.setField(limiter, "expensiveBurst", 1);
+        ReflectionTestUtils.setField(limiter, "maxConcurrentExpensive", 3);
+        ReflectionTestUtils.setField(limiter, "environment", new MockEnvironment()
+            .withProperty("session.rate-limit.weight.heavy", "2"));
+        limiter.init();
+    }
+
+    @Test
+    public void cheapAndExpensiveRequestsHaveSeparateBudgetsPerSource() {
+        assertThat(limiter.tryAcquire("a", null, true), equalTo(0L));
+        assertThat(limiter.tryAcquire("a", null, true), greaterThan(0L));
+        // the cheap budget of the source is untouched
+        assertThat(limiter.tryAcquire("a", null, false), equalTo(0L));
+        assertThat(limiter.tryAcquire("a", null, false), equalTo(0L));
+        assertThat(limiter.tryAcquire("a", null, false), greaterThan(0L));
+        // as are the budgets of other sources
+        assertThat(limiter.tryAcquire("b", null, true), equalTo(0L));
+    }
+
+    @Test
+    public void usersShareTheBudgetOfTheSourceUnlessLimitedPerUser() {
+        assertThat(limiter.tryAcquire("a", "alice", true), equalTo(0L));
+        assertThat(limiter.tryAcquire("a", "bob", true), greaterThan(0L));
+
+        ReflectionTestUtils.setField(limiter, "perUser", true);
+
+        assertThat(limiter.tryAcquire("a", "alice", true), equalTo(0L));
+        assertThat(limiter.tryAcquire("a", "bob", true), equalTo(0L));
+        assertThat(limiter.tryAcquire("a", "bob", true), greaterThan(0L));
+    }
+
+    @Test
+    public void expensiveSlotsAreSharedByTheConfiguredWeights() {
+        FairConcurrencyLimiter.Permit light = limiter.tryStartExpensive("light");
+        assertThat(light, notNullValue());
+        assertThat(limiter.tryStartExpensive("heavy"), notNullValue());
+        assertThat(limiter.tryStartExpensive("heavy"), notNullValue());
+        // heavy holds its two of three slots, and light its one
+        assertThat(limiter.tryStartExpensive("heavy"), nullValue());
+        assertThat(limiter.tryStartExpensive("light"), nullValue());
+
+        limiter.finishExpensive(light);
+
+        assertThat(limiter.tryStartExpensive("light"), notNullValue());
+    }
+}
@@ -0,0 +1,30 @@
+package org.cbioportal.session_service.limit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void admitsABurstThenRefillsAtTheRate() {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.tryAcquire(0), equalTo(0L));
+        }
+        assertThat(bucket.tryAcquire(0), equalTo(SECOND / 10));
+        assertThat(bucket.tryAcquire(SECOND / 10), equalTo(0L));
+        assertThat(bucket.tryAcquire(SECOND / 10), greaterThan(0L));
+    }
+
+    @Test
+    public void becomesIdleOnceFull() {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        bucket.tryAcquire(0);
+        assertThat(bucket.isIdle(0), equalTo(false));
+        assertThat(bucket.isIdle(SECOND / 10), equalTo(true));
+    }
+}
@@ -0,0 +1,61 @@
+package org.cbioportal.session_service.mongo;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+public class MongoPoolMonitorTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MongoPoolMonitor monitor = new MongoPoolMonitor(meterRegistry);
+
+    @Test
+    public void threadsWaitingForAConnectionAreCounted() {
+        monitor.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+        monitor.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+        monitor.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+        assertThat(monitor.getWaiting(), equalTo(3));
+        assertThat(meterRegistry.get("session.mongo.pool.waiting").gauge().value(), equalTo(3.0));
+
+        ConnectionCheckedOutEvent checkedOut = mock(ConnectionCheckedOutEvent.class);
+        when(checkedOut.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(5));
+        monitor.connectionCheckedOut(checkedOut);
+        ConnectionCheckOutFailedEvent failed = mock(ConnectionCheckOutFailedEvent.class);
+        when(failed.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+        monitor.connectionCheckOutFailed(failed);
+
+        assertThat(monitor.getWaiting(), equalTo(1));
+        assertThat(meterRegistry.get("session.mongo.pool.wait").tag("outcome", "success").timer().count(), equalTo(1L));
+        assertThat(meterRegistry.get("session.mongo.pool.wait").tag("outcome", "failed").timer()
+            .totalTime(TimeUnit.MILLISECONDS), equalTo(100.0));
+    }
+
+    @Test
+    public void configuredPoolSettingsAreApplied() {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("session.mongo.pool.max-size", "20")
+            .withProperty("session.mongo.pool.max-wait-ms", "2000");
+        MongoClientSettings.Builder builder = MongoClientSettings.builder();
+
+        new MongoPoolConfig().mongoPoolCustomizer(environment, monitor).customize(builder);
+
+        ConnectionPoolSettings pool = builder.build().getConnectionPoolSettings();
+        assertThat(pool.getMaxSize(), equalTo(20));
+        assertThat(pool.getMaxWaitTime(TimeUnit.MILLISECONDS), equalTo(2000L));
+        // unset values keep the driver defaults
+        assertThat(pool.getMinSize(), equalTo(ConnectionPoolSettings.builder().build().getMinSize()));
+        assertThat(pool.getConnectionPoolListeners(), contains(monitor));
+    }
+}
@@ -0,0 +1,85 @@
+package org.cbioportal.session_service.mongo;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.mongo.SessionSharding.ShardKey;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionShardingTest {
+
+    private MongoDatabase admin;
+    private SessionSharding sharding;
+
+    @Before
+    public void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.getName()).thenReturn("session_service");
+        when(mongoTemplate.getDb()).thenReturn(database);
+        MongoClient mongoClient = mock(MongoClient.class);
+        admin = mock(MongoDatabase.class);
+        when(mongoClient.getDatabase("admin")).thenReturn(admin);
+        sharding = new SessionSharding();
+        ReflectionTestUtils.setField(sharding, "enabled", true);
+        ReflectionTestUtils.setField(sharding, "environment", new MockEnvironment()
+            .withProperty("session.sharding.key.default", "source-hashed-id")
+            .withProperty("session.sharding.key.settings", "source"));
+        ReflectionTestUtils.setField(sharding, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(sharding, "mongoClient", mongoClient);
+    }
+
+    @Test
+    public void keysAreConfiguredPerType() {
+        assertThat(sharding.getShardKey(SessionType.settings), equalTo(ShardKey.SOURCE));
+        assertThat(sharding.getShardKey(SessionType.virtual_study), equalTo(ShardKey.SOURCE_HASHED_ID));
+        assertThat(ShardKey.SOURCE_HASHED_ID.getKey(),
+            equalTo(new Document("source", 1).append("_id", "hashed")));
+    }
+
+    @Test
+    public void theChecksumStaysUniqueOnlyWhenTheKeyIsTheSource() {
+        assertThat(sharding.isChecksumUnique(SessionType.settings), is(true));
+        assertThat(sharding.isChecksumUnique(SessionType.virtual_study), is(false));
+
+        ReflectionTestUtils.setField(sharding, "enabled", false);
+
+        assertThat(sharding.isChecksumUnique(SessionType.virtual_study), is(true));
+    }
+
+    @Test
+    public void randomIdsAreOnlyGeneratedWhenConfigured() {
+        assertThat(sharding.newId(), nullValue());
+
+        ReflectionTestUtils.setField(sharding, "randomIds", true);
+
+        assertThat(sharding.newId(), matchesPattern("[0-9a-f]{32}"));
+        assertThat(sharding.newId(), not(equalTo(sharding.newId())));
+    }
+
+    @Test
+    public void newCollectionsAreShardedWhenConfigured() {
+        sharding.onCollectionCreated("virtual_study__msk_portal", SessionType.virtual_study);
+        verify(admin, never()).runCommand(any(Bson.class));
+
+        ReflectionTestUtils.setField(sharding, "shardCollections", true);
+        sharding.onCollectionCreated("virtual_study__msk_portal", SessionType.virtual_study);
+
+        verify(admin).runCommand(new Document("shardCollection", "session_service.virtual_study__msk_portal")
+            .append("key", ShardKey.SOURCE_HASHED_ID.getKey()));
+    }
+}
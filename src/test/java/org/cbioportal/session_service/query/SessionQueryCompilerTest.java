@@ -0,0 +1,94 @@
+package org.cbioportal.session_service.query;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+public class SessionQueryCompilerTest {
+
+    private final SessionQueryCompiler compiler = new SessionQueryCompiler();
+
+    @Test
+    public void queriesOfTheSameShapeBindTheirOwnValues() {
+        compiler.compile(List.of(new QueryCondition("data.name", QueryOperator.eq, "first")));
+
+        Query query = compiler.compile(List.of(new QueryCondition("data.name", QueryOperator.eq, "second")));
+
+        assertThat(query.getQueryObject(), equalTo(new Document("data.name", "second")));
+    }
+
+    @Test
+    public void fieldNamesThatLookLikeAnotherShapeGetTheirOwnTemplate() {
+        compiler.compile(List.of(new QueryCondition("data.a", QueryOperator.eq, 1),
+            new QueryCondition("data.b", QueryOperator.gt, 2)));
+
+        // joined as text both shapes read "data.a eq,data.b gt"
+        Query query = compiler.compile(List.of(new QueryCondition("data.a eq,data.b", QueryOperator.gt, 3)));
+
+        assertThat(query.getQueryObject(), equalTo(new Document("data.a eq,data.b", new Document("$gt", 3))));
+    }
+
+    @Test
+    public void conditionsOnOneFieldAreCombined() {
+        Query query = compiler.compile(List.of(new QueryCondition("data.n", QueryOperator.lt, 5),
+            new QueryCondition("data.n", QueryOperator.gte, 1)));
+
+        assertThat(query.getQueryObject(),
+            equalTo(new Document("data.n", new Document("$gte", 1).append("$lt", 5))));
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void theSourceCannotBeQueried() {
+        compiler.compile(List.of(new QueryCondition("source", QueryOperator.eq, "other")));
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void operatorsInValuesAreRejected() {
+        compiler.compile(List.of(new QueryCondition("data.name", QueryOperator.eq,
+            Map.of("$ne", 1))));
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void operatorsInListValuesAreRejected() {
+        compiler.compile(List.of(new QueryCondition("data.name", QueryOperator.in,
+            List.of(Map.of("$where", "sleep(1000)")))));
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void operatorsInListsNestedInValuesAreRejected() {
+        compiler.compile(List.of(new QueryCondition("data.filter", QueryOperator.eq,
+            Map.of("clauses", List.of(Map.of("$gt", 1))))));
+    }
+
+    @Test
+    public void mapsInListValuesBecomeDocuments() {
+        Query query = compiler.compile(List.of(new QueryCondition("data.studies", QueryOperator.in,
+            List.of(Map.of("id", "a")))));
+
+        assertThat(query.getQueryObject(), equalTo(new Document("data.studies",
+            new Document("$in", List.of(new Document("id", "a"))))));
+    }
+
+    @Test
+    public void containsWithAListRequiresEveryValue() {
+        Query query = compiler.compile(List.of(new QueryCondition("data.users", QueryOperator.contains,
+            List.of("a", "b"))));
+
+        assertThat(query.getQueryObject(), equalTo(new Document("data.users",
+            new Document("$all", List.of("a", "b")))));
+    }
+
+    @Test
+    public void containsWithASingleValue() {
+        Query query = compiler.compile(List.of(new QueryCondition("data.users", QueryOperator.contains, "a")));
+
+        assertThat(query.getQueryObject(), equalTo(new Document("data.users",
+            new Document("$all", List.of("a")))));
+    }
+}
@@ -0,0 +1,169 @@
+package org.cbioportal.session_service.query;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.MongoDatabase;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionQueryGuardTest {
+
+    private MongoDatabase database;
+    private MeterRegistry meterRegistry;
+    private SessionQueryGuard guard;
+
+    @Before
+    public void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        database = mock(MongoDatabase.class);
+        when(mongoTemplate.getDb()).thenReturn(database);
+        meterRegistry = new SimpleMeterRegistry();
+        guard = new SessionQueryGuard();
+        ReflectionTestUtils.setField(guard, "allowedOperators", "$eq,$ne,$gt,$gte,$lt,$lte,$in,$nin,$exists,$type,$and,$or,$nor,$elemMatch,$all,$size");
+        ReflectionTestUtils.setField(guard, "maxTimeMs", 30000L);
+        ReflectionTestUtils.setField(guard, "maxResults", 10);
+        ReflectionTestUtils.setField(guard, "collectionScanPolicy", "downgrade");
+        ReflectionTestUtils.setField(guard, "collectionScanMaxTimeMs", 2000L);
+        ReflectionTestUtils.setField(guard, "collectionScanMaxResults", 5);
+        ReflectionTestUtils.setField(guard, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(guard, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    public void operatorsOutsideTheAllowListAreRejected() {
+        for (String filter : new String[] {
+            "{\"$where\": \"sleep(1000)\"}",
+            "{\"data.name\": {\"$regex\": \".*a.*\"}}",
+            "{\"data.name\": {\"$not\": {\"$eq\": \"a\"}}}",
+            "{\"$or\": [{\"data.name\": {\"$expr\": 1}}]}"}) {
+            try {
+                guard.buildQuery(filter, 0, 0);
+                fail(filter + " was accepted");
+            } catch (SessionQueryInvalidException e) {
+                assertThat(e.getMessage(), containsString("is not allowed"));
+            }
+        }
+        assertThat(meterRegistry.counter("session.query.rejected", "reason", "operator").count(), equalTo(4.0));
+    }
+
+    @Test
+    public void unpagedQueriesReadOnePastTheCap() {
+        Query query = guard.buildQuery("{\"data.name\": \"a\"}", 0, 0);
+
+        assertThat(query.getLimit(), equalTo(11));
+        assertThat(query.getMeta().getMaxTimeMsec(), equalTo(30000L));
+        guard.checkResults(10, guard.getMaxResults());
+        try {
+            guard.checkResults(11, guard.getMaxResults());
+            fail("results past the cap were accepted");
+        } catch (SessionQueryInvalidException e) {
+            assertThat(e.getMessage(), containsString("more than 10 sessions"));
+        }
+        assertThat(meterRegistry.counter("session.query.rejected", "reason", "max_results").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void pagedQueriesReadThePage() {
+        Query query = guard.buildQuery("{\"data.name\": \"a\"}", 2, 4);
+
+        assertThat(query.getLimit(), equalTo(4));
+        assertThat(query.getSkip(), equalTo(8L));
+    }
+
+    @Test
+    public void pagesLargerThanTheCapAreClamped() {
+        Query query = guard.buildQuery("{\"data.name\": \"a\"}", 1, 50);
+
+        assertThat(query.getLimit(), equalTo(10));
+        assertThat(query.getSkip(), equalTo(10L));
+        guard.checkResults(query.getLimit(), guard.getMaxResults());
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void negativePagesAreRejected() {
+        guard.buildQuery("{\"data.name\": \"a\"}", -1, 4);
+    }
+
+    @Test
+    public void collectionScansAreDowngraded() {
+        explainReturns("COLLSCAN");
+        Query query = guard.buildQuery("{\"data.name\": \"a\"}", 0, 0);
+
+        int cap = guard.checkPlan("main_session", "msk_portal", query);
+
+        assertThat(cap, equalTo(5));
+        assertThat(query.getLimit(), equalTo(6));
+        assertThat(query.getMeta().getMaxTimeMsec(), equalTo(2000L));
+        assertThat(meterRegistry.counter("session.query.downgraded").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void downgradedPagesAreClampedToTheCollectionScanCap() {
+        explainReturns("COLLSCAN");
+        Query query = guard.buildQuery("{\"data.name\": \"a\"}", 2, 8);
+
+        int cap = guard.checkPlan("main_session", "msk_portal", query);
+
+        assertThat(cap, equalTo(5));
+        assertThat(query.getLimit(), equalTo(5));
+        // the third page of five sessions
+        assertThat(query.getSkip(), equalTo(10L));
+        // a full page is not mistaken for a truncated result
+        guard.checkResults(query.getLimit(), cap);
+    }
+
+    @Test
+    public void downgradedPagesWithinTheCapAreKept() {
+        explainReturns("COLLSCAN");
+        Query query = guard.buildQuery("{\"data.name\": \"a\"}", 3, 4);
+
+        guard.checkPlan("main_session", "msk_portal", query);
+
+        assertThat(query.getLimit(), equalTo(4));
+        assertThat(query.getSkip(), equalTo(12L));
+    }
+
+    @Test
+    public void indexedQueriesKeepTheirLimits() {
+        explainReturns("IXSCAN");
+        Query query = guard.buildQuery("{\"checksum\": \"a\"}", 0, 0);
+
+        assertThat(guard.checkPlan("main_session", "msk_portal", query), equalTo(10));
+        assertThat(query.getLimit(), equalTo(11));
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void collectionScansCanBeRejected() {
+        ReflectionTestUtils.setField(guard, "collectionScanPolicy", "reject");
+        explainReturns("COLLSCAN");
+
+        guard.checkPlan("main_session", "msk_portal", guard.buildQuery("{\"data.name\": \"a\"}", 0, 0));
+    }
+
+    @Test
+    public void countsOnlyGetTheTimeLimit() {
+        Query query = guard.applyTimeLimit(new Query());
+
+        assertThat(query.getLimit(), equalTo(0));
+        assertThat(query.getMeta().getMaxTimeMsec(), equalTo(30000L));
+    }
+
+    private void explainReturns(String stage) {
+        when(database.runCommand(any(Bson.class))).thenReturn(new Document("queryPlanner",
+            new Document("winningPlan", new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", stage)))));
+    }
+}
@@ -0,0 +1,101 @@
+package org.cbioportal.session_service.query;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import org.bson.Document;
+import org.cbioportal.session_service.domain.SessionType;
+import org.cbioportal.session_service.domain.internal.SessionCollections;
+import org.cbioportal.session_service.service.exception.SessionQueryInvalidException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionSearchTest {
+
+    private IndexOperations indexOperations;
+    private SessionSearch search;
+
+    @Before
+    public void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        indexOperations = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps("virtual_study")).thenReturn(indexOperations);
+        when(mongoTemplate.collectionExists("virtual_study")).thenReturn(true);
+        MockEnvironment environment = new MockEnvironment();
+        SessionCollections sessionCollections = new SessionCollections();
+        ReflectionTestUtils.setField(sessionCollections, "environment", environment);
+        search = new SessionSearch();
+        ReflectionTestUtils.setField(search, "enabled", true);
+        ReflectionTestUtils.setField(search, "defaultFields", "data.name,data.description");
+        ReflectionTestUtils.setField(search, "language", "english");
+        ReflectionTestUtils.setField(search, "environment", environment);
+        ReflectionTestUtils.setField(search, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(search, "sessionCollections", sessionCollections);
+    }
+
+    @Test
+    public void queriesMatchTheTextAndSortByScore() {
+        when(indexOperations.getIndexInfo()).thenReturn(List.of());
+
+        Query query = search.buildQuery("msk_portal", SessionType.virtual_study, "breast \"tcga pan\" -cell");
+
+        Document text = query.getQueryObject().get("$text", Document.class);
+        assertThat(text.getString("$search"), equalTo("breast \"tcga pan\" -cell"));
+        assertThat(text.getString("$language"), equalTo("english"));
+        assertThat(query.getSortObject().keySet(), contains("score"));
+        verify(indexOperations).createIndex(any(IndexDefinition.class));
+    }
+
+    @Test
+    public void aTextIndexOverTheConfiguredFieldsIsKept() {
+        when(indexOperations.getIndexInfo()).thenReturn(List.of(textIndex("session_search", "data.description", "data.name")));
+
+        search.buildQuery("msk_portal", SessionType.virtual_study, "breast");
+        search.buildQuery("msk_portal", SessionType.virtual_study, "lung");
+
+        verify(indexOperations, never()).dropIndex(any());
+        verify(indexOperations, never()).createIndex(any(IndexDefinition.class));
+    }
+
+    @Test
+    public void aTextIndexOverOtherFieldsIsReplaced() {
+        when(indexOperations.getIndexInfo()).thenReturn(List.of(textIndex("session_search", "data.name")));
+
+        search.buildQuery("msk_portal", SessionType.virtual_study, "breast");
+
+        verify(indexOperations).dropIndex("session_search");
+        verify(indexOperations).createIndex(any(IndexDefinition.class));
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void emptyTextIsRejected() {
+        search.buildQuery("msk_portal", SessionType.virtual_study, " ");
+    }
+
+    @Test(expected = SessionQueryInvalidException.class)
+    public void searchIsRejectedWhenDisabled() {
+        ReflectionTestUtils.setField(search, "enabled", false);
+
+        search.buildQuery("msk_portal", SessionType.virtual_study, "breast");
+    }
+
+    private static IndexInfo textIndex(String name, String... fields) {
+        return new IndexInfo(Arrays.stream(fields).map(field -> IndexField.text(field, 1F)).toList(),
+            name, false, false, "english");
+    }
+}
@@ -0,0 +1,80 @@
+package org.cbioportal.session_service.schema;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.junit.Test;
+
+public class JsonSchemaTest {
+
+    private static final String VIRTUAL_STUDY = "{\"type\": \"object\", \"required\": [\"name\", \"studies\"],"
+        + " \"properties\": {"
+        + "  \"name\": {\"type\": \"string\", \"minLength\": 1},"
+        + "  \"origin\": {\"type\": \"array\", \"items\": {\"type\": \"string\"}},"
+        + "  \"studies\": {\"type\": \"array\", \"minItems\": 1, \"items\": {"
+        + "    \"type\": \"object\", \"required\": [\"id\"], \"additionalProperties\": false,"
+        + "    \"properties\": {\"id\": {\"type\": \"string\"}, \"samples\": {\"type\": \"array\"}}}},"
+        + "  \"visibility\": {\"enum\": [\"public\", \"private\", null]},"
+        + "  \"version\": {\"type\": \"integer\", \"minimum\": 1}}}";
+
+    private final JsonSchema schema = compile(VIRTUAL_STUDY);
+
+    @Test
+    public void validDocumentHasNoErrors() {
+        assertThat(schema.validate("{\"name\": \"study\", \"origin\": [\"a\"], \"version\": 2.0,"
+            + " \"studies\": [{\"id\": \"a\", \"samples\": [\"s1\"]}], \"visibility\": null, \"extra\": {\"x\": 1}}"),
+            empty());
+    }
+
+    @Test
+    public void errorsPointAtTheOffendingValues() {
+        assertThat(schema.validate("{\"name\": 5, \"studies\": [{\"id\": \"a\"}, {\"id\": \"b\", \"other\": 1},"
+            + " {\"samples\": {}}], \"visibility\": \"hidden\", \"version\": 0}"),
+            containsInAnyOrder(
+                "/name: expected string but found integer",
+                "/studies/1/other: is not an allowed property",
+                "/studies/2/samples: expected array but found object",
+                "/studies/2: is missing the required property 'id'",
+                "/visibility: is not one of [public, private, null]",
+                "/version: is less than 1"));
+    }
+
+    @Test
+    public void missingPropertiesAreReportedOnTheObject() {
+        assertThat(schema.validate("{\"studies\": []}"), containsInAnyOrder(
+            "/studies: has fewer than 1 items",
+            ": is missing the required property 'name'"));
+    }
+
+    @Test
+    public void invalidJsonIsAnError() {
+        assertThat(schema.validate("{\"name\": \"study\", \"studies\": [}"),
+            contains(startsWith("/studies: is not valid JSON")));
+        assertThat(compile("{}").validate("{} {}"), contains(": has content after the end of the document"));
+    }
+
+    @Test
+    public void validationStopsAtTheMaximumNumberOfErrors() {
+        StringBuilder origin = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            origin.append(i == 0 ? "" : ",").append(i);
+        }
+        assertThat(schema.validate("{\"name\": \"s\", \"studies\": [{\"id\": \"a\"}], \"origin\": [" + origin + "]}"),
+            hasSize(JsonSchema.MAX_ERRORS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedKeywordsAreRejected() {
+        compile("{\"type\": \"object\", \"properties\": {\"a\": {\"oneOf\": [{\"type\": \"string\"}]}}}");
+    }
+
+    private static JsonSchema compile(String schema) {
+        try {
+            return JsonSchema.compile(new ObjectMapper().readTree(schema));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.cbioportal.session_service.tracing;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SessionTracingTest {
+
+    private final List<Observation.Context> stopped = new ArrayList<>();
+    private SessionTracing tracing;
+
+    @Before
+    public void setUp() {
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(new ObservationHandler<Observation.Context>() {
+            @Override
+            public void onStop(Observation.Context context) {
+                stopped.add(context);
+            }
+
+            @Override
+            public boolean supportsContext(Observation.Context context) {
+                return true;
+            }
+        });
+        tracing = new SessionTracing();
+        ReflectionTestUtils.setField(tracing, "observationRegistry", registry);
+    }
+
+    @Test
+    public void stagesRunWithoutObservationsWhenDisabled() {
+        assertThat(tracing.observe("parse", SessionType.main_session, () -> "parsed"), equalTo("parsed"));
+        List<String> ran = new ArrayList<>();
+        tracing.observe("save", SessionType.main_session, 42, () -> ran.add("saved"));
+
+        assertThat(ran, contains("saved"));
+        assertThat(stopped, empty());
+    }
+
+    @Test
+    public void stagesAreObservedWhenEnabled() {
+        ReflectionTestUtils.setField(tracing, "enabled", true);
+
+        assertThat(tracing.observe("parse", SessionType.virtual_study, 42, () -> "parsed"), equalTo("parsed"));
+        tracing.observe("cache", null, () -> { });
+
+        assertThat(stopped, hasSize(2));
+        Observation.Context parse = stopped.get(0);
+        assertThat(parse.getName(), equalTo(SessionTracing.STAGE));
+        assertThat(parse.getContextualName(), equalTo("parse"));
+        assertThat(parse.getLowCardinalityKeyValue("stage"), equalTo(KeyValue.of("stage", "parse")));
+        assertThat(parse.getLowCardinalityKeyValue("session.type"),
+            equalTo(KeyValue.of("session.type", "virtual_study")));
+        assertThat(parse.getHighCardinalityKeyValue("session.payload.size"),
+            equalTo(KeyValue.of("session.payload.size", "42")));
+        assertThat(stopped.get(1).getLowCardinalityKeyValue("session.type"),
+            equalTo(KeyValue.of("session.type", "none")));
+    }
+
+    @Test
+    public void failuresAreRecordedOnTheObservation() {
+        ReflectionTestUtils.setField(tracing, "enabled", true);
+        RuntimeException failure = new RuntimeException("broken");
+
+        try {
+            tracing.observe("save", SessionType.settings, () -> {
+                throw failure;
+            });
+            fail();
+        } catch (RuntimeException e) {
+            assertThat(e, sameInstance(failure));
+        }
+
+        assertThat(stopped, hasSize(1));
+        assertThat(stopped.get(0).getError(), sameInstance(failure));
+    }
+}
@@ -0,0 +1,74 @@
+package org.cbioportal.session_service.transfer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.bson.BsonObjectId;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PartFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final RawBsonDocument FIRST = RawBsonDocument.parse(
+        "{\"_id\": {\"$oid\": \"5f0c1d2e3a4b5c6d7e8f9a0b\"},"
+        + " \"source\": \"portal\", \"type\": \"virtual_study\", \"checksum\": \"abc\","
+        + " \"data\": {\"name\": \"study\", \"created\": {\"$numberLong\": \"1594627374000\"}}}");
+    private static final RawBsonDocument SECOND = RawBsonDocument.parse("{\"_id\": \"custom-id\","
+        + " \"source\": \"portal\", \"type\": \"virtual_study\", \"checksum\": \"def\", \"data\": {\"name\": \"ü\"}}");
+
+    @Test
+    public void ndjsonPartsKeepTheBsonTypes() throws IOException {
+        assertRoundTrip(TransferFormat.NDJSON);
+    }
+
+    @Test
+    public void bsonPartsKeepTheBsonTypes() throws IOException {
+        assertRoundTrip(TransferFormat.BSON);
+    }
+
+    @Test
+    public void manifestKeepsTheLastIdAndParts() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        TransferManifest manifest = TransferManifest.load(directory, "group");
+        assertThat(manifest.exists(), is(false));
+        manifest.setFormat(TransferFormat.BSON);
+        ObjectId lastId = new ObjectId();
+        manifest.addPart(new TransferManifest.Part(manifest.nextPartFile(), 2, "digest"), new BsonObjectId(lastId));
+        manifest.save();
+
+        TransferManifest loaded = TransferManifest.load(directory, "group");
+
+        assertThat(loaded.getFormat(), equalTo(TransferFormat.BSON));
+        assertThat(loaded.isComplete(), is(false));
+        assertThat(loaded.getLastId(), equalTo(new BsonObjectId(lastId)));
+        assertThat(loaded.getParts().get(0).file, equalTo("group-00001.bson.gz"));
+        assertThat(loaded.getDocuments(), equalTo(2L));
+        assertThat(loaded.nextPartFile(), equalTo("group-00002.bson.gz"));
+    }
+
+    private void assertRoundTrip(TransferFormat format) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("part." + format.getExtension());
+        PartWriter writer = new PartWriter(file, format);
+        writer.write(FIRST);
+        writer.write(SECOND);
+        TransferManifest.Part part = writer.finish();
+
+        assertThat(part.documents, equalTo(2L));
+        assertThat(PartReader.sha256(file), equalTo(part.sha256));
+        assertThat(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")), is(false));
+        try (PartReader reader = new PartReader(file, format)) {
+            assertThat(reader.next(), equalTo(FIRST));
+            assertThat(reader.next(), equalTo(SECOND));
+            assertThat(reader.next(), nullValue());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.cbioportal.session_service.transfer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.cbioportal.session_service.SessionService;
+import org.cbioportal.session_service.domain.Session;
+import org.cbioportal.session_service.domain.SessionRepository;
+import org.cbioportal.session_service.domain.SessionType;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(
+    classes = SessionService.class,
+    properties = {
+        "de.flapdoodle.mongodb.embedded.version=6.0.5",
+        "spring.mvc.pathmatch.matching-strategy=ANT_PATH_MATCHER",
+        "session.transfer.part-size=2",
+        "session.transfer.batch-size=2"
+    }
+)
+public class SessionTransferTest {
+
+    private static final List<SessionType> TYPES = List.of(SessionType.virtual_study);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private SessionTransfer sessionTransfer;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @After
+    public void tearDown() {
+        mongoTemplate.dropCollection("virtual_study");
+    }
+
+    @Test
+    public void anExportIsImportedIntoAnEmptyStore() throws IOException {
+        insert(5);
+        Map<String, String> exported = checksums();
+        Path directory = folder.getRoot().toPath();
+
+        List<TransferResult> results = sessionTransfer.export(directory, TYPES, TransferFormat.NDJSON);
+
+        assertThat(results.get(0).getDocuments(), equalTo(5L));
+        assertThat(results.get(0).getParts(), equalTo(3));
+        mongoTemplate.dropCollection("virtual_study");
+
+        results = sessionTransfer.importSessions(directory, TYPES);
+
+        assertThat(results.get(0).getDocuments(), equalTo(5L));
+        assertThat(results.get(0).getDuplicates(), equalTo(0L));
+        assertThat(checksums(), equalTo(exported));
+    }
+
+    @Test
+    public void anInterruptedExportResumesAfterTheLastCompletePart() throws IOException {
+        insert(5);
+        Map<String, String> exported = checksums();
+        Path directory = folder.getRoot().toPath();
+        sessionTransfer.export(directory, TYPES, TransferFormat.NDJSON);
+        interruptAfterFirstPart(directory);
+
+        List<TransferResult> results = sessionTransfer.export(directory, TYPES, TransferFormat.NDJSON);
+
+        assertThat(results.get(0).getDocuments(), equalTo(5L));
+        assertThat(results.get(0).getParts(), equalTo(3));
+        mongoTemplate.dropCollection("virtual_study");
+        sessionTransfer.importSessions(directory, TYPES);
+        assertThat(checksums(), equalTo(exported));
+    }
+
+    @Test
+    public void sessionsThatAlreadyExistAreSkipped() throws IOException {
+        List<Session> sessions = insert(4);
+        Path directory = folder.getRoot().toPath();
+        sessionTransfer.export(directory, TYPES, TransferFormat.NDJSON);
+        mongoTemplate.dropCollection("virtual_study");
+        // the same data stored under another id
+        Session duplicate = session(sessions.get(0).getData());
+        sessionRepository.insertSession(duplicate);
+
+        List<TransferResult> results = sessionTransfer.importSessions(directory, TYPES);
+
+        assertThat(results.get(0).getDocuments(), equalTo(3L));
+        assertThat(results.get(0).getDuplicates(), equalTo(1L));
+        assertThat(checksums().get(duplicate.getId()), equalTo(duplicate.getChecksum()));
+        assertThat(checksums().containsKey(sessions.get(0).getId()), is(false));
+
+        // running the import again inserts nothing
+        results = sessionTransfer.importSessions(directory, TYPES);
+
+        assertThat(results.get(0).getDocuments(), equalTo(0L));
+        assertThat(results.get(0).getDuplicates(), equalTo(4L));
+        assertThat(mongoTemplate.getCollection("virtual_study").countDocuments(), equalTo(4L));
+    }
+
+    @Test
+    public void partsNotMatchingTheirDigestAreNotImported() throws IOException {
+        insert(2);
+        Path directory = folder.getRoot().toPath();
+        sessionTransfer.export(directory, TYPES, TransferFormat.NDJSON);
+        mongoTemplate.dropCollection("virtual_study");
+        TransferManifest manifest = TransferManifest.load(directory, "virtual_study");
+        Path part = directory.resolve(manifest.getParts().get(0).file);
+        byte[] bytes = Files.readAllBytes(part);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(part, bytes);
+
+        try {
+            sessionTransfer.importSessions(directory, TYPES);
+            fail("a corrupt part was imported");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("does not match the digest"));
+        }
+        assertThat(mongoTemplate.getCollection("virtual_study").countDocuments(), equalTo(0L));
+    }
+
+    // as if the export stopped after writing its first part
+    private void interruptAfterFirstPart(Path directory) throws IOException {
+        TransferManifest manifest = TransferManifest.load(directory, "virtual_study");
+        List<TransferManifest.Part> parts = manifest.getParts();
+        TransferManifest.Part first = parts.get(0);
+        for (TransferManifest.Part later : parts.subList(1, parts.size())) {
+            Files.delete(directory.resolve(later.file));
+        }
+        parts.clear();
+        manifest.addPart(first, sortedIds().get(1));
+        manifest.setComplete(false);
+        manifest.save();
+    }
+
+    private List<Session> insert(int count) {
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Session session = session("{\"name\": \"session " + i + "\", \"count\": " + (1L << 40) + "}");
+            sessionRepository.insertSession(session);
+            sessions.add(session);
+        }
+        return sessions;
+    }
+
+    private static Session session(Object data) {
+        Session session = new Session();
+        session.setSource("msk_portal");
+        session.setType(SessionType.virtual_study);
+        session.setData(data);
+        return session;
+    }
+
+    private List<BsonValue> sortedIds() {
+        List<BsonValue> ids = new ArrayList<>();
+        mongoTemplate.getCollection("virtual_study").withDocumentClass(BsonDocument.class).find()
+            .sort(new Document("_id", 1))
+            .forEach(document -> ids.add(document.get("_id")));
+        return ids;
+    }
+
+    private Map<String, String> checksums() {
+        Map<String, String> checksums = new HashMap<>();
+        mongoTemplate.getCollection("virtual_study").find()
+            .forEach(document -> checksums.put(document.get("_id").toString(), document.getString("checksum")));
+        return checksums;
+    }
+}
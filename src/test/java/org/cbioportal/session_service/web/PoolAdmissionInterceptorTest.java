@@ -0,0 +1,64 @@
+package org.cbioportal.session_service.web;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cbioportal.session_service.mongo.MongoPoolMonitor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PoolAdmissionInterceptorTest {
+
+    private MongoPoolMonitor mongoPoolMonitor;
+    private MeterRegistry meterRegistry;
+    private PoolAdmissionInterceptor interceptor;
+
+    @Before
+    public void setUp() {
+        mongoPoolMonitor = mock(MongoPoolMonitor.class);
+        meterRegistry = new SimpleMeterRegistry();
+        interceptor = new PoolAdmissionInterceptor();
+        ReflectionTestUtils.setField(interceptor, "enabled", true);
+        ReflectionTestUtils.setField(interceptor, "maxWaiting", 50);
+        ReflectionTestUtils.setField(interceptor, "retryAfterSeconds", 2);
+        ReflectionTestUtils.setField(interceptor, "mongoPoolMonitor", mongoPoolMonitor);
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    public void requestsPassWhileFewThreadsWait() throws Exception {
+        when(mongoPoolMonitor.getWaiting()).thenReturn(50);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(interceptor.preHandle(new MockHttpServletRequest(), response, null), is(true));
+        assertThat(response.getStatus(), equalTo(HttpStatus.OK.value()));
+    }
+
+    @Test
+    public void requestsAreShedOnceThePoolIsSaturated() throws Exception {
+        when(mongoPoolMonitor.getWaiting()).thenReturn(51);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(interceptor.preHandle(new MockHttpServletRequest(), response, null), is(false));
+        assertThat(response.getStatus(), equalTo(HttpStatus.SERVICE_UNAVAILABLE.value()));
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER), equalTo("2"));
+        assertThat(meterRegistry.counter("session.admission.rejected", "reason", "pool").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void nothingIsShedWhenDisabled() throws Exception {
+        ReflectionTestUtils.setField(interceptor, "enabled", false);
+        when(mongoPoolMonitor.getWaiting()).thenReturn(1000);
+
+        assertThat(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), null), is(true));
+    }
+}